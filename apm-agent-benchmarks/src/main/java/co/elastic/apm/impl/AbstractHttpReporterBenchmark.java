@@ -3,7 +3,6 @@ package co.elastic.apm.impl;
 import co.elastic.apm.report.ApmServerHttpPayloadSender;
 import co.elastic.apm.report.PayloadSender;
 import co.elastic.apm.report.ReporterConfiguration;
-import co.elastic.apm.report.serialize.PayloadSerializer;
 import io.undertow.Undertow;
 import okhttp3.OkHttpClient;
 import okio.Buffer;
@@ -25,7 +24,6 @@ import java.nio.charset.Charset;
 public abstract class AbstractHttpReporterBenchmark extends AbstractReporterBenchmark {
     private Undertow server;
     private int port;
-    private PayloadSerializer payloadSerializer;
     private NoopBufferedSink noopBufferedSink;
 
     @Setup
@@ -36,13 +34,12 @@ public abstract class AbstractHttpReporterBenchmark extends AbstractReporterBenc
             .setHandler(exchange -> exchange.setStatusCode(200).endExchange()).build();
         server.start();
         port = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
-        payloadSerializer = getPayloadSerializer();
         super.setUp();
     }
 
     @Override
     protected PayloadSender getPayloadSender() {
-        return new ApmServerHttpPayloadSender(new OkHttpClient(), payloadSerializer, new ReporterConfiguration() {
+        return new ApmServerHttpPayloadSender(new OkHttpClient(), new ReporterConfiguration() {
             @Override
             public String getServerUrl() {
                 return "http://localhost:" + port;
@@ -50,8 +47,6 @@ public abstract class AbstractHttpReporterBenchmark extends AbstractReporterBenc
         });
     }
 
-    protected abstract PayloadSerializer getPayloadSerializer();
-
     @TearDown
     public void tearDown() {
         super.tearDown();
@@ -13,10 +13,15 @@ import co.elastic.apm.impl.payload.TransactionPayload;
 import co.elastic.apm.impl.stacktrace.StacktraceFactory;
 import co.elastic.apm.impl.transaction.Span;
 import co.elastic.apm.impl.transaction.Transaction;
+import co.elastic.apm.objectpool.NoopObjectPool;
+import co.elastic.apm.objectpool.ObjectPool;
 import co.elastic.apm.report.ApmServerReporter;
+import co.elastic.apm.report.PayloadBuffer;
 import co.elastic.apm.report.PayloadSender;
 import co.elastic.apm.report.Reporter;
 import co.elastic.apm.report.ReporterConfiguration;
+import co.elastic.apm.report.serialize.PayloadSerializer;
+import okio.Buffer;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
@@ -27,6 +32,7 @@ import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Threads;
 import org.openjdk.jmh.annotations.Warmup;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -42,6 +48,12 @@ public abstract class AbstractReporterBenchmark {
     protected ElasticApmTracer tracer;
     private Reporter reporter;
     private PayloadSender payloadSender;
+    protected PayloadSerializer payloadSerializer;
+    private ObjectPool<PayloadBuffer> payloadBufferPool;
+    /**
+     * Like in the reporter, each event is serialized into this buffer before it is moved to the payload
+     */
+    private final Buffer eventBuffer = new Buffer();
 
     @Setup
     public void setUp() throws Exception {
@@ -51,6 +63,8 @@ public abstract class AbstractReporterBenchmark {
         // this is important because otherwise we would not measure the speed at which events can be handled
         // but rather how fast events get discarded
         payloadSender = getPayloadSender();
+        payloadSerializer = getPayloadSerializer();
+        payloadBufferPool = new NoopObjectPool<>(() -> new PayloadBuffer(payloadBufferPool));
         Service service = new Service()
             .withName("java-test")
             .withVersion("1.0")
@@ -64,8 +78,8 @@ public abstract class AbstractReporterBenchmark {
             .withPpid(403L)
             .withArgv(Collections.singletonList("-javaagent:/path/to/elastic-apm-java.jar"));
         SystemInfo system = new SystemInfo("x86_64", "Felixs-MBP", "Mac OS X");
-        ReporterConfiguration reporterConfiguration = new ReporterConfiguration();
-        reporter = new ApmServerReporter(service, process, system, payloadSender, false, reporterConfiguration);
+        ReporterConfiguration reporterConfiguration = getReporterConfiguration();
+        reporter = new ApmServerReporter(service, process, system, payloadSender, payloadSerializer, false, reporterConfiguration);
         payload = new TransactionPayload(process, service, system);
         for (int i = 0; i < reporterConfiguration.getMaxQueueSize(); i++) {
             Transaction t = new Transaction();
@@ -128,20 +142,26 @@ public abstract class AbstractReporterBenchmark {
             .withStatement("SELECT * FROM product_types WHERE user_id=?")
             .withType("sql")
             .withUser("readonly_user");
-        t.getSpans().add(span);
-        t.getSpans().add(new Span()
+        t.addSpan(span);
+        t.addSpan(new Span()
             .withName("GET /api/types")
             .withType("request"));
-        t.getSpans().add(new Span()
+        t.addSpan(new Span()
             .withName("GET /api/types")
             .withType("request"));
-        t.getSpans().add(new Span()
+        t.addSpan(new Span()
             .withName("GET /api/types")
             .withType("request"));
     }
 
+    protected ReporterConfiguration getReporterConfiguration() {
+        return new ReporterConfiguration();
+    }
+
     protected abstract PayloadSender getPayloadSender();
 
+    protected abstract PayloadSerializer getPayloadSerializer();
+
     @TearDown
     public void tearDown() {
         reporter.close();
@@ -157,7 +177,13 @@ public abstract class AbstractReporterBenchmark {
 
     @Benchmark
     @Threads(1)
-    public void sendPayload() {
-        payloadSender.sendPayload(payload);
+    public void sendPayload() throws IOException {
+        final PayloadBuffer payloadBuffer = payloadBufferPool.createInstance().withMetadata(payload);
+        for (Transaction transaction : payload.getTransactions()) {
+            payloadSerializer.serializeTransaction(eventBuffer, transaction);
+            payloadBuffer.addSerializedEvent(payloadSerializer, eventBuffer);
+        }
+        payloadBuffer.finish();
+        payloadSender.sendPayload(payloadBuffer);
     }
 }
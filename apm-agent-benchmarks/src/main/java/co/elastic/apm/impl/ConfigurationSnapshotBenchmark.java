@@ -0,0 +1,72 @@
+package co.elastic.apm.impl;
+
+import co.elastic.apm.configuration.CoreConfiguration;
+import co.elastic.apm.impl.stacktrace.StacktraceConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the configuration values needed to start and end a transaction with a span
+ * from the {@link org.stagemonitor.configuration.ConfigurationOption}s
+ * with reading them from a {@link ConfigurationSnapshot}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class ConfigurationSnapshotBenchmark {
+
+    private final ConfigurationRegistry configurationRegistry = ConfigurationRegistry.builder()
+        .addOptionProvider(new CoreConfiguration())
+        .addOptionProvider(new StacktraceConfiguration())
+        .build();
+    private final CoreConfiguration coreConfiguration = configurationRegistry.getConfig(CoreConfiguration.class);
+    private final StacktraceConfiguration stacktraceConfiguration = configurationRegistry.getConfig(StacktraceConfiguration.class);
+    private volatile ConfigurationSnapshot configurationSnapshot = ConfigurationSnapshot.of(coreConfiguration, stacktraceConfiguration);
+
+    /**
+     * Convenience benchmark run method
+     * <p>
+     * For more accurate results, execute <code>mvn clean package</code> and run the benchmark via
+     * <code>java -jar apm-agent-benchmarks/target/benchmarks.jar -prof gc</code>
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ConfigurationSnapshotBenchmark.class.getSimpleName())
+            .warmupIterations(5)
+            .measurementIterations(5)
+            .forks(1)
+            .addProfiler(GCProfiler.class)
+            .build())
+            .run();
+    }
+
+    @Benchmark
+    public int testConfigurationOptions() {
+        if (!coreConfiguration.isActive()) {
+            return -1;
+        }
+        return coreConfiguration.getTransactionMaxSpans() + stacktraceConfiguration.getSpanFramesMinDurationMs();
+    }
+
+    @Benchmark
+    public int testConfigurationSnapshot() {
+        final ConfigurationSnapshot config = configurationSnapshot;
+        if (!config.isActive()) {
+            return -1;
+        }
+        return config.getTransactionMaxSpans() + config.getSpanFramesMinDurationMs();
+    }
+}
@@ -0,0 +1,53 @@
+package co.elastic.apm.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading both {@link System#currentTimeMillis()} and {@link System#nanoTime()} to start a transaction
+ * with reading the {@link EpochMicrosClock}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class EpochMicrosClockBenchmark {
+
+    /**
+     * Convenience benchmark run method
+     * <p>
+     * For more accurate results, execute <code>mvn clean package</code> and run the benchmark via
+     * <code>java -jar apm-agent-benchmarks/target/benchmarks.jar -prof gc</code>
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(EpochMicrosClockBenchmark.class.getSimpleName())
+            .warmupIterations(5)
+            .measurementIterations(5)
+            .forks(1)
+            .addProfiler(GCProfiler.class)
+            .build())
+            .run();
+    }
+
+    @Benchmark
+    public long testCurrentTimeMillisAndNanoTime() {
+        return System.currentTimeMillis() + System.nanoTime();
+    }
+
+    @Benchmark
+    public long testEpochMicrosClock() {
+        return EpochMicrosClock.INSTANCE.getEpochMicros();
+    }
+}
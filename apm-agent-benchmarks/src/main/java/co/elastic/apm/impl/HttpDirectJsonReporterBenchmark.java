@@ -0,0 +1,42 @@
+package co.elastic.apm.impl;
+
+import co.elastic.apm.CpuProfiler;
+import co.elastic.apm.report.serialize.DirectJsonPayloadSerializer;
+import co.elastic.apm.report.serialize.PayloadSerializer;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class HttpDirectJsonReporterBenchmark extends AbstractHttpReporterBenchmark {
+
+    /**
+     * Convenience benchmark run method
+     * <p>
+     * For more accurate results, execute <code>mvn clean package</code> and run the benchmark via
+     * <code>java -jar apm-agent-benchmarks/target/benchmarks.jar -prof gc</code>
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(HttpDirectJsonReporterBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .addProfiler(CpuProfiler.class)
+            .build())
+            .run();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        super.setUp();
+        Buffer buffer = new Buffer();
+        getPayloadSerializer().serializePayload(buffer, payload);
+        System.out.println("Size of payload in bytes: " + buffer.size());
+    }
+
+    @Override
+    protected PayloadSerializer getPayloadSerializer() {
+        return new DirectJsonPayloadSerializer();
+    }
+}
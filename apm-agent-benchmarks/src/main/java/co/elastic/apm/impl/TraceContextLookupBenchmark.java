@@ -0,0 +1,94 @@
+package co.elastic.apm.impl;
+
+import co.elastic.apm.impl.stacktrace.StacktraceFactory;
+import co.elastic.apm.impl.transaction.Span;
+import co.elastic.apm.impl.transaction.Transaction;
+import com.blogspot.mydailyjava.weaklockfree.DetachedThreadLocal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the thread local lookups needed to start and end a span
+ * when the active transaction and span are stored in two separate {@link DetachedThreadLocal}s
+ * with the single lookup of the {@link TraceContextHolder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class TraceContextLookupBenchmark {
+
+    private static final DetachedThreadLocal<Transaction> currentTransaction = new DetachedThreadLocal<>(DetachedThreadLocal.Cleaner.INLINE);
+    private static final DetachedThreadLocal<Span> currentSpan = new DetachedThreadLocal<>(DetachedThreadLocal.Cleaner.INLINE);
+    private static final ElasticApmTracer tracer = ElasticApmTracer.builder().stacktraceFactory(StacktraceFactory.Noop.INSTANCE).build();
+    private final Transaction transaction = new Transaction();
+    private final Span span = new Span();
+
+    /**
+     * Convenience benchmark run method
+     * <p>
+     * For more accurate results, execute <code>mvn clean package</code> and run the benchmark via
+     * <code>java -jar apm-agent-benchmarks/target/benchmarks.jar -prof gc</code>
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TraceContextLookupBenchmark.class.getSimpleName())
+            .warmupIterations(5)
+            .measurementIterations(5)
+            .forks(1)
+            .addProfiler(GCProfiler.class)
+            .build())
+            .run();
+    }
+
+    @Setup
+    public void setUp() {
+        // thread scoped state is set up by the thread which executes the benchmark
+        currentTransaction.set(transaction);
+        tracer.getTraceContext().setTransaction(transaction);
+    }
+
+    @TearDown
+    public void tearDown() {
+        currentTransaction.clear();
+        tracer.getTraceContext().setTransaction(null);
+    }
+
+    @Benchmark
+    public Span testSeparateThreadLocals() {
+        // startSpan
+        final Transaction activeTransaction = currentTransaction.get();
+        final Span parent = currentSpan.get();
+        currentSpan.set(span);
+        // endSpan
+        if (currentSpan.get() == span) {
+            currentSpan.clear();
+        }
+        return activeTransaction != null ? parent : span;
+    }
+
+    @Benchmark
+    public Span testTraceContextHolder() {
+        final TraceContextHolder traceContext = tracer.getTraceContext();
+        // startSpan
+        final Transaction activeTransaction = traceContext.getTransaction();
+        final Span parent = traceContext.getSpan();
+        traceContext.pushSpan(span);
+        // endSpan
+        traceContext.popSpan(span);
+        return activeTransaction != null ? parent : span;
+    }
+}
@@ -0,0 +1,48 @@
+package co.elastic.apm.impl;
+
+import co.elastic.apm.report.ReporterConfiguration;
+import co.elastic.apm.report.ReporterWaitStrategy;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the throughput of the reporter with the different {@link ReporterWaitStrategy}s.
+ * <p>
+ * As the serializer and the sender are no-ops, the results are dominated by the hand-off between the application threads
+ * and the reporter thread.
+ * Note that the spinning strategies compete with the application threads for CPU,
+ * so the results heavily depend on the number of available cores.
+ * </p>
+ */
+public class WaitStrategyReporterBenchmark extends NoopReporterBenchmark {
+
+    @Param
+    public ReporterWaitStrategy waitStrategy;
+
+    /**
+     * Convenience benchmark run method
+     * <p>
+     * For more accurate results, execute <code>mvn clean package</code> and run the benchmark via
+     * <code>java -jar apm-agent-benchmarks/target/benchmarks.jar WaitStrategyReporterBenchmark -prof gc</code>
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(WaitStrategyReporterBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build())
+            .run();
+    }
+
+    @Override
+    protected ReporterConfiguration getReporterConfiguration() {
+        return new ReporterConfiguration() {
+            @Override
+            public ReporterWaitStrategy getWaitStrategy() {
+                return waitStrategy;
+            }
+        };
+    }
+}
@@ -1,6 +1,11 @@
 package co.elastic.apm.impl.serialize;
 
+import co.elastic.apm.impl.error.ErrorCapture;
 import co.elastic.apm.impl.payload.Payload;
+import co.elastic.apm.impl.payload.ProcessInfo;
+import co.elastic.apm.impl.payload.Service;
+import co.elastic.apm.impl.payload.SystemInfo;
+import co.elastic.apm.impl.transaction.Transaction;
 import co.elastic.apm.report.serialize.PayloadSerializer;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
@@ -14,16 +19,47 @@ public class MoshiPayloadSerializer implements PayloadSerializer {
 
     private final Moshi moshi;
     private final JsonAdapter<Payload> jsonAdapter;
+    private final JsonAdapter<Service> serviceAdapter;
+    private final JsonAdapter<ProcessInfo> processAdapter;
+    private final JsonAdapter<SystemInfo> systemAdapter;
+    private final JsonAdapter<Transaction> transactionAdapter;
+    private final JsonAdapter<ErrorCapture> errorAdapter;
 
     public MoshiPayloadSerializer() {
         moshi = new Moshi.Builder()
             .add(Date.class, new Rfc3339DateJsonAdapter())
             .build();
         jsonAdapter = moshi.adapter(Payload.class);
+        serviceAdapter = moshi.adapter(Service.class);
+        processAdapter = moshi.adapter(ProcessInfo.class);
+        systemAdapter = moshi.adapter(SystemInfo.class);
+        transactionAdapter = moshi.adapter(Transaction.class);
+        errorAdapter = moshi.adapter(ErrorCapture.class);
     }
 
+    @Override
     public void serializePayload(BufferedSink sink, Payload payload) throws IOException {
         jsonAdapter.toJson(sink, payload);
     }
 
+    @Override
+    public void serializeMetadata(BufferedSink sink, Payload payload) throws IOException {
+        sink.writeUtf8("\"service\":");
+        serviceAdapter.toJson(sink, payload.getService());
+        sink.writeUtf8(",\"process\":");
+        processAdapter.toJson(sink, payload.getProcess());
+        sink.writeUtf8(",\"system\":");
+        systemAdapter.toJson(sink, payload.getSystem());
+    }
+
+    @Override
+    public void serializeTransaction(BufferedSink sink, Transaction transaction) throws IOException {
+        transactionAdapter.toJson(sink, transaction);
+    }
+
+    @Override
+    public void serializeError(BufferedSink sink, ErrorCapture error) throws IOException {
+        errorAdapter.toJson(sink, error);
+    }
+
 }
@@ -0,0 +1,40 @@
+package co.elastic.apm.impl.serialize;
+
+import co.elastic.apm.impl.error.ErrorCapture;
+import co.elastic.apm.impl.payload.Payload;
+import co.elastic.apm.impl.transaction.Transaction;
+import co.elastic.apm.report.serialize.PayloadSerializer;
+import okio.BufferedSink;
+
+import java.io.IOException;
+
+/**
+ * Writes empty JSON objects, which makes it possible to measure the overhead of the reporter without the cost of serialization
+ */
+public class NoopPayloadSerializer implements PayloadSerializer {
+
+    @Override
+    public void serializePayload(BufferedSink sink, Payload payload) throws IOException {
+        writeEmptyObject(sink);
+    }
+
+    @Override
+    public void serializeMetadata(BufferedSink sink, Payload payload) throws IOException {
+        sink.writeUtf8("\"service\":{}");
+    }
+
+    @Override
+    public void serializeTransaction(BufferedSink sink, Transaction transaction) throws IOException {
+        writeEmptyObject(sink);
+    }
+
+    @Override
+    public void serializeError(BufferedSink sink, ErrorCapture error) throws IOException {
+        writeEmptyObject(sink);
+    }
+
+    private void writeEmptyObject(BufferedSink sink) throws IOException {
+        sink.writeByte('{');
+        sink.writeByte('}');
+    }
+}
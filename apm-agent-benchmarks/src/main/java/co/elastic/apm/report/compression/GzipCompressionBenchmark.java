@@ -0,0 +1,101 @@
+package co.elastic.apm.report.compression;
+
+import co.elastic.apm.CpuProfiler;
+import co.elastic.apm.report.ReporterConfiguration;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CPU time it takes to compress a payload of the default {@code max_payload_size} with different compression levels,
+ * with and without compressing the chunks in parallel.
+ * <p>
+ * To get the CPU time per byte saved, divide the {@code cpu.time.norm} by the number of bytes saved,
+ * which is printed after each trial.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GzipCompressionBenchmark {
+
+    private static final int PAYLOAD_SIZE = 1024 * 1024;
+
+    @Param({"1", "3", "6", "9"})
+    public int level;
+
+    @Param({"0", "2"})
+    public int compressionThreads;
+
+    private final Buffer payload = new Buffer();
+    private final Buffer compressed = new Buffer();
+    private GzipPayloadCompressor compressor;
+    private long compressedSize;
+
+    /**
+     * Convenience benchmark run method
+     * <p>
+     * For more accurate results, execute <code>mvn clean package</code> and run the benchmark via
+     * <code>java -jar apm-agent-benchmarks/target/benchmarks.jar -prof gc</code>
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(GzipCompressionBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .addProfiler(CpuProfiler.class)
+            .build())
+            .run();
+    }
+
+    @Setup
+    public void setUp() {
+        final ReporterConfiguration reporterConfiguration = new ReporterConfiguration() {
+            @Override
+            public int getCompressionLevel() {
+                return level;
+            }
+        };
+        compressor = new GzipPayloadCompressor(reporterConfiguration, new AdaptiveCompressionLevel(reporterConfiguration), compressionThreads);
+        for (int i = 0; payload.size() < PAYLOAD_SIZE; i++) {
+            payload.writeUtf8("{\"id\":\"").writeHexadecimalUnsignedLong(i * 0x9E3779B97F4A7C15L)
+                .writeUtf8("\",\"name\":\"GET /api/types/").writeDecimalLong(i % 50)
+                .writeUtf8("\",\"type\":\"request\",\"result\":\"HTTP 2xx\",\"duration\":").writeDecimalLong(i % 997)
+                .writeUtf8(".").writeDecimalLong(i % 1000)
+                .writeUtf8(",\"context\":{\"request\":{\"method\":\"GET\",\"headers\":{\"user-agent\":\"Mozilla Chrome Edge\"}}}}\n");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%nlevel %d: %d bytes compressed to %d bytes, %d bytes saved%n",
+            level, payload.size(), compressedSize, payload.size() - compressedSize);
+    }
+
+    @Benchmark
+    public long testCompress() throws IOException {
+        compressor.compress(payload, compressed);
+        compressedSize = compressed.size();
+        compressed.clear();
+        return compressedSize;
+    }
+}
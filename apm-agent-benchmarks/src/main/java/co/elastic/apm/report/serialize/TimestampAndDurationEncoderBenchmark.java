@@ -0,0 +1,104 @@
+package co.elastic.apm.report.serialize;
+
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the encoders used by the {@link DirectJsonPayloadSerializer}
+ * with the {@link SimpleDateFormat} Jackson uses for the timestamps and with {@link Double#toString(double)} for the durations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimestampAndDurationEncoderBenchmark {
+
+    private final Buffer buffer = new Buffer();
+    private final Date date = new Date();
+    private TimestampEncoder timestampEncoder;
+    private SimpleDateFormat simpleDateFormat;
+    private long timestamp;
+    private double duration;
+    private long durationMicros;
+
+    /**
+     * Convenience benchmark run method
+     * <p>
+     * For more accurate results, execute <code>mvn clean package</code> and run the benchmark via
+     * <code>java -jar apm-agent-benchmarks/target/benchmarks.jar -prof gc</code>
+     */
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TimestampAndDurationEncoderBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build())
+            .run();
+    }
+
+    @Setup
+    public void setUp() {
+        timestampEncoder = new TimestampEncoder();
+        simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        timestamp = System.currentTimeMillis();
+        duration = 12.345678;
+        durationMicros = 12_346;
+    }
+
+    @Benchmark
+    public long testTimestampEncoder() throws IOException {
+        // like the timestamps of consecutive events, which mostly fall into the same second
+        timestampEncoder.writeTimestamp(buffer, timestamp++);
+        return clear();
+    }
+
+    @Benchmark
+    public long testSimpleDateFormat() {
+        date.setTime(timestamp++);
+        buffer.writeByte('"');
+        buffer.writeUtf8(simpleDateFormat.format(date));
+        buffer.writeByte('"');
+        return clear();
+    }
+
+    @Benchmark
+    public long testDurationEncoder() throws IOException {
+        DurationEncoder.writeMillis(buffer, duration);
+        duration += 0.001;
+        return clear();
+    }
+
+    @Benchmark
+    public long testDurationEncoderMicros() throws IOException {
+        DurationEncoder.writeMicros(buffer, durationMicros++);
+        return clear();
+    }
+
+    @Benchmark
+    public long testDoubleToString() {
+        buffer.writeUtf8(Double.toString(duration));
+        duration += 0.001;
+        return clear();
+    }
+
+    private long clear() {
+        final long size = buffer.size();
+        buffer.clear();
+        return size;
+    }
+}
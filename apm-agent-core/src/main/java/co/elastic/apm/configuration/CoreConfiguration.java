@@ -10,6 +10,7 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
     public static final String INSTRUMENT = "instrument";
     public static final String SERVICE_NAME = "service_name";
     public static final String SAMPLE_RATE = "sample_rate";
+    public static final int DEFAULT_TRANSACTION_MAX_SPANS = 500;
     private final ConfigurationOption<Boolean> active = ConfigurationOption.booleanOption()
         .key(ACTIVE)
         .description("A boolean specifying if the agent should be active or not. " +
@@ -65,12 +66,16 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
             "This is helpful in cases where a transaction creates a very high amount of spans (e.g. thousands of SQL queries).\n\n" +
             "Setting an upper limit will prevent overloading the agent and the APM server with too much work for such edge cases.")
         .dynamic(true)
-        .buildWithDefault(500);
+        .buildWithDefault(DEFAULT_TRANSACTION_MAX_SPANS);
 
     public boolean isActive() {
         return active.get();
     }
 
+    public ConfigurationOption<Boolean> getActiveOption() {
+        return active;
+    }
+
     public boolean isInstrument() {
         return instrument.get();
     }
@@ -91,7 +96,15 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return sampleRate.get();
     }
 
+    public ConfigurationOption<Double> getSampleRateOption() {
+        return sampleRate;
+    }
+
     public int getTransactionMaxSpans() {
         return transactionMaxSpans.get();
     }
+
+    public ConfigurationOption<Integer> getTransactionMaxSpansOption() {
+        return transactionMaxSpans;
+    }
 }
@@ -0,0 +1,50 @@
+package co.elastic.apm.impl;
+
+import co.elastic.apm.configuration.CoreConfiguration;
+import co.elastic.apm.impl.stacktrace.StacktraceConfiguration;
+
+/**
+ * An immutable snapshot of the configuration values which the {@link ElasticApmTracer} reads for every transaction and span.
+ * <p>
+ * Reading a {@link org.stagemonitor.configuration.ConfigurationOption} resolves its value on each call.
+ * Instead, the tracer holds a snapshot in a volatile field, which is replaced whenever one of the options changes.
+ * </p>
+ */
+final class ConfigurationSnapshot {
+
+    private final boolean active;
+    private final int transactionMaxSpans;
+    private final int spanFramesMinDurationMs;
+
+    private ConfigurationSnapshot(boolean active, int transactionMaxSpans, int spanFramesMinDurationMs) {
+        this.active = active;
+        this.transactionMaxSpans = transactionMaxSpans;
+        this.spanFramesMinDurationMs = spanFramesMinDurationMs;
+    }
+
+    static ConfigurationSnapshot of(CoreConfiguration coreConfiguration, StacktraceConfiguration stacktraceConfiguration) {
+        return new ConfigurationSnapshot(coreConfiguration.isActive(), coreConfiguration.getTransactionMaxSpans(),
+            stacktraceConfiguration.getSpanFramesMinDurationMs());
+    }
+
+    /**
+     * @see CoreConfiguration#isActive()
+     */
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @see CoreConfiguration#getTransactionMaxSpans()
+     */
+    int getTransactionMaxSpans() {
+        return transactionMaxSpans;
+    }
+
+    /**
+     * @see StacktraceConfiguration#getSpanFramesMinDurationMs()
+     */
+    int getSpanFramesMinDurationMs() {
+        return spanFramesMinDurationMs;
+    }
+}
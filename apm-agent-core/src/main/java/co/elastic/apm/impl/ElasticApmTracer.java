@@ -6,6 +6,13 @@ import co.elastic.apm.api.TracerRegisterer;
 import co.elastic.apm.configuration.CoreConfiguration;
 import co.elastic.apm.configuration.PrefixingConfigurationSourceWrapper;
 import co.elastic.apm.impl.error.ErrorCapture;
+import co.elastic.apm.impl.sampling.AdaptiveSampler;
+import co.elastic.apm.impl.sampling.ProbabilitySampler;
+import co.elastic.apm.impl.sampling.Sampler;
+import co.elastic.apm.impl.sampling.SamplingConfiguration;
+import co.elastic.apm.impl.sampling.TailSampler;
+import co.elastic.apm.impl.sampling.TransactionAggregate;
+import co.elastic.apm.impl.sampling.TransactionNameLimiter;
 import co.elastic.apm.impl.stacktrace.Stacktrace;
 import co.elastic.apm.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.impl.stacktrace.StacktraceFactory;
@@ -21,6 +28,7 @@ import co.elastic.apm.report.ReporterFactory;
 import com.blogspot.mydailyjava.weaklockfree.DetachedThreadLocal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.stagemonitor.configuration.ConfigurationOption;
 import org.stagemonitor.configuration.ConfigurationOptionProvider;
 import org.stagemonitor.configuration.ConfigurationRegistry;
 import org.stagemonitor.configuration.source.EnvironmentVariableConfigurationSource;
@@ -39,7 +47,6 @@ import java.util.concurrent.TimeUnit;
  * </p>
  */
 public class ElasticApmTracer implements Tracer {
-    public static final double MS_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
     private static final Logger logger = LoggerFactory.getLogger(ElasticApmTracer.class);
     private static ElasticApmTracer instance = ElasticApmTracer.builder().build().register();
 
@@ -51,11 +58,19 @@ public class ElasticApmTracer implements Tracer {
     private final ObjectPool<ErrorCapture> errorPool;
     private final Reporter reporter;
     private final StacktraceFactory stacktraceFactory;
-    private final DetachedThreadLocal<Transaction> currentTransaction = new DetachedThreadLocal<>(DetachedThreadLocal.Cleaner.INLINE);
-    private final DetachedThreadLocal<Span> currentSpan = new DetachedThreadLocal<>(DetachedThreadLocal.Cleaner.INLINE);
+    private final DetachedThreadLocal<TraceContextHolder> traceContext = new DetachedThreadLocal<TraceContextHolder>(DetachedThreadLocal.Cleaner.INLINE) {
+        @Override
+        protected TraceContextHolder initialValue(Thread thread) {
+            return new TraceContextHolder();
+        }
+    };
     private final CoreConfiguration coreConfiguration;
     private final Transaction noopTransaction;
     private final Span noopSpan;
+    private final TailSampler tailSampler;
+    private final TransactionNameLimiter transactionNameLimiter;
+    private volatile Sampler sampler;
+    private volatile ConfigurationSnapshot configurationSnapshot;
 
     ElasticApmTracer(ConfigurationRegistry configurationRegistry, Reporter reporter, StacktraceFactory stacktraceFactory) {
         this.configurationRegistry = configurationRegistry;
@@ -91,11 +106,42 @@ public class ElasticApmTracer implements Tracer {
             }
         });
         coreConfiguration = configurationRegistry.getConfig(CoreConfiguration.class);
-        noopTransaction = new Transaction().withName("noop").withType("noop").start(this, 0, false);
+        configurationSnapshot = ConfigurationSnapshot.of(coreConfiguration, stacktraceConfiguration);
+        updateSnapshotOnChange(coreConfiguration.getActiveOption());
+        updateSnapshotOnChange(coreConfiguration.getTransactionMaxSpansOption());
+        updateSnapshotOnChange(stacktraceConfiguration.getSpanFramesMinDurationMsOption());
+        final SamplingConfiguration samplingConfiguration = configurationRegistry.getConfig(SamplingConfiguration.class);
+        sampler = createSampler(samplingConfiguration);
+        tailSampler = new TailSampler(samplingConfiguration);
+        transactionNameLimiter = new TransactionNameLimiter(samplingConfiguration);
+        noopTransaction = new Transaction().withName("noop").withType("noop").startNoop(this);
         noopSpan = new Span().withName("noop").withType("noop").start(this, noopTransaction, null, 0, true);
 
     }
 
+    private <T> void updateSnapshotOnChange(ConfigurationOption<T> option) {
+        option.addChangeListener(new ConfigurationOption.ChangeListener<T>() {
+            @Override
+            public void onChange(ConfigurationOption<?> configurationOption, T oldValue, T newValue) {
+                configurationSnapshot = ConfigurationSnapshot.of(coreConfiguration, stacktraceConfiguration);
+            }
+        });
+    }
+
+    private Sampler createSampler(SamplingConfiguration samplingConfiguration) {
+        if (samplingConfiguration.getSampledTransactionsPerSecond() > 0) {
+            // the adaptive sampler takes the current sample_rate into account on each adjustment
+            return new AdaptiveSampler(reporter, coreConfiguration, samplingConfiguration);
+        }
+        coreConfiguration.getSampleRateOption().addChangeListener(new ConfigurationOption.ChangeListener<Double>() {
+            @Override
+            public void onChange(ConfigurationOption<?> configurationOption, Double oldValue, Double newValue) {
+                sampler = ProbabilitySampler.of(newValue);
+            }
+        });
+        return ProbabilitySampler.of(coreConfiguration.getSampleRate());
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -121,70 +167,91 @@ public class ElasticApmTracer implements Tracer {
         return this;
     }
 
+    /**
+     * Returns the trace context of the current thread, which holds the active transaction and span.
+     * <p>
+     * Looking up the context once and passing it to {@link #startSpan(TraceContextHolder)} and {@link #endSpan(Span, TraceContextHolder)}
+     * saves a thread local lookup per call.
+     * </p>
+     *
+     * @return the trace context of the current thread, never {@code null}
+     */
+    public TraceContextHolder getTraceContext() {
+        return traceContext.get();
+    }
+
     @Override
     public Transaction startTransaction() {
         Transaction transaction;
-        if (!coreConfiguration.isActive()) {
+        final ConfigurationSnapshot config = configurationSnapshot;
+        if (!config.isActive()) {
             transaction = noopTransaction;
         } else {
-            transaction = transactionPool.createInstance().start(this, System.nanoTime(), true);
+            transaction = transactionPool.createInstance()
+                .start(this, EpochMicrosClock.INSTANCE.getEpochMicros(), sampler.isSampled(), config.getTransactionMaxSpans());
         }
-        currentTransaction.set(transaction);
+        getTraceContext().setTransaction(transaction);
         return transaction;
     }
 
+    @Nullable
     @Override
     public Transaction currentTransaction() {
-        return currentTransaction.get();
+        return getTraceContext().getTransaction();
     }
 
+    @Nullable
     @Override
     public Span currentSpan() {
-        return currentSpan.get();
+        return getTraceContext().getSpan();
     }
 
     @Override
     public Span startSpan() {
-        Transaction transaction = currentTransaction();
+        return startSpan(getTraceContext());
+    }
+
+    /**
+     * Starts a span as a child of the active span or transaction of the given context
+     *
+     * @param context the trace context of the current thread
+     */
+    public Span startSpan(TraceContextHolder context) {
+        Transaction transaction = context.getTransaction();
         final Span span;
         // makes sure that the active setting is consistent during a transaction
         // even when setting active=false mid-transaction
-        if (isNoop(transaction)) {
+        // spans of non-sampled transactions are not recorded, so there is no need to take them from the pool
+        if (isNoop(transaction) || !transaction.isSampled()) {
             span = noopSpan;
         } else {
-            span = createRealSpan(transaction);
+            span = createRealSpan(transaction, context.getSpan());
         }
-        currentSpan.set(span);
+        context.pushSpan(span);
         return span;
     }
 
-    private Span createRealSpan(Transaction transaction) {
+    private Span createRealSpan(Transaction transaction, @Nullable Span parent) {
         Span span;
         span = spanPool.createInstance();
-        final boolean dropped;
-        if (isTransactionSpanLimitReached(transaction)) {
-            dropped = true;
+        // reserves a slot for the span, unless the transaction_max_spans limit has been reached
+        final boolean dropped = !transaction.addSpan(span);
+        if (dropped) {
             transaction.getSpanCount().getDropped().increment();
-        } else {
-            dropped = false;
-            transaction.addSpan(span);
         }
-        span.start(this, transaction, currentSpan(), System.nanoTime(), dropped);
+        span.start(this, transaction, parent, transaction.getCurrentEpochMicros(), dropped);
         return span;
     }
 
-    private boolean isTransactionSpanLimitReached(Transaction transaction) {
-        return coreConfiguration.getTransactionMaxSpans() <= transaction.getSpans().size();
-    }
-
     public void captureException(Exception e) {
         ErrorCapture error = new ErrorCapture();
-        error.withTimestamp(System.currentTimeMillis());
+        error.withTimestampMicros(EpochMicrosClock.INSTANCE.getEpochMicros());
         error.getException().withMessage(e.getMessage());
         error.getException().withType(e.getClass().getName());
         stacktraceFactory.fillStackTrace(error.getException().getStacktrace(), e.getStackTrace());
         Transaction transaction = currentTransaction();
         if (transaction != null) {
+            transaction.markErrorCaptured();
             error.getTransaction().withId(transaction.getId());
             error.getContext().copyFrom(transaction.getContext());
         }
@@ -197,33 +264,59 @@ public class ElasticApmTracer implements Tracer {
 
     @SuppressWarnings("ReferenceEquality")
     public void endTransaction(Transaction transaction) {
-        if (currentTransaction.get() != transaction) {
+        final TraceContextHolder context = getTraceContext();
+        if (context.getTransaction() != transaction) {
             logger.warn("Trying to end a transaction which is not the current (thread local) transaction!");
             assert false;
         } else if (!isNoop(transaction)) {
-            reporter.report(transaction);
+            if (isReported(transaction)) {
+                reporter.report(transaction);
+            } else {
+                // discarded transactions never enter the reporter's ring buffer
+                recycle(transaction);
+            }
+        }
+        context.setTransaction(null);
+        context.clearSpans();
+    }
+
+    private boolean isReported(Transaction transaction) {
+        if (tailSampler.isEnabled() && !tailSampler.isKept(transaction)) {
+            return false;
         }
-        currentTransaction.clear();
+        return !transactionNameLimiter.isEnabled() || transactionNameLimiter.tryAcquire(transaction);
+    }
+
+    /**
+     * @return the aggregate of all transactions which have not been reported because they exceeded {@code max_transactions_per_name}
+     */
+    public TransactionAggregate getLimitedTransactions() {
+        return transactionNameLimiter.getLimitedTransactions();
     }
 
     private boolean isNoop(Transaction transaction) {
         return transaction == noopTransaction;
     }
 
-    @SuppressWarnings("ReferenceEquality")
     public void endSpan(Span span) {
-        if (currentSpan.get() != span) {
+        endSpan(span, getTraceContext());
+    }
+
+    /**
+     * @param context the trace context of the current thread
+     */
+    public void endSpan(Span span, TraceContextHolder context) {
+        if (!context.popSpan(span)) {
             logger.warn("Trying to end a span which is not the current (thread local) span!");
             assert false;
             return;
         }
-        int spanFramesMinDurationMs = stacktraceConfiguration.getSpanFramesMinDurationMs();
-        if (spanFramesMinDurationMs != 0 && !isNoop(span)) {
-            if (span.getDuration() >= spanFramesMinDurationMs) {
+        int spanFramesMinDurationMs = configurationSnapshot.getSpanFramesMinDurationMs();
+        if (spanFramesMinDurationMs != 0 && !isNoop(span) && span.isSampled()) {
+            if (span.getDurationMicros() >= TimeUnit.MILLISECONDS.toMicros(spanFramesMinDurationMs)) {
                 stacktraceFactory.fillStackTrace(span.getStacktrace());
             }
         }
-        currentSpan.clear();
     }
 
     private boolean isNoop(Span span) {
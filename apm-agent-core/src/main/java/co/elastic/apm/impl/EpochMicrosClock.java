@@ -0,0 +1,75 @@
+package co.elastic.apm.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The clock for the timestamps of transactions, spans and errors, in microseconds since the epoch.
+ * <p>
+ * A timestamp is derived from a single {@link System#nanoTime()} call and an offset to the epoch.
+ * </p>
+ * <p>
+ * As {@link System#nanoTime()} may drift from the wall clock,
+ * the offset is recalibrated with {@link System#currentTimeMillis()} when it is older than the calibration interval.
+ * The new offset is only applied if it deviates by more than {@link #MAX_DRIFT_MICROS},
+ * so that the millisecond granularity of {@link System#currentTimeMillis()} does not make the timestamps jitter.
+ * </p>
+ * <p>
+ * As a recalibration changes the offset, durations must not be measured as the difference of two timestamps of this clock.
+ * Instead, a transaction pins the offset when it starts, see {@link co.elastic.apm.impl.transaction.Transaction#getCurrentEpochMicros()}.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+public final class EpochMicrosClock {
+
+    public static final EpochMicrosClock INSTANCE = new EpochMicrosClock(TimeUnit.SECONDS.toNanos(10));
+    /**
+     * Deviations up to this value are caused by the granularity of {@link System#currentTimeMillis()}, rather than by drift
+     */
+    static final long MAX_DRIFT_MICROS = TimeUnit.MILLISECONDS.toMicros(1);
+
+    private final long calibrationIntervalNanos;
+    private volatile Calibration calibration;
+
+    EpochMicrosClock(long calibrationIntervalNanos) {
+        this.calibrationIntervalNanos = calibrationIntervalNanos;
+        final long nanoTime = System.nanoTime();
+        this.calibration = new Calibration(nanoTime, getOffsetMicros(nanoTime, System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the current time in microseconds since the epoch
+     */
+    public long getEpochMicros() {
+        final long nanoTime = System.nanoTime();
+        Calibration calibration = this.calibration;
+        if (nanoTime - calibration.nanoTime >= calibrationIntervalNanos) {
+            calibration = new Calibration(nanoTime, recalibrate(calibration.offsetMicros, nanoTime, System.currentTimeMillis()));
+            this.calibration = calibration;
+        }
+        return nanoTime / 1000 + calibration.offsetMicros;
+    }
+
+    static long recalibrate(long offsetMicros, long nanoTime, long epochMillis) {
+        final long newOffsetMicros = getOffsetMicros(nanoTime, epochMillis);
+        if (Math.abs(newOffsetMicros - offsetMicros) > MAX_DRIFT_MICROS) {
+            return newOffsetMicros;
+        }
+        return offsetMicros;
+    }
+
+    private static long getOffsetMicros(long nanoTime, long epochMillis) {
+        return epochMillis * 1000 - nanoTime / 1000;
+    }
+
+    private static class Calibration {
+        private final long nanoTime;
+        private final long offsetMicros;
+
+        private Calibration(long nanoTime, long offsetMicros) {
+            this.nanoTime = nanoTime;
+            this.offsetMicros = offsetMicros;
+        }
+    }
+}
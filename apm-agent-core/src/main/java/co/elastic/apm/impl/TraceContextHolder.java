@@ -0,0 +1,102 @@
+package co.elastic.apm.impl;
+
+import co.elastic.apm.impl.transaction.Span;
+import co.elastic.apm.impl.transaction.Transaction;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds the active {@link Transaction} of a thread and the stack of its active {@link Span}s.
+ * <p>
+ * There is exactly one instance per thread, which lives as long as the thread,
+ * so that all state can be found with a single thread local lookup via {@link ElasticApmTracer#getTraceContext()}.
+ * Instrumentations which run on the same thread for the whole request may obtain it once and keep a reference,
+ * instead of looking it up again on each callback.
+ * </p>
+ * <p>
+ * The span stack is backed by an array which is allocated once per thread,
+ * so that starting and ending spans does not allocate.
+ * Spans which are nested deeper than {@link #MAX_SPAN_DEPTH} are still counted,
+ * but they don't become the active span, so that their children are attributed to the deepest span on the stack.
+ * </p>
+ * <p>
+ * Note that this class is not thread safe, an instance must only be used by the thread it belongs to.
+ * </p>
+ */
+public final class TraceContextHolder {
+
+    static final int MAX_SPAN_DEPTH = 32;
+
+    private final Span[] spanStack = new Span[MAX_SPAN_DEPTH];
+    @Nullable
+    private Transaction transaction;
+    // may exceed MAX_SPAN_DEPTH
+    private int spanDepth;
+
+    TraceContextHolder() {
+    }
+
+    @Nullable
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    void setTransaction(@Nullable Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    /**
+     * @return the innermost active span, or {@code null} if there is no active span
+     */
+    @Nullable
+    public Span getSpan() {
+        if (spanDepth == 0) {
+            return null;
+        }
+        return spanStack[Math.min(spanDepth, MAX_SPAN_DEPTH) - 1];
+    }
+
+    /**
+     * @return the number of active spans
+     */
+    public int getSpanDepth() {
+        return spanDepth;
+    }
+
+    void pushSpan(Span span) {
+        if (spanDepth < MAX_SPAN_DEPTH) {
+            spanStack[spanDepth] = span;
+        }
+        spanDepth++;
+    }
+
+    /**
+     * Removes the span from the top of the stack, which makes its parent the active span again.
+     *
+     * @return {@code true}, if the span has been removed,
+     * {@code false} if it is not the innermost active span
+     */
+    @SuppressWarnings("ReferenceEquality")
+    boolean popSpan(Span span) {
+        if (spanDepth > MAX_SPAN_DEPTH) {
+            // spans beyond the maximum depth are not stored, so there is nothing to compare to
+            spanDepth--;
+            return true;
+        }
+        if (spanDepth == 0 || spanStack[spanDepth - 1] != span) {
+            return false;
+        }
+        spanStack[--spanDepth] = null;
+        return true;
+    }
+
+    /**
+     * Removes all spans, for example the ones which have not been ended before their transaction
+     */
+    void clearSpans() {
+        for (int i = Math.min(spanDepth, MAX_SPAN_DEPTH) - 1; i >= 0; i--) {
+            spanStack[i] = null;
+        }
+        spanDepth = 0;
+    }
+}
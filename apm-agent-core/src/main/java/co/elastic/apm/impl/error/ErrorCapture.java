@@ -5,6 +5,7 @@ import co.elastic.apm.impl.context.Context;
 import co.elastic.apm.impl.transaction.TransactionId;
 import co.elastic.apm.objectpool.Recyclable;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.commons.lang.builder.EqualsBuilder;
@@ -39,12 +40,9 @@ public class ErrorCapture implements Recyclable {
     @JsonProperty("log")
     private final Log log = new Log();
     /**
-     * Recorded time of the error, UTC based and formatted as YYYY-MM-DDTHH:mm:ss.sssZ
-     * (Required)
+     * Recorded time of the error, in microseconds since the epoch
      */
-    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "UTC")
-    @JsonProperty("timestamp")
-    private final Date timestamp = new Date();
+    private long timestampMicros;
     /**
      * Data for correlating errors with transactions
      */
@@ -99,13 +97,30 @@ public class ErrorCapture implements Recyclable {
      * Recorded time of the error, UTC based and formatted as YYYY-MM-DDTHH:mm:ss.sssZ
      * (Required)
      */
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "UTC")
     @JsonProperty("timestamp")
     public Date getTimestamp() {
-        return timestamp;
+        return new Date(timestampMicros / 1000);
+    }
+
+    /**
+     * Recorded time of the error, in microseconds since the epoch
+     */
+    @JsonIgnore
+    public long getTimestampMicros() {
+        return timestampMicros;
     }
 
     public ErrorCapture withTimestamp(long epochMs) {
-        this.timestamp.setTime(epochMs);
+        this.timestampMicros = epochMs * 1000;
+        return this;
+    }
+
+    /**
+     * @param epochMicros the time of the error, see {@link co.elastic.apm.impl.EpochMicrosClock}
+     */
+    public ErrorCapture withTimestampMicros(long epochMicros) {
+        this.timestampMicros = epochMicros;
         return this;
     }
 
@@ -125,7 +140,7 @@ public class ErrorCapture implements Recyclable {
             .append("exception", exception)
             .append("id", id)
             .append("log", log)
-            .append("timestamp", timestamp)
+            .append("timestamp", timestampMicros)
             .append("transaction", transaction).toString();
     }
 
@@ -137,7 +152,7 @@ public class ErrorCapture implements Recyclable {
             .append(context)
             .append(id)
             .append(transaction)
-            .append(timestamp).toHashCode();
+            .append(timestampMicros).toHashCode();
     }
 
     @Override
@@ -155,7 +170,7 @@ public class ErrorCapture implements Recyclable {
             .append(context, rhs.context)
             .append(id, rhs.id)
             .append(transaction, rhs.transaction)
-            .append(timestamp, rhs.timestamp).isEquals();
+            .append(timestampMicros, rhs.timestampMicros).isEquals();
     }
 
     @Override
@@ -165,7 +180,7 @@ public class ErrorCapture implements Recyclable {
         context.resetState();
         id.resetState();
         transaction.resetState();
-        timestamp.setTime(0);
+        timestampMicros = 0;
         tracer = null;
     }
 
@@ -0,0 +1,127 @@
+package co.elastic.apm.impl.sampling;
+
+import co.elastic.apm.configuration.CoreConfiguration;
+import co.elastic.apm.report.Reporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Sampler} which targets a fixed number of sampled transactions per second.
+ * <p>
+ * Every {@link #ADJUSTMENT_INTERVAL_MS} milliseconds, the sampling probability is re-calculated based on the observed rate of
+ * started transactions.
+ * On top of that, the probability is lowered when the {@link Reporter} can't keep up,
+ * which is indicated by a filling queue or by dropped events.
+ * That way, fewer transactions are sampled in the first place,
+ * instead of dropping transactions after all the work to capture them has already been done.
+ * </p>
+ * <p>
+ * The sampling decision itself is delegated to a {@link ProbabilitySampler},
+ * so that the hot path only consists of incrementing a counter and comparing a random number with a threshold.
+ * </p>
+ * <p>
+ * The adjustment is done by the thread which starts the first transaction after the interval has elapsed,
+ * so there is no dedicated thread which would have to be stopped.
+ * </p>
+ */
+public class AdaptiveSampler implements Sampler {
+
+    static final long ADJUSTMENT_INTERVAL_MS = 500;
+    /**
+     * The weight of the latest measurement when calculating the exponentially weighted moving average of the transaction rate
+     */
+    private static final double SMOOTHING_FACTOR = 0.5;
+    private static final double MIN_BACKPRESSURE_FACTOR = 0.01;
+    private static final double HIGH_QUEUE_UTILIZATION = 0.5;
+    private static final double LOW_QUEUE_UTILIZATION = 0.1;
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveSampler.class);
+
+    private final AtomicLong startedTransactions = new AtomicLong();
+    private final AtomicLong nextAdjustmentNanos = new AtomicLong();
+    private final Reporter reporter;
+    private final CoreConfiguration coreConfiguration;
+    private final SamplingConfiguration samplingConfiguration;
+    private volatile Sampler delegate;
+    private volatile double samplingRate;
+    // guarded by this, only accessed when adjusting the sampling rate
+    private double transactionsPerSecond = -1;
+    private double backpressureFactor = 1;
+    private int lastDropped;
+    private long lastAdjustmentNanos;
+
+    public AdaptiveSampler(Reporter reporter, CoreConfiguration coreConfiguration, SamplingConfiguration samplingConfiguration) {
+        this.reporter = reporter;
+        this.coreConfiguration = coreConfiguration;
+        this.samplingConfiguration = samplingConfiguration;
+        this.samplingRate = coreConfiguration.getSampleRate();
+        this.delegate = ProbabilitySampler.of(samplingRate);
+        this.lastDropped = reporter.getDropped();
+        this.lastAdjustmentNanos = System.nanoTime();
+        this.nextAdjustmentNanos.set(lastAdjustmentNanos + TimeUnit.MILLISECONDS.toNanos(ADJUSTMENT_INTERVAL_MS));
+    }
+
+    @Override
+    public boolean isSampled() {
+        startedTransactions.incrementAndGet();
+        final long nanoTime = System.nanoTime();
+        final long next = nextAdjustmentNanos.get();
+        // only the thread which wins the race adjusts the rate, the others don't wait for it
+        if (nanoTime - next >= 0 && nextAdjustmentNanos.compareAndSet(next, nanoTime + TimeUnit.MILLISECONDS.toNanos(ADJUSTMENT_INTERVAL_MS))) {
+            adjust(nanoTime);
+        }
+        return delegate.isSampled();
+    }
+
+    synchronized void adjust(long nanoTime) {
+        nextAdjustmentNanos.set(nanoTime + TimeUnit.MILLISECONDS.toNanos(ADJUSTMENT_INTERVAL_MS));
+        final double elapsedSeconds = (nanoTime - lastAdjustmentNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        if (elapsedSeconds <= 0) {
+            return;
+        }
+        lastAdjustmentNanos = nanoTime;
+        final double observedTransactionsPerSecond = startedTransactions.getAndSet(0) / elapsedSeconds;
+        if (transactionsPerSecond < 0) {
+            transactionsPerSecond = observedTransactionsPerSecond;
+        } else {
+            transactionsPerSecond = SMOOTHING_FACTOR * observedTransactionsPerSecond + (1 - SMOOTHING_FACTOR) * transactionsPerSecond;
+        }
+        updateBackpressureFactor();
+
+        final int target = samplingConfiguration.getSampledTransactionsPerSecond();
+        double rate = coreConfiguration.getSampleRate();
+        if (transactionsPerSecond > target) {
+            rate = Math.min(rate, target / transactionsPerSecond);
+        }
+        rate *= backpressureFactor;
+        if (rate != samplingRate) {
+            logger.debug("Adjusting sample rate to {} ({} transactions per second, backpressure factor {})",
+                rate, transactionsPerSecond, backpressureFactor);
+            samplingRate = rate;
+            delegate = ProbabilitySampler.of(rate);
+        }
+    }
+
+    private void updateBackpressureFactor() {
+        final int dropped = reporter.getDropped();
+        final boolean newlyDropped = dropped != lastDropped;
+        lastDropped = dropped;
+        final double queueUtilization = reporter.getQueueUtilization();
+        if (newlyDropped) {
+            backpressureFactor = Math.max(MIN_BACKPRESSURE_FACTOR, backpressureFactor / 2);
+        } else if (queueUtilization > HIGH_QUEUE_UTILIZATION) {
+            backpressureFactor = Math.max(MIN_BACKPRESSURE_FACTOR, backpressureFactor * (1 - queueUtilization / 2));
+        } else if (queueUtilization < LOW_QUEUE_UTILIZATION) {
+            backpressureFactor = Math.min(1, backpressureFactor * 1.25);
+        }
+    }
+
+    /**
+     * @return the current sampling rate, a value between 0.0 and 1.0
+     */
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+}
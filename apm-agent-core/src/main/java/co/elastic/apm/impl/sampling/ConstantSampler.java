@@ -0,0 +1,21 @@
+package co.elastic.apm.impl.sampling;
+
+/**
+ * A {@link Sampler} which always returns the same sampling decision.
+ */
+public enum ConstantSampler implements Sampler {
+
+    ALWAYS(true),
+    NEVER(false);
+
+    private final boolean sampled;
+
+    ConstantSampler(boolean sampled) {
+        this.sampled = sampled;
+    }
+
+    @Override
+    public boolean isSampled() {
+        return sampled;
+    }
+}
@@ -0,0 +1,93 @@
+package co.elastic.apm.impl.sampling;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations which is used to estimate percentiles.
+ * <p>
+ * Durations are recorded with microsecond resolution in log-linear buckets:
+ * each power of two is divided into {@link #SUB_BUCKETS} linear sub-buckets,
+ * which bounds the relative error of the estimation to 12.5%.
+ * That way, a fixed number of buckets covers durations from one microsecond up to several days.
+ * </p>
+ * <p>
+ * To adapt to changing latencies, the counts can be {@linkplain #decay() decayed},
+ * which gives recent durations a higher weight than older ones.
+ * </p>
+ */
+class DurationHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int NUMBER_OF_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final AtomicLong recorded = new AtomicLong();
+
+    static int getBucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        micros = Math.min(micros, MAX_VALUE);
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long getLowerBound(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKETS) {
+            return bucketIndex;
+        }
+        final int exponent = bucketIndex / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int subBucket = bucketIndex % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Records a duration
+     *
+     * @param durationMs the duration in milliseconds
+     * @return the total number of durations which have been recorded so far
+     */
+    long record(double durationMs) {
+        counts.incrementAndGet(getBucketIndex((long) (durationMs * 1000)));
+        return recorded.incrementAndGet();
+    }
+
+    /**
+     * Estimates the duration at the given percentile.
+     *
+     * @param percentile a value between 0.0 and 1.0
+     * @return the lower bound of the bucket which contains the percentile, in milliseconds
+     */
+    double getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        final long countAtPercentile = (long) Math.ceil(percentile * total);
+        long cumulativeCount = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            cumulativeCount += counts.get(i);
+            if (cumulativeCount >= countAtPercentile && cumulativeCount > 0) {
+                return getLowerBound(i) / 1000.0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Halves the counts of all buckets
+     */
+    void decay() {
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            final long count = counts.get(i);
+            if (count > 1) {
+                counts.addAndGet(i, -(count / 2));
+            }
+        }
+    }
+}
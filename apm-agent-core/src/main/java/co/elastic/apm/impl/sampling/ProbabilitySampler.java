@@ -0,0 +1,41 @@
+package co.elastic.apm.impl.sampling;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A {@link Sampler} which samples a transaction with a fixed probability.
+ * <p>
+ * The sampling decision boils down to comparing a thread local random number with a precomputed threshold,
+ * which means that it is lock-free and does not allocate any objects.
+ * </p>
+ */
+public class ProbabilitySampler implements Sampler {
+
+    private final long threshold;
+
+    private ProbabilitySampler(double samplingRate) {
+        this.threshold = (long) (samplingRate * Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a sampler for the given sampling rate.
+     *
+     * @param samplingRate the sampling rate, a value between 0.0 and 1.0
+     * @return a {@link ConstantSampler} if the rate is either 0 or 1, a {@link ProbabilitySampler} otherwise
+     */
+    public static Sampler of(double samplingRate) {
+        if (samplingRate >= 1) {
+            return ConstantSampler.ALWAYS;
+        }
+        if (samplingRate <= 0 || Double.isNaN(samplingRate)) {
+            return ConstantSampler.NEVER;
+        }
+        return new ProbabilitySampler(samplingRate);
+    }
+
+    @Override
+    public boolean isSampled() {
+        // shifting out the sign bit yields a uniformly distributed value between 0 and Long.MAX_VALUE
+        return ThreadLocalRandom.current().nextLong() >>> 1 < threshold;
+    }
+}
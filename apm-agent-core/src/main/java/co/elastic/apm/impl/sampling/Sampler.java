@@ -0,0 +1,24 @@
+package co.elastic.apm.impl.sampling;
+
+import co.elastic.apm.impl.transaction.Transaction;
+
+/**
+ * A sampler is responsible for determining whether a {@link Transaction} should be sampled.
+ * <p>
+ * Sampled transactions record all available information, like the context and the spans,
+ * whereas non-sampled transactions only record the name, the duration and the result.
+ * </p>
+ * <p>
+ * Implementations are called for every transaction,
+ * so they have to be thread safe and should neither block nor allocate objects.
+ * </p>
+ */
+public interface Sampler {
+
+    /**
+     * Determines whether the transaction which is about to be started should be sampled.
+     *
+     * @return {@code true}, if the transaction should be sampled
+     */
+    boolean isSampled();
+}
@@ -0,0 +1,89 @@
+package co.elastic.apm.impl.sampling;
+
+import org.stagemonitor.configuration.ConfigurationOption;
+import org.stagemonitor.configuration.ConfigurationOptionProvider;
+
+import java.util.Collection;
+import java.util.Collections;
+
+public class SamplingConfiguration extends ConfigurationOptionProvider {
+
+    private final ConfigurationOption<Integer> sampledTransactionsPerSecond = ConfigurationOption.integerOption()
+        .key("sampled_transactions_per_second")
+        .description("When set to a positive value, the agent continuously adapts the sample rate, " +
+            "so that roughly this number of transactions per second gets sampled.\n" +
+            "\n" +
+            "The rate is re-evaluated every 500 milliseconds, based on the rate at which transactions are started. " +
+            "It is lowered further when the queue of the reporter is filling up or when the reporter had to drop transactions. " +
+            "That way, the overhead of the agent stays roughly the same, even during traffic spikes.\n" +
+            "\n" +
+            "The sample_rate acts as an upper bound. Set to 0 to disable adaptive sampling.")
+        .buildWithDefault(0);
+
+    private final ConfigurationOption<Boolean> tailSamplingEnabled = ConfigurationOption.booleanOption()
+        .key("tail_sampling_enabled")
+        .description("When enabled, the decision whether a transaction is reported to the APM server is made after the transaction " +
+            "has ended. Only slow transactions (see tail_sampling_duration_percentile), transactions with certain results " +
+            "(see tail_sampling_results) and transactions during which an error has been captured are reported.\n" +
+            "\n" +
+            "All other transactions are discarded before they are serialized and sent to the APM server, " +
+            "which saves CPU and network bandwidth while keeping the transactions which are most interesting.")
+        .dynamic(true)
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Double> tailSamplingDurationPercentile = ConfigurationOption.doubleOption()
+        .key("tail_sampling_duration_percentile")
+        .description("When tail sampling is enabled, transactions which are at least as slow as this percentile of all " +
+            "transactions are reported. The value has to be between 0.0 and 1.0.\n" +
+            "\n" +
+            "For example, the default value of 0.99 means that the slowest 1% of the transactions are reported.")
+        .dynamic(true)
+        .buildWithDefault(0.99);
+
+    private final ConfigurationOption<Collection<String>> tailSamplingResults = ConfigurationOption.stringsOption()
+        .key("tail_sampling_results")
+        .description("When tail sampling is enabled, transactions with one of these results are always reported.")
+        .dynamic(true)
+        .buildWithDefault(Collections.singletonList("HTTP 5xx"));
+
+    private final ConfigurationOption<Integer> maxTransactionsPerName = ConfigurationOption.integerOption()
+        .key("max_transactions_per_name")
+        .description("Limits how many sampled transactions with the same name are reported within " +
+            "transaction_name_limit_interval seconds. " +
+            "This prevents frequently called endpoints, like health checks, from crowding out rarely called endpoints.\n" +
+            "\n" +
+            "Transactions exceeding the limit are not reported individually but are still counted. " +
+            "Set to 0 to disable the limit.")
+        .dynamic(true)
+        .buildWithDefault(0);
+
+    private final ConfigurationOption<Integer> transactionNameLimitInterval = ConfigurationOption.integerOption()
+        .key("transaction_name_limit_interval")
+        .description("The interval in seconds to which max_transactions_per_name applies.")
+        .dynamic(true)
+        .buildWithDefault(10);
+
+    public int getSampledTransactionsPerSecond() {
+        return sampledTransactionsPerSecond.get();
+    }
+
+    public boolean isTailSamplingEnabled() {
+        return tailSamplingEnabled.get();
+    }
+
+    public double getTailSamplingDurationPercentile() {
+        return tailSamplingDurationPercentile.get();
+    }
+
+    public Collection<String> getTailSamplingResults() {
+        return tailSamplingResults.get();
+    }
+
+    public int getMaxTransactionsPerName() {
+        return maxTransactionsPerName.get();
+    }
+
+    public int getTransactionNameLimitInterval() {
+        return transactionNameLimitInterval.get();
+    }
+}
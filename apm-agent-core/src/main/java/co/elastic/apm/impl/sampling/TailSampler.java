@@ -0,0 +1,76 @@
+package co.elastic.apm.impl.sampling;
+
+import co.elastic.apm.impl.transaction.Transaction;
+
+import java.util.Collection;
+
+/**
+ * Decides whether a {@link Transaction} should be reported after it has ended.
+ * <p>
+ * In contrast to a {@link Sampler}, which decides upfront whether a transaction should be sampled,
+ * this decision is based on the outcome of the transaction.
+ * Only transactions which are slow, which have a result which is configured to be interesting (for example {@code HTTP 5xx})
+ * or during which an error has been captured are kept.
+ * All other transactions can be recycled right away, without ever being serialized and sent to the APM server.
+ * </p>
+ * <p>
+ * Whether a transaction is slow is determined by estimating the configured percentile of the durations of all transactions.
+ * </p>
+ */
+public class TailSampler {
+
+    /**
+     * After how many transactions the duration threshold is re-calculated
+     */
+    static final int RECALCULATION_INTERVAL = 1000;
+
+    private final SamplingConfiguration samplingConfiguration;
+    private final DurationHistogram durationHistogram = new DurationHistogram();
+    /**
+     * Everything is considered slow until enough transactions have been recorded to estimate the percentile
+     */
+    private volatile double durationThresholdMs = 0;
+
+    public TailSampler(SamplingConfiguration samplingConfiguration) {
+        this.samplingConfiguration = samplingConfiguration;
+    }
+
+    public boolean isEnabled() {
+        return samplingConfiguration.isTailSamplingEnabled();
+    }
+
+    /**
+     * Records the duration of the transaction and decides whether it should be reported.
+     *
+     * @param transaction an ended transaction
+     * @return {@code true}, if the transaction should be reported,
+     * {@code false}, if the transaction should be discarded
+     */
+    public boolean isKept(Transaction transaction) {
+        final double duration = transaction.getDuration();
+        if (durationHistogram.record(duration) % RECALCULATION_INTERVAL == 0) {
+            recalculateDurationThreshold();
+        }
+        if (transaction.isErrorCaptured()) {
+            return true;
+        }
+        final String result = transaction.getResult();
+        if (result != null) {
+            final Collection<String> keptResults = samplingConfiguration.getTailSamplingResults();
+            if (keptResults.contains(result)) {
+                return true;
+            }
+        }
+        return duration >= durationThresholdMs;
+    }
+
+    private void recalculateDurationThreshold() {
+        durationThresholdMs = durationHistogram.getValueAtPercentile(samplingConfiguration.getTailSamplingDurationPercentile());
+        // gives recent transactions a higher weight so that the threshold adapts to changing latencies
+        durationHistogram.decay();
+    }
+
+    double getDurationThresholdMs() {
+        return durationThresholdMs;
+    }
+}
@@ -0,0 +1,28 @@
+package co.elastic.apm.impl.sampling;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts transactions which have not been reported individually, along with their total duration.
+ * <p>
+ * That way, the load of the application can still be estimated when transactions have been discarded.
+ * </p>
+ */
+public class TransactionAggregate {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalDurationMicros = new AtomicLong();
+
+    public void add(double durationMs) {
+        count.incrementAndGet();
+        totalDurationMicros.addAndGet((long) (durationMs * 1000));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getTotalDurationMs() {
+        return totalDurationMicros.get() / 1000.0;
+    }
+}
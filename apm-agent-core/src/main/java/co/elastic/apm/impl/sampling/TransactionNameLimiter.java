@@ -0,0 +1,170 @@
+package co.elastic.apm.impl.sampling;
+
+import co.elastic.apm.impl.transaction.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many sampled transactions per {@linkplain Transaction#getName() transaction name} are reported within an interval.
+ * <p>
+ * This prevents a single hot endpoint, like a health check or a polling API,
+ * from crowding out the transactions of rarely called endpoints.
+ * Transactions which exceed the limit are not reported but are counted in an {@link TransactionAggregate}.
+ * The number of transactions which have been limited since the last interval is logged
+ * by the first thread which acquires a permit in a new interval, so there is no need for a dedicated thread.
+ * </p>
+ * <p>
+ * To bound the memory usage, at most {@link #MAX_TRANSACTION_NAMES} names are tracked.
+ * The counters of names which have not been seen within the current interval are evicted when that limit is reached.
+ * If all tracked names are still active, the remaining names share a single counter.
+ * </p>
+ */
+public class TransactionNameLimiter {
+
+    static final int MAX_TRANSACTION_NAMES = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(TransactionNameLimiter.class);
+
+    private final ConcurrentMap<String, IntervalCounter> counters = new ConcurrentHashMap<String, IntervalCounter>();
+    private final IntervalCounter overflowCounter = new IntervalCounter();
+    private final TransactionAggregate limitedTransactions = new TransactionAggregate();
+    private final SamplingConfiguration samplingConfiguration;
+    private volatile int lastEvictionInterval;
+    private volatile int lastReportedInterval;
+    // guarded by this
+    private long reportedCount;
+    private double reportedDurationMs;
+
+    public TransactionNameLimiter(SamplingConfiguration samplingConfiguration) {
+        this.samplingConfiguration = samplingConfiguration;
+    }
+
+    public boolean isEnabled() {
+        return samplingConfiguration.getMaxTransactionsPerName() > 0;
+    }
+
+    /**
+     * Decides whether the transaction is within the limit of its name.
+     * If not, the transaction is added to the {@linkplain #getLimitedTransactions() aggregate of limited transactions}.
+     *
+     * @param transaction an ended transaction
+     * @return {@code true}, if the transaction should be reported,
+     * {@code false}, if the limit for the name of this transaction has been exceeded
+     */
+    public boolean tryAcquire(Transaction transaction) {
+        return tryAcquire(transaction, System.nanoTime());
+    }
+
+    boolean tryAcquire(Transaction transaction, long nanoTime) {
+        final int limit = samplingConfiguration.getMaxTransactionsPerName();
+        if (limit <= 0 || !transaction.isSampled()) {
+            return true;
+        }
+        // only used to tell intervals apart, so the truncation does not matter
+        final int interval = (int) (nanoTime / TimeUnit.SECONDS.toNanos(Math.max(1, samplingConfiguration.getTransactionNameLimitInterval())));
+        if (interval != lastReportedInterval) {
+            reportLimitedTransactions(interval);
+        }
+        if (getCounter(transaction.getName(), interval).tryIncrement(interval, limit)) {
+            return true;
+        }
+        limitedTransactions.add(transaction.getDuration());
+        return false;
+    }
+
+    private IntervalCounter getCounter(@Nullable String name, int interval) {
+        if (name == null) {
+            return overflowCounter;
+        }
+        IntervalCounter counter = counters.get(name);
+        if (counter != null) {
+            return counter;
+        }
+        if (counters.size() >= MAX_TRANSACTION_NAMES) {
+            evictInactiveCounters(interval);
+            if (counters.size() >= MAX_TRANSACTION_NAMES) {
+                return overflowCounter;
+            }
+        }
+        counter = new IntervalCounter();
+        final IntervalCounter previous = counters.putIfAbsent(name, counter);
+        return previous != null ? previous : counter;
+    }
+
+    private void evictInactiveCounters(int interval) {
+        // scanning the map at most once per interval keeps the cost bounded when all names are active
+        if (lastEvictionInterval == interval) {
+            return;
+        }
+        lastEvictionInterval = interval;
+        for (Iterator<IntervalCounter> iterator = counters.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().getInterval() != interval) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void reportLimitedTransactions(int interval) {
+        if (interval == lastReportedInterval) {
+            return;
+        }
+        lastReportedInterval = interval;
+        final long count = limitedTransactions.getCount();
+        final double totalDurationMs = limitedTransactions.getTotalDurationMs();
+        if (count > reportedCount) {
+            logger.info("{} transactions with a total duration of {} ms have not been reported because they exceeded max_transactions_per_name",
+                count - reportedCount, totalDurationMs - reportedDurationMs);
+        }
+        reportedCount = count;
+        reportedDurationMs = totalDurationMs;
+    }
+
+    /**
+     * @return the aggregate of all transactions which have not been reported because they exceeded the limit of their name
+     */
+    public TransactionAggregate getLimitedTransactions() {
+        return limitedTransactions;
+    }
+
+    int getNumberOfTrackedNames() {
+        return counters.size();
+    }
+
+    /**
+     * Counts the transactions within an interval.
+     * The interval is stored in the upper and the count in the lower 32 bits of a single {@code long},
+     * so that both can be updated atomically without locking.
+     */
+    private static class IntervalCounter {
+
+        private final AtomicLong state = new AtomicLong();
+
+        boolean tryIncrement(int interval, int limit) {
+            final long intervalBits = (long) interval << 32;
+            while (true) {
+                final long current = state.get();
+                final long next;
+                if ((current & 0xFFFFFFFF00000000L) != intervalBits) {
+                    next = intervalBits | 1;
+                } else if ((int) current >= limit) {
+                    return false;
+                } else {
+                    next = current + 1;
+                }
+                if (state.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        int getInterval() {
+            return (int) (state.get() >>> 32);
+        }
+    }
+}
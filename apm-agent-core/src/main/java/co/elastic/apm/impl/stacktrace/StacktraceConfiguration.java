@@ -47,4 +47,8 @@ public class StacktraceConfiguration extends ConfigurationOptionProvider {
     public int getSpanFramesMinDurationMs() {
         return spanFramesMinDurationMs.getValue();
     }
+
+    public ConfigurationOption<Integer> getSpanFramesMinDurationMsOption() {
+        return spanFramesMinDurationMs;
+    }
 }
@@ -77,6 +77,8 @@ public interface StacktraceFactory {
 
             int collectedStackFrames = 0;
             int stackTraceLimit = stacktraceConfiguration.getStackTraceLimit();
+            // resolved once per stack trace instead of once per frame
+            final Collection<String> applicationPackages = stacktraceConfiguration.getApplicationPackages();
             for (int i = 1; i < stackTrace.length && collectedStackFrames < stackTraceLimit; i++) {
                 StackTraceElement stackTraceElement = stackTrace[i];
                 if (!topMostElasticApmPackagesSkipped && stackTraceElement.getClassName().startsWith("co.elastic.apm")) {
@@ -88,19 +90,19 @@ public interface StacktraceFactory {
                     continue;
                 }
 
-                stacktrace.add(getStacktrace(stackTraceElement));
+                stacktrace.add(getStacktrace(stackTraceElement, applicationPackages));
                 collectedStackFrames++;
             }
         }
 
-        private Stacktrace getStacktrace(StackTraceElement stackTraceElement) {
+        private Stacktrace getStacktrace(StackTraceElement stackTraceElement, Collection<String> applicationPackages) {
             Stacktrace s = stacktraceObjectPool.createInstance()
                 .withAbsPath(stackTraceElement.getClassName())
                 .withFilename(stackTraceElement.getFileName())
                 .withFunction(stackTraceElement.getMethodName())
                 .withLineno(stackTraceElement.getLineNumber())
                 .withLibraryFrame(true);
-            for (String applicationPackage : stacktraceConfiguration.getApplicationPackages()) {
+            for (String applicationPackage : applicationPackages) {
                 if (stackTraceElement.getClassName().startsWith(applicationPackage)) {
                     s.withLibraryFrame(false);
                 }
@@ -1,6 +1,7 @@
 package co.elastic.apm.impl.transaction;
 
 import co.elastic.apm.impl.ElasticApmTracer;
+import co.elastic.apm.impl.EpochMicrosClock;
 import co.elastic.apm.impl.stacktrace.Stacktrace;
 import co.elastic.apm.objectpool.Recyclable;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -14,8 +15,6 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 
-import static co.elastic.apm.impl.ElasticApmTracer.MS_IN_NANOS;
-
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class Span implements Recyclable, co.elastic.apm.api.Span {
 
@@ -38,11 +37,9 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
     private transient ElasticApmTracer tracer;
     private transient boolean sampled;
     /**
-     * Duration of the span in milliseconds
-     * (Required)
+     * Duration of the span in microseconds
      */
-    @JsonProperty("duration")
-    private double duration;
+    private long durationMicros;
     /**
      * Generic designation of a span in the scope of a transaction
      * (Required)
@@ -56,11 +53,17 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
     @JsonProperty("parent")
     private SpanId parent = new SpanId();
     /**
-     * Offset relative to the transaction's timestamp identifying the start of the span, in milliseconds
-     * (Required)
+     * Offset relative to the transaction's timestamp identifying the start of the span, in microseconds
      */
-    @JsonProperty("start")
-    private double start;
+    private long startMicros;
+    /**
+     * The start of the span, in microseconds since the epoch
+     */
+    private long timestampMicros;
+    /**
+     * The offset to the epoch of the transaction, see {@link Transaction#getCurrentEpochMicros()}
+     */
+    private transient long epochOffsetMicros;
     /**
      * Keyword of specific relevance in the service's domain (eg: 'db.postgresql.query', 'template.erb', etc)
      * (Required)
@@ -69,7 +72,10 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
     @JsonProperty("type")
     private String type;
 
-    public Span start(ElasticApmTracer tracer, Transaction transaction, @Nullable Span span, long nanoTime, boolean dropped) {
+    /**
+     * @param epochMicros the start of the span, see {@link EpochMicrosClock}
+     */
+    public Span start(ElasticApmTracer tracer, Transaction transaction, @Nullable Span span, long epochMicros, boolean dropped) {
         this.tracer = tracer;
         this.id.setToRandomValue();
         if (span != null) {
@@ -77,8 +83,9 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
         }
         this.sampled = transaction.isSampled() && !dropped;
         if (sampled) {
-            start = (nanoTime - transaction.getDuration()) / MS_IN_NANOS;
-            duration = nanoTime;
+            timestampMicros = epochMicros;
+            startMicros = epochMicros - transaction.getTimestampMicros();
+            epochOffsetMicros = transaction.getEpochOffsetMicros();
         }
         return this;
     }
@@ -105,7 +112,15 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
      */
     @JsonProperty("duration")
     public double getDuration() {
-        return duration;
+        return durationMicros / 1000d;
+    }
+
+    /**
+     * Duration of the span in microseconds
+     */
+    @JsonIgnore
+    public long getDurationMicros() {
+        return durationMicros;
     }
 
     /**
@@ -157,7 +172,23 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
      */
     @JsonProperty("start")
     public double getStart() {
-        return start;
+        return startMicros / 1000d;
+    }
+
+    /**
+     * Offset relative to the transaction's timestamp identifying the start of the span, in microseconds
+     */
+    @JsonIgnore
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    /**
+     * The start of the span, in microseconds since the epoch
+     */
+    @JsonIgnore
+    public long getTimestampMicros() {
+        return timestampMicros;
     }
 
     /**
@@ -179,14 +210,21 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
         withType(type);
     }
 
+    /**
+     * Ends the span, measuring its duration with the same offset to the epoch as its transaction,
+     * see {@link Transaction#getCurrentEpochMicros()}
+     */
     @Override
     public void end() {
-        end(System.nanoTime());
+        end(System.nanoTime() / 1000 + epochOffsetMicros);
     }
 
-    public void end(long nanoTime) {
+    /**
+     * @param epochMicros the end of the span, see {@link EpochMicrosClock}
+     */
+    public void end(long epochMicros) {
         if (isSampled()) {
-            this.duration = (nanoTime - duration) / MS_IN_NANOS;
+            this.durationMicros = epochMicros - timestampMicros;
         }
         if (this.tracer != null) {
             this.tracer.endSpan(this);
@@ -216,23 +254,23 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
         return new ToStringBuilder(this)
             .append("id", id)
             .append("context", context)
-            .append("duration", duration)
+            .append("duration", durationMicros)
             .append("name", name)
             .append("parent", parent)
             .append("stacktrace", stacktrace)
-            .append("start", start)
+            .append("start", startMicros)
             .append("type", type).toString();
     }
 
     @Override
     public int hashCode() {
         return new HashCodeBuilder()
-            .append(duration)
+            .append(durationMicros)
             .append(parent)
             .append(stacktrace)
             .append(context)
             .append(name)
-            .append(start)
+            .append(startMicros)
             .append(id)
             .append(type).toHashCode();
     }
@@ -247,12 +285,12 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
         }
         Span rhs = ((Span) other);
         return new EqualsBuilder()
-            .append(duration, rhs.duration)
+            .append(durationMicros, rhs.durationMicros)
             .append(parent, rhs.parent)
             .append(stacktrace, rhs.stacktrace)
             .append(context, rhs.context)
             .append(name, rhs.name)
-            .append(start, rhs.start)
+            .append(startMicros, rhs.startMicros)
             .append(id, rhs.id)
             .append(type, rhs.type).isEquals();
     }
@@ -261,11 +299,13 @@ public class Span implements Recyclable, co.elastic.apm.api.Span {
     public void resetState() {
         id.resetState();
         context.resetState();
-        duration = 0;
+        durationMicros = 0;
         name = null;
         parent.resetState();
         stacktrace.clear();
-        start = 0;
+        startMicros = 0;
+        timestampMicros = 0;
+        epochOffsetMicros = 0;
         type = null;
         tracer = null;
         sampled = false;
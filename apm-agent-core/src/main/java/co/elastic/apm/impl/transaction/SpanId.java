@@ -3,10 +3,10 @@ package co.elastic.apm.impl.transaction;
 import co.elastic.apm.objectpool.Recyclable;
 import co.elastic.apm.util.HexUtils;
 import com.fasterxml.jackson.annotation.JsonValue;
+import okio.BufferedSink;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -15,22 +15,19 @@ import java.util.concurrent.ThreadLocalRandom;
  */
 public class SpanId implements Recyclable {
 
-    private static final int LENGTH = 8;
-    private final byte[] data = new byte[LENGTH];
+    private long id;
 
     public void setToRandomValue() {
         setToRandomValue(ThreadLocalRandom.current());
     }
 
     public void setToRandomValue(Random random) {
-        random.nextBytes(data);
+        id = random.nextLong();
     }
 
     @Override
     public void resetState() {
-        for (int i = 0; i < data.length; i++) {
-            data[i] = 0;
-        }
+        id = 0;
     }
 
     /**
@@ -40,23 +37,26 @@ public class SpanId implements Recyclable {
      */
     @JsonValue
     public long asLong() {
-        long l = 0;
-        for (int i = 0; i < 8; i++) {
-            l = (l << 8) | (data[i] & 0xff);
-        }
-        return l;
+        return id;
     }
 
     public String toHexEncodedString() {
-        return HexUtils.bytesToHex(data);
+        return HexUtils.longToHex(id);
+    }
+
+    /**
+     * Writes this id as 16 hex digits, without creating a {@link String}
+     */
+    public void writeAsHex(BufferedSink sink) throws IOException {
+        HexUtils.writeAsHex(id, 16, sink);
     }
 
     public void writeToOutputStream(OutputStream outputStream) throws IOException {
-        HexUtils.writeBytesAsHex(data, outputStream);
+        HexUtils.writeAsHex(id, outputStream);
     }
 
     public void copyFrom(SpanId other) {
-        System.arraycopy(other.data, 0, data, 0, LENGTH);
+        id = other.id;
     }
 
     @Override
@@ -64,11 +64,11 @@ public class SpanId implements Recyclable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SpanId spanId = (SpanId) o;
-        return Arrays.equals(data, spanId.data);
+        return id == spanId.id;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(data);
+        return (int) (id ^ (id >>> 32));
     }
 }
@@ -0,0 +1,76 @@
+package co.elastic.apm.impl.transaction;
+
+import java.util.AbstractList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The spans of a {@link Transaction}, which may be added concurrently without locking.
+ * <p>
+ * Adding a span reserves a slot with a single atomic operation,
+ * which at the same time decides whether the span has to be dropped because the maximum number of spans has been reached.
+ * The backing array is sized from {@code transaction_max_spans} and kept when the transaction is recycled,
+ * so that it only has to be reallocated if the maximum increases.
+ * </p>
+ * <p>
+ * Apart from {@link #tryAdd(Span)} and {@link #clear()}, the list is read only.
+ * </p>
+ */
+class SpanList extends AbstractList<Span> {
+
+    private static final AtomicReferenceArray<Span> EMPTY = new AtomicReferenceArray<>(0);
+
+    private final AtomicInteger size = new AtomicInteger();
+    private AtomicReferenceArray<Span> spans = EMPTY;
+    private int maxSpans;
+
+    /**
+     * Sets the maximum number of spans, must not be called while spans are added.
+     */
+    void setMaxSpans(int maxSpans) {
+        if (spans.length() < maxSpans) {
+            spans = new AtomicReferenceArray<>(maxSpans);
+        }
+        this.maxSpans = maxSpans;
+    }
+
+    /**
+     * @return {@code true}, if the span has been added,
+     * {@code false} if it has to be dropped because the maximum number of spans has been reached
+     */
+    boolean tryAdd(Span span) {
+        int index;
+        do {
+            index = size.get();
+            if (index >= maxSpans) {
+                return false;
+            }
+        } while (!size.compareAndSet(index, index + 1));
+        spans.set(index, span);
+        return true;
+    }
+
+    @Override
+    public Span get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return spans.get(index);
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Removes all spans, but keeps the backing array
+     */
+    @Override
+    public void clear() {
+        for (int i = size.get() - 1; i >= 0; i--) {
+            spans.set(i, null);
+        }
+        size.set(0);
+    }
+}
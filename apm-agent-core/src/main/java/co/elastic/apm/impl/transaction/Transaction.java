@@ -1,9 +1,12 @@
 package co.elastic.apm.impl.transaction;
 
+import co.elastic.apm.configuration.CoreConfiguration;
 import co.elastic.apm.impl.ElasticApmTracer;
+import co.elastic.apm.impl.EpochMicrosClock;
 import co.elastic.apm.impl.context.Context;
 import co.elastic.apm.objectpool.Recyclable;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.commons.lang.builder.EqualsBuilder;
@@ -11,7 +14,6 @@ import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 
 import javax.annotation.Nullable;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -31,15 +33,8 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
      */
     @JsonProperty("context")
     private final Context context = new Context();
-    /**
-     * Recorded time of the transaction, UTC based and formatted as YYYY-MM-DDTHH:mm:ss.sssZ
-     * (Required)
-     */
-    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "UTC")
-    @JsonProperty("timestamp")
-    private final Date timestamp = new Date(0);
     @JsonProperty("spans")
-    private final List<Span> spans = new ArrayList<Span>();
+    private final SpanList spans = new SpanList();
     /**
      * A mark captures the timing of a significant event during the lifetime of a transaction. Marks are organized into groups and can be set by the user or the agent.
      */
@@ -56,11 +51,18 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
     @Nullable
     private transient ElasticApmTracer tracer;
     /**
-     * How long the transaction took to complete, in ms with 3 decimal points
-     * (Required)
+     * Recorded time of the transaction, in microseconds since the epoch
      */
-    @JsonProperty("duration")
-    private double duration;
+    private long timestampMicros;
+    /**
+     * The offset between {@link System#nanoTime()} in microseconds and the epoch, pinned when the transaction starts,
+     * see {@link #getCurrentEpochMicros()}
+     */
+    private transient long epochOffsetMicros;
+    /**
+     * How long the transaction took to complete, in microseconds
+     */
+    private long durationMicros;
     /**
      * Generic designation of a transaction in the scope of a single service (eg: 'GET /users/:id')
      */
@@ -85,16 +87,43 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
      */
     @JsonProperty("sampled")
     private boolean sampled;
+    private transient boolean errorCaptured;
+    /**
+     * The noop transaction is shared by all threads while the agent is inactive, so it must not be modified
+     */
+    private transient boolean noop;
 
-    public Transaction start(ElasticApmTracer tracer, long startTimestampNanos, boolean sampled) {
+    public Transaction start(ElasticApmTracer tracer, long epochMicros, boolean sampled) {
+        return start(tracer, epochMicros, sampled, CoreConfiguration.DEFAULT_TRANSACTION_MAX_SPANS);
+    }
+
+    /**
+     * @param epochMicros the start of the transaction, see {@link EpochMicrosClock}
+     * @param maxSpans    the maximum number of spans which are recorded, further spans are dropped
+     */
+    public Transaction start(ElasticApmTracer tracer, long epochMicros, boolean sampled, int maxSpans) {
         this.tracer = tracer;
-        this.duration = startTimestampNanos;
+        // spans of non-sampled transactions are not recorded, so there is no need to allocate room for them
+        this.spans.setMaxSpans(sampled ? maxSpans : 0);
+        this.timestampMicros = epochMicros;
+        this.epochOffsetMicros = epochMicros - System.nanoTime() / 1000;
         this.sampled = sampled;
-        this.timestamp.setTime(System.currentTimeMillis());
         this.id.setToRandomValue();
         return this;
     }
 
+    /**
+     * Starts the noop transaction which the tracer returns while the agent is inactive.
+     * <p>
+     * As it is shared by all threads, it ignores all subsequent modifications.
+     * </p>
+     */
+    public Transaction startNoop(ElasticApmTracer tracer) {
+        start(tracer, 0, false);
+        this.noop = true;
+        return this;
+    }
+
     /**
      * Context
      * <p>
@@ -111,7 +140,15 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
      */
     @JsonProperty("duration")
     public double getDuration() {
-        return duration;
+        return durationMicros / 1000d;
+    }
+
+    /**
+     * How long the transaction took to complete, in microseconds
+     */
+    @JsonIgnore
+    public long getDurationMicros() {
+        return durationMicros;
     }
 
     /**
@@ -137,11 +174,11 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
      */
     @Override
     public void setName(@Nullable String name) {
-        this.name = name;
+        withName(name);
     }
 
     public Transaction withName(@Nullable String name) {
-        if (!sampled) {
+        if (noop) {
             return this;
         }
         this.name = name;
@@ -161,7 +198,7 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
      * The result of the transaction. HTTP status code for HTTP-related transactions.
      */
     public Transaction withResult(@Nullable String result) {
-        if (!sampled) {
+        if (noop) {
             return this;
         }
         this.result = result;
@@ -172,32 +209,78 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
      * Recorded time of the transaction, UTC based and formatted as YYYY-MM-DDTHH:mm:ss.sssZ
      * (Required)
      */
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX", timezone = "UTC")
     @JsonProperty("timestamp")
     public Date getTimestamp() {
-        return timestamp;
+        return new Date(timestampMicros / 1000);
+    }
+
+    /**
+     * Recorded time of the transaction, in microseconds since the epoch
+     */
+    @JsonIgnore
+    public long getTimestampMicros() {
+        return timestampMicros;
     }
 
+    /**
+     * Returns the current time in microseconds since the epoch, based on the offset to {@link System#nanoTime()}
+     * at the start of this transaction.
+     * <p>
+     * In contrast to the {@link EpochMicrosClock}, whose offset may be recalibrated in the meantime,
+     * the difference of two values is exactly the elapsed {@link System#nanoTime()}.
+     * That way, the durations of the transaction and its spans are not distorted by a recalibration.
+     * </p>
+     */
+    @JsonIgnore
+    public long getCurrentEpochMicros() {
+        return System.nanoTime() / 1000 + epochOffsetMicros;
+    }
+
+    long getEpochOffsetMicros() {
+        return epochOffsetMicros;
+    }
+
+    /**
+     * Overrides the start of the transaction.
+     * <p>
+     * The pinned offset to the epoch is shifted by the same amount,
+     * so that the duration and the offsets of spans which start afterwards are still the elapsed {@link System#nanoTime()}.
+     * </p>
+     *
+     * @param timestampEpoch the start of the transaction, in milliseconds since the epoch
+     */
     public Transaction withTimestamp(long timestampEpoch) {
-        if (!sampled) {
+        if (noop) {
             return this;
         }
-        this.timestamp.setTime(timestampEpoch);
+        final long newTimestampMicros = timestampEpoch * 1000;
+        this.epochOffsetMicros += newTimestampMicros - timestampMicros;
+        this.timestampMicros = newTimestampMicros;
         return this;
     }
 
+    /**
+     * @return the recorded spans, the list can't be modified directly, use {@link #addSpan(Span)} instead
+     */
     @JsonProperty("spans")
     public List<Span> getSpans() {
         return spans;
     }
 
-    public Transaction addSpan(Span span) {
+    /**
+     * Records a span, unless the maximum number of spans has been reached.
+     * <p>
+     * This method may be called concurrently, for example by asynchronous spans, and does not block.
+     * </p>
+     *
+     * @return {@code true}, if the span has been recorded, {@code false} if it has been dropped
+     */
+    public boolean addSpan(Span span) {
         if (!sampled) {
-            return this;
-        }
-        synchronized (this) {
-            spans.add(span);
+            return false;
         }
-        return this;
+        return spans.tryAdd(span);
     }
 
     /**
@@ -217,7 +300,7 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
     @Override
     @JsonProperty("type")
     public void setType(@Nullable String type) {
-        this.type = type;
+        withType(type);
     }
 
     @Override
@@ -238,9 +321,18 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
 
     @Override
     public void end() {
-        this.duration = (System.nanoTime() - duration) / ElasticApmTracer.MS_IN_NANOS;
-        if (!sampled) {
-            context.resetState();
+        end(getCurrentEpochMicros());
+    }
+
+    /**
+     * @param epochMicros the end of the transaction, see {@link EpochMicrosClock}
+     */
+    public void end(long epochMicros) {
+        if (!noop) {
+            this.durationMicros = epochMicros - timestampMicros;
+            if (!sampled) {
+                context.resetState();
+            }
         }
         if (this.tracer != null) {
             this.tracer.endTransaction(this);
@@ -253,6 +345,9 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
     }
 
     public Transaction withType(@Nullable String type) {
+        if (noop) {
+            return this;
+        }
         this.type = type;
         return this;
     }
@@ -275,6 +370,21 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
         return sampled;
     }
 
+    /**
+     * Marks that an error has been captured while this transaction was active
+     */
+    public void markErrorCaptured() {
+        if (noop) {
+            return;
+        }
+        errorCaptured = true;
+    }
+
+    @JsonIgnore
+    public boolean isErrorCaptured() {
+        return errorCaptured;
+    }
+
     @JsonProperty("span_count")
     public SpanCount getSpanCount() {
         return spanCount;
@@ -284,11 +394,11 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
     public String toString() {
         return new ToStringBuilder(this)
             .append("context", context)
-            .append("duration", duration)
+            .append("duration", durationMicros)
             .append("id", id)
             .append("name", name)
             .append("result", result)
-            .append("timestamp", timestamp)
+            .append("timestamp", timestampMicros)
             .append("spans", spans)
             .append("type", type)
             .append("marks", marks)
@@ -299,7 +409,7 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
     @Override
     public int hashCode() {
         return new HashCodeBuilder()
-            .append(duration)
+            .append(durationMicros)
             .append(result)
             .append(spans)
             .append(spanCount)
@@ -309,7 +419,7 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
             .append(marks)
             .append(type)
             .append(sampled)
-            .append(timestamp).toHashCode();
+            .append(timestampMicros).toHashCode();
     }
 
     @Override
@@ -322,7 +432,7 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
         }
         Transaction rhs = ((Transaction) other);
         return new EqualsBuilder()
-            .append(duration, rhs.duration)
+            .append(durationMicros, rhs.durationMicros)
             .append(result, rhs.result)
             .append(spans, rhs.spans)
             .append(spanCount, rhs.spanCount)
@@ -332,21 +442,24 @@ public class Transaction implements Recyclable, co.elastic.apm.api.Transaction {
             .append(marks, rhs.marks)
             .append(type, rhs.type)
             .append(sampled, rhs.sampled)
-            .append(timestamp, rhs.timestamp).isEquals();
+            .append(timestampMicros, rhs.timestampMicros).isEquals();
     }
 
     @Override
     public void resetState() {
         context.resetState();
-        duration = 0;
+        durationMicros = 0;
         id.resetState();
         name = null;
         result = null;
-        timestamp.setTime(0);
+        timestampMicros = 0;
+        epochOffsetMicros = 0;
         spans.clear();
         type = null;
         marks.clear();
         sampled = true;
+        errorCaptured = false;
+        noop = false;
         spanCount.resetState();
         tracer = null;
     }
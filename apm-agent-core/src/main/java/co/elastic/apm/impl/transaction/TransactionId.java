@@ -3,37 +3,41 @@ package co.elastic.apm.impl.transaction;
 import co.elastic.apm.objectpool.Recyclable;
 import co.elastic.apm.util.HexUtils;
 import com.fasterxml.jackson.annotation.JsonValue;
+import okio.BufferedSink;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A 128 bit random id which is used as a globally unique id for {@link Transaction}s
+ * <p>
+ * The id is stored in two <code>long</code>s, so that generating, copying and comparing ids doesn't involve arrays
+ * and so that it can be written to the serialization buffer without allocating a {@link UUID}.
+ * </p>
  */
 public class TransactionId implements Recyclable {
 
-    private final static TransactionId EMPTY = new TransactionId();
-
     public static final int SIZE = 16;
-    private final byte[] data = new byte[SIZE];
+
+    private long mostSignificantBits;
+    private long leastSignificantBits;
 
     public void setToRandomValue() {
         setToRandomValue(ThreadLocalRandom.current());
     }
 
     public void setToRandomValue(Random random) {
-        random.nextBytes(data);
+        mostSignificantBits = random.nextLong();
+        leastSignificantBits = random.nextLong();
     }
 
     @Override
     public void resetState() {
-        for (int i = 0; i < data.length; i++) {
-            data[i] = 0;
-        }
+        mostSignificantBits = 0;
+        leastSignificantBits = 0;
     }
 
     /**
@@ -42,36 +46,54 @@ public class TransactionId implements Recyclable {
      * @return the first 8 bytes of this transaction id as a <code>long</code>
      */
     public long getMostSignificantBits() {
-        long msb = 0;
-        for (int i = 0; i < 8; i++) {
-            msb = (msb << 8) | (data[i] & 0xff);
-        }
-        return msb;
+        return mostSignificantBits;
     }
 
     public long getLeastSignificantBits() {
-        long lsb = 0;
-        for (int i = 8; i < 16; i++) {
-            lsb = (lsb << 8) | (data[i] & 0xff);
-        }
-        return lsb;
+        return leastSignificantBits;
     }
 
     @JsonValue
     public UUID toUuid() {
-        return new UUID(getMostSignificantBits(), getLeastSignificantBits());
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Writes this id in the canonical format of a {@link UUID}, like {@code 123e4567-e89b-12d3-a456-426655440000},
+     * without creating a {@link UUID} or a {@link String}
+     */
+    public void writeAsUuid(BufferedSink sink) throws IOException {
+        HexUtils.writeAsHex(mostSignificantBits >>> 32, 8, sink);
+        sink.writeByte('-');
+        HexUtils.writeAsHex(mostSignificantBits >>> 16, 4, sink);
+        sink.writeByte('-');
+        HexUtils.writeAsHex(mostSignificantBits, 4, sink);
+        sink.writeByte('-');
+        HexUtils.writeAsHex(leastSignificantBits >>> 48, 4, sink);
+        sink.writeByte('-');
+        HexUtils.writeAsHex(leastSignificantBits, 12, sink);
+    }
+
+    /**
+     * Writes this id as 32 hex digits, without creating a {@link String}
+     */
+    public void writeAsHex(BufferedSink sink) throws IOException {
+        HexUtils.writeAsHex(mostSignificantBits, 16, sink);
+        HexUtils.writeAsHex(leastSignificantBits, 16, sink);
     }
 
     public String toHexEncodedString() {
-        return HexUtils.bytesToHex(data);
+        return HexUtils.longToHex(mostSignificantBits) + HexUtils.longToHex(leastSignificantBits);
     }
 
     public void writeToOutputStream(OutputStream outputStream) throws IOException {
-        HexUtils.writeBytesAsHex(data, outputStream);
+        HexUtils.writeAsHex(mostSignificantBits, outputStream);
+        HexUtils.writeAsHex(leastSignificantBits, outputStream);
     }
 
     public void copyFrom(TransactionId other) {
-        System.arraycopy(other.data, 0, data, 0, SIZE);
+        mostSignificantBits = other.mostSignificantBits;
+        leastSignificantBits = other.leastSignificantBits;
     }
 
     @Override
@@ -79,12 +101,13 @@ public class TransactionId implements Recyclable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         TransactionId that = (TransactionId) o;
-        return Arrays.equals(data, that.data);
+        return mostSignificantBits == that.mostSignificantBits && leastSignificantBits == that.leastSignificantBits;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(data);
+        long hilo = mostSignificantBits ^ leastSignificantBits;
+        return ((int) (hilo >> 32)) ^ (int) hilo;
     }
 
     @Override
@@ -93,6 +116,6 @@ public class TransactionId implements Recyclable {
     }
 
     public boolean isEmpty() {
-        return EMPTY.equals(this);
+        return mostSignificantBits == 0 && leastSignificantBits == 0;
     }
 }
@@ -1,96 +1,266 @@
 package co.elastic.apm.report;
 
-import co.elastic.apm.impl.error.ErrorPayload;
 import co.elastic.apm.impl.payload.Agent;
 import co.elastic.apm.impl.payload.Payload;
-import co.elastic.apm.report.serialize.PayloadSerializer;
+import co.elastic.apm.report.compression.GzipPayloadCompressor;
+import co.elastic.apm.report.compression.PayloadCompressor;
+import co.elastic.apm.report.spool.DiskSpool;
+import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.Buffer;
 import okio.BufferedSink;
-import okio.GzipSink;
-import okio.Okio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ApmServerHttpPayloadSender implements PayloadSender {
     private static final Logger logger = LoggerFactory.getLogger(ApmServerHttpPayloadSender.class);
     private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json");
-    private static final int GZIP_COMPRESSION_LEVEL = 3;
+    private static final MediaType MEDIA_TYPE_NDJSON = MediaType.parse("application/x-ndjson");
 
     private final OkHttpClient httpClient;
     private final ReporterConfiguration reporterConfiguration;
-    private final PayloadSerializer payloadSerializer;
-    private long droppedTransactions = 0;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final Semaphore inFlightRequests;
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    @Nullable
+    private final DiskSpool spool;
+    private final PayloadCompressor compressor;
 
-    public ApmServerHttpPayloadSender(OkHttpClient httpClient, PayloadSerializer payloadSerializer,
-                                      ReporterConfiguration reporterConfiguration) {
+    public ApmServerHttpPayloadSender(OkHttpClient httpClient, ReporterConfiguration reporterConfiguration) {
+        this(httpClient, reporterConfiguration, null);
+    }
+
+    /**
+     * @param spool if not {@code null}, payloads which could not be sent because the APM server is unavailable are spooled
+     */
+    public ApmServerHttpPayloadSender(OkHttpClient httpClient, ReporterConfiguration reporterConfiguration, @Nullable DiskSpool spool) {
+        this(httpClient, reporterConfiguration, spool, new GzipPayloadCompressor(reporterConfiguration));
+    }
+
+    /**
+     * @param spool      if not {@code null}, payloads which could not be sent because the APM server is unavailable are spooled
+     * @param compressor compresses payloads which contain more than one event
+     */
+    public ApmServerHttpPayloadSender(OkHttpClient httpClient, ReporterConfiguration reporterConfiguration, @Nullable DiskSpool spool,
+                                      PayloadCompressor compressor) {
         this.httpClient = httpClient;
+        this.spool = spool;
+        this.compressor = compressor;
         this.reporterConfiguration = reporterConfiguration;
-        this.payloadSerializer = payloadSerializer;
+        this.inFlightRequests = new Semaphore(Math.max(1, reporterConfiguration.getMaxConcurrentRequests()));
     }
 
+    /**
+     * Asynchronously sends the payload.
+     * <p>
+     * This method only blocks if the maximum number of concurrent requests has been reached,
+     * which lets the back pressure propagate to the reporter.
+     * </p>
+     * <p>
+     * The payload is compressed on the calling thread, which is the I/O thread of the reporter,
+     * before waiting for a free connection.
+     * That way, neither the reporter thread nor the threads of the HTTP client have to wait for the compression,
+     * and the next payload is compressed while the previous ones are in flight.
+     * </p>
+     */
     @Override
-    public void sendPayload(final Payload payload) {
+    public void sendPayload(final PayloadBuffer payload) {
+        if (!circuitBreaker.allowRequest()) {
+            spoolOrDrop(payload);
+            payload.onSendCompleted(false);
+            return;
+        }
         final String path;
-        if (payload instanceof ErrorPayload) {
+        if (payload.isErrorPayload()) {
             path = "/v1/errors";
         } else {
             path = "/v1/transactions";
         }
-        final Request.Builder builder = new Request.Builder()
-            .url(reporterConfiguration.getServerUrl() + path)
-            .header("User-Agent", getUserAgent(payload));
-        if (reporterConfiguration.getSecretToken() != null) {
-            builder.header("Authorization", "Bearer " + reporterConfiguration.getSecretToken());
+        final Request.Builder builder = newRequestBuilder(path, payload.getMetadata());
+        String contentEncoding = payload.getNumberOfEvents() > 1 ? compressor.getContentEncoding() : null;
+        Buffer body = payload.getBuffer();
+        if (contentEncoding != null) {
+            try {
+                final Buffer compressed = new Buffer();
+                compressor.compress(body, compressed);
+                body = compressed;
+            } catch (IOException e) {
+                logger.debug("Compressing payload failed, sending it uncompressed", e);
+                contentEncoding = null;
+            }
         }
-        if (useGzip(payload)) {
-            builder.header("User-Agent", getUserAgent(payload));
+        if (contentEncoding != null) {
+            builder.header("Content-Encoding", contentEncoding);
+        }
+        final PayloadRequestBody requestBody = new PayloadRequestBody(body, contentEncoding != null);
+        final Request request = builder
+            .post(requestBody)
+            .build();
+
+        inFlightRequests.acquireUninterruptibly();
+        logger.debug("Sending payload with {} elements to APM server {}",
+            payload.getNumberOfEvents(), reporterConfiguration.getServerUrl());
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                try {
+                    logger.debug("Sending payload to APM server failed", e);
+                    circuitBreaker.onFailure();
+                    spoolOrDrop(payload);
+                } finally {
+                    onRequestCompleted(payload, false);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                boolean success = false;
+                try {
+                    requestBody.onResponse();
+                    final int statusCode = handleResponse(response, payload.getNumberOfEvents());
+                    if (statusCode >= 500) {
+                        spoolOrDrop(payload);
+                    }
+                    success = statusCode < 400;
+                } finally {
+                    response.close();
+                    onRequestCompleted(payload, success);
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens a chunked request to the intake API, which streams the events as they are written to the {@link EventStream}.
+     * <p>
+     * The request occupies one of the {@link ReporterConfiguration#getMaxConcurrentRequests() concurrent requests}
+     * until the stream is closed and the APM server has responded.
+     * As the events of a stream can't be replayed, they are dropped if the request fails.
+     * </p>
+     */
+    @Nullable
+    @Override
+    public EventStream openEventStream(Payload metadata) {
+        if (!circuitBreaker.allowRequest() || !inFlightRequests.tryAcquire()) {
+            return null;
         }
-        Request request = builder
+        final EventStream stream = new EventStream(reporterConfiguration.getMaxPayloadSize());
+        final Request request = newRequestBuilder("/intake/v2/events", metadata)
             .post(new RequestBody() {
                 @Override
                 public MediaType contentType() {
-                    return MEDIA_TYPE_JSON;
+                    return MEDIA_TYPE_NDJSON;
                 }
 
                 @Override
                 public void writeTo(BufferedSink sink) throws IOException {
-                    if (useGzip(payload)) {
-                        GzipSink gzipSink = new GzipSink(sink);
-                        gzipSink.deflater().setLevel(GZIP_COMPRESSION_LEVEL);
-                        sink = Okio.buffer(gzipSink);
-                    }
-                    payloadSerializer.serializePayload(sink, payload);
-                    sink.close();
-                    payload.recycle();
+                    stream.writeTo(sink);
                 }
             })
             .build();
+        logger.debug("Opening event stream to APM server {}", reporterConfiguration.getServerUrl());
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                try {
+                    logger.debug("Streaming events to APM server failed", e);
+                    circuitBreaker.onFailure();
+                    droppedEvents.addAndGet(stream.getNumberOfEvents());
+                } finally {
+                    inFlightRequests.release();
+                    stream.onSendCompleted(false);
+                }
+            }
 
-        try {
-            logger.debug("Sending payload with {} elements to APM server {}",
-                payload.getPayloadObjects().size(), reporterConfiguration.getServerUrl());
-            Response response = httpClient.newCall(request).execute();
-            int statusCode = response.code();
-            logger.debug("APM server responded with status code {}", statusCode);
-            if (statusCode >= 400) {
-                droppedTransactions += payload.getPayloadObjects().size();
-                if (response.body() != null) {
-                    logger.debug(response.body().string());
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                boolean success = false;
+                try {
+                    final int statusCode = handleResponse(response, stream.getNumberOfEvents());
+                    if (statusCode >= 500) {
+                        droppedEvents.addAndGet(stream.getNumberOfEvents());
+                    }
+                    success = statusCode < 400;
+                } finally {
+                    response.close();
+                    inFlightRequests.release();
+                    stream.onSendCompleted(success);
                 }
             }
-            response.close();
-        } catch (IOException e) {
-            logger.debug("Sending payload to APM server failed", e);
-            droppedTransactions += payload.getPayloadObjects().size();
+        });
+        return stream;
+    }
+
+    private Request.Builder newRequestBuilder(String path, Payload metadata) {
+        final Request.Builder builder = new Request.Builder()
+            .url(reporterConfiguration.getServerUrl() + path)
+            .header("User-Agent", getUserAgent(metadata));
+        if (reporterConfiguration.getSecretToken() != null) {
+            builder.header("Authorization", "Bearer " + reporterConfiguration.getSecretToken());
+        }
+        return builder;
+    }
+
+    /**
+     * Updates the circuit breaker and counts events which the APM server has rejected
+     *
+     * @return the status code of the response
+     */
+    private int handleResponse(Response response, int numberOfEvents) throws IOException {
+        int statusCode = response.code();
+        logger.debug("APM server responded with status code {}", statusCode);
+        if (statusCode >= 500) {
+            // the APM server is temporarily unavailable
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+            if (statusCode >= 400) {
+                // the APM server rejected the payload, retrying would not help
+                droppedEvents.addAndGet(numberOfEvents);
+            }
+        }
+        if (statusCode >= 400) {
+            if (response.body() != null) {
+                logger.debug(response.body().string());
+            }
+        }
+        return statusCode;
+    }
+
+    private void spoolOrDrop(PayloadBuffer payload) {
+        if (spool == null || !spool.append(payload)) {
+            droppedEvents.addAndGet(payload.getNumberOfEvents());
         }
     }
 
+    private void onRequestCompleted(PayloadBuffer payload, boolean success) {
+        inFlightRequests.release();
+        payload.onSendCompleted(success);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return circuitBreaker.isAvailable();
+    }
+
+    /**
+     * Closes the compressor, which may be shared with other senders
+     */
+    @Override
+    public void close() {
+        compressor.close();
+    }
+
     private String getUserAgent(Payload payload) {
         Agent agent = payload.getService().getAgent();
         if (agent != null) {
@@ -99,12 +269,54 @@ public class ApmServerHttpPayloadSender implements PayloadSender {
         return "apm-agent-java";
     }
 
-    private boolean useGzip(Payload payload) {
-        return payload.getPayloadObjects().size() > 1;
+    /**
+     * @return the number of transactions and errors which have been dropped because they could not be sent
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
     }
 
-    public long getDroppedTransactions() {
-        return droppedTransactions;
+    /**
+     * The body of a payload request, which can be written multiple times in case OkHttp retries the request.
+     */
+    private class PayloadRequestBody extends RequestBody {
+        private final Buffer body;
+        private final boolean compressed;
+        private volatile long writeStartedNanos;
+
+        private PayloadRequestBody(Buffer body, boolean compressed) {
+            this.body = body;
+            this.compressed = compressed;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return MEDIA_TYPE_JSON;
+        }
+
+        @Override
+        public long contentLength() {
+            return body.size();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            writeStartedNanos = System.nanoTime();
+            // copying shares the segments instead of copying the bytes
+            // and makes sure the body can be written again in case OkHttp retries the request
+            body.copyTo(sink.buffer(), 0, body.size());
+            sink.close();
+        }
+
+        /**
+         * Lets the compressor adapt to the throughput of the connection to the APM server
+         */
+        void onResponse() {
+            final long startedNanos = writeStartedNanos;
+            if (compressed && startedNanos != 0) {
+                compressor.onRequestCompleted(body.size(), System.nanoTime() - startedNanos);
+            }
+        }
     }
 
 }
@@ -4,23 +4,31 @@ import co.elastic.apm.impl.error.ErrorCapture;
 import co.elastic.apm.impl.payload.ProcessInfo;
 import co.elastic.apm.impl.payload.Service;
 import co.elastic.apm.impl.payload.SystemInfo;
+import co.elastic.apm.impl.sampling.TransactionAggregate;
 import co.elastic.apm.impl.transaction.Transaction;
 import co.elastic.apm.objectpool.Recyclable;
+import co.elastic.apm.report.serialize.DirectJsonPayloadSerializer;
+import co.elastic.apm.report.serialize.PayloadSerializer;
+import co.elastic.apm.report.spool.DiskSpool;
 import co.elastic.apm.util.ExecutorUtils;
 import co.elastic.apm.util.MathUtils;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventTranslator;
 import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import static co.elastic.apm.report.ApmServerReporter.ReportingEvent.ReportingEventType.ERROR;
 import static co.elastic.apm.report.ApmServerReporter.ReportingEvent.ReportingEventType.FLUSH;
@@ -29,7 +37,19 @@ import static co.elastic.apm.report.ApmServerReporter.ReportingEvent.ReportingEv
 /**
  * This reporter asynchronously reports {@link Transaction}s to the APM server
  * <p>
- * It uses a Disruptor/ring buffer to decouple the {@link Transaction} producing threads from the thread that actually sends the payload
+ * It uses a Disruptor/ring buffer to decouple the {@link Transaction} producing threads from the thread that serializes the events.
+ * The serialized payloads are then sent by yet another thread, so that the serialization never waits for the network.
+ * </p>
+ * <p>
+ * If a single thread can't keep up with serializing the events,
+ * multiple {@linkplain ReporterConfiguration#getReporterThreads() reporter threads} can be configured.
+ * Each of them consumes a ring buffer of its own and builds up its own payloads.
+ * The ring buffer a transaction is added to is selected by the id of the reporting thread.
+ * </p>
+ * <p>
+ * Errors are reported via a separate lane, which consists of a ring buffer, a reporter thread and a {@link PayloadSender} of its own.
+ * That way, errors are neither dropped because transactions fill up the ring buffers,
+ * nor do they have to wait until large transaction payloads have been sent.
  * </p>
  */
 public class ApmServerReporter implements Reporter {
@@ -47,6 +67,13 @@ public class ApmServerReporter implements Reporter {
             event.type = FLUSH;
         }
     };
+    private static final EventTranslatorOneArg<ReportingEvent, FlushFuture> FLUSH_WITH_FUTURE_EVENT_TRANSLATOR = new EventTranslatorOneArg<ReportingEvent, FlushFuture>() {
+        @Override
+        public void translateTo(ReportingEvent event, long sequence, FlushFuture flushFuture) {
+            event.flushFuture = flushFuture;
+            event.type = FLUSH;
+        }
+    };
     private static final EventTranslatorOneArg<ReportingEvent, ErrorCapture> ERROR_EVENT_TRANSLATOR = new EventTranslatorOneArg<ReportingEvent, ErrorCapture>() {
         @Override
         public void translateTo(ReportingEvent event, long sequence, ErrorCapture error) {
@@ -55,135 +82,363 @@ public class ApmServerReporter implements Reporter {
         }
     };
 
-    private final Disruptor<ReportingEvent> disruptor;
+    private static final long BACKPRESSURE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    static final long AGGREGATE_REPORT_INTERVAL_SECONDS = 60;
+    private static final Logger logger = LoggerFactory.getLogger(ApmServerReporter.class);
+
+    private final Shard[] shards;
+    /**
+     * Errors have a ring buffer of their own, so that they are not dropped when transactions fill up the other ring buffers
+     */
+    private final Shard errorLane;
+    private final PayloadSender transactionPayloadSender;
+    private final PayloadSender errorPayloadSender;
     private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger droppedErrors = new AtomicInteger();
     private final boolean dropTransactionIfQueueFull;
-    private final ReportingEventHandler reportingEventHandler;
-    @Nullable
-    private ScheduledThreadPoolExecutor flushScheduler;
+    private final ReporterConfiguration reporterConfiguration;
+    // the counters of the backpressure policies
+    private final AtomicLong droppedNewest = new AtomicLong();
+    private final AtomicLong droppedOldest = new AtomicLong();
+    private final AtomicLong backpressureTimeouts = new AtomicLong();
+    private final TransactionAggregate aggregatedTransactions = new TransactionAggregate();
+    private final AtomicLong aggregatedErrors = new AtomicLong();
+    // guarded by this, the aggregates which have already been logged
+    private long reportedAggregatedTransactions;
+    private double reportedAggregatedDurationMs;
+    private long reportedAggregatedErrors;
+    private final ScheduledThreadPoolExecutor flushScheduler;
+
+    public ApmServerReporter(Service service, ProcessInfo process, SystemInfo system, PayloadSender payloadSender,
+                             PayloadSerializer payloadSerializer, boolean dropTransactionIfQueueFull,
+                             ReporterConfiguration reporterConfiguration) {
+        this(service, process, system, payloadSender, payloadSerializer, dropTransactionIfQueueFull, reporterConfiguration, null);
+    }
 
     public ApmServerReporter(Service service, ProcessInfo process, SystemInfo system, PayloadSender payloadSender,
-                             boolean dropTransactionIfQueueFull, ReporterConfiguration reporterConfiguration) {
+                             PayloadSerializer payloadSerializer, boolean dropTransactionIfQueueFull,
+                             ReporterConfiguration reporterConfiguration, @Nullable DiskSpool spool) {
+        this(service, process, system, payloadSender, payloadSender, payloadSerializer, dropTransactionIfQueueFull, reporterConfiguration, spool);
+    }
+
+    /**
+     * @param errorPayloadSender         the sender of the error lane,
+     *                                   which should not share its connections with the {@code transactionPayloadSender}
+     *                                   so that errors don't have to wait for large transaction payloads
+     * @param payloadSerializer          a {@link DirectJsonPayloadSerializer} is not shared between the reporter threads,
+     *                                   each of them uses a new instance instead
+     * @param dropTransactionIfQueueFull if {@code true}, the {@link ReporterConfiguration#getBackpressurePolicy() backpressure policy}
+     *                                   applies when the ring buffer is full.
+     *                                   If {@code false}, the reporting thread waits until there is space in the ring buffer.
+     * @param spool                      if not {@code null}, payloads which can't be sent right away are spooled to disk
+     *                                   instead of being dropped
+     */
+    public ApmServerReporter(Service service, ProcessInfo process, SystemInfo system, PayloadSender transactionPayloadSender,
+                             PayloadSender errorPayloadSender, PayloadSerializer payloadSerializer, boolean dropTransactionIfQueueFull,
+                             ReporterConfiguration reporterConfiguration, @Nullable DiskSpool spool) {
         this.dropTransactionIfQueueFull = dropTransactionIfQueueFull;
-        disruptor = new Disruptor<>(new TransactionEventFactory(), MathUtils.getNextPowerOf2(reporterConfiguration.getMaxQueueSize()), new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread thread = new Thread(r);
-                thread.setDaemon(true);
-                thread.setName("apm-reporter");
-                return thread;
-            }
-        });
-        reportingEventHandler = new ReportingEventHandler(service, process, system, payloadSender, reporterConfiguration);
-        disruptor.handleEventsWith(reportingEventHandler);
-        disruptor.start();
+        this.reporterConfiguration = reporterConfiguration;
+        this.transactionPayloadSender = transactionPayloadSender;
+        this.errorPayloadSender = errorPayloadSender;
+        final int numberOfShards = Math.max(1, reporterConfiguration.getReporterThreads());
+        shards = new Shard[numberOfShards];
+        for (int i = 0; i < numberOfShards; i++) {
+            final String threadName = numberOfShards == 1 ? "apm-reporter" : "apm-reporter-" + i;
+            shards[i] = createShard(threadName, service, process, system, transactionPayloadSender, payloadSerializer,
+                reporterConfiguration, spool, dropped, reporterConfiguration.getMaxQueueSize());
+        }
+        errorLane = createShard("apm-error-reporter", service, process, system, errorPayloadSender, payloadSerializer,
+            reporterConfiguration, spool, droppedErrors, reporterConfiguration.getMaxErrorQueueSize());
+        flushScheduler = ExecutorUtils.createSingleThreadSchedulingDeamonPool("elastic-apm-transaction-flusher", 1);
         if (reporterConfiguration.getFlushInterval() > 0) {
-            flushScheduler = ExecutorUtils.createSingleThreadSchedulingDeamonPool("elastic-apm-transaction-flusher", 1);
-                flushScheduler.scheduleAtFixedRate(new Runnable() {
+            flushScheduler.scheduleAtFixedRate(new Runnable() {
                 @Override
                 public void run() {
-                    disruptor.publishEvent(FLUSH_EVENT_TRANSLATOR);
+                    for (Shard shard : shards) {
+                        shard.disruptor.publishEvent(FLUSH_EVENT_TRANSLATOR);
+                    }
                 }
             }, reporterConfiguration.getFlushInterval(), reporterConfiguration.getFlushInterval(), TimeUnit.SECONDS);
         }
+        if (reporterConfiguration.getErrorFlushInterval() > 0) {
+            flushScheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    errorLane.disruptor.publishEvent(FLUSH_EVENT_TRANSLATOR);
+                }
+            }, reporterConfiguration.getErrorFlushInterval(), reporterConfiguration.getErrorFlushInterval(), TimeUnit.MILLISECONDS);
+        }
+        // the backpressure policy is dynamic, so the aggregates are checked regardless of the current policy
+        flushScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                reportAggregatedEvents();
+            }
+        }, AGGREGATE_REPORT_INTERVAL_SECONDS, AGGREGATE_REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private Shard createShard(String threadName, Service service, ProcessInfo process, SystemInfo system, PayloadSender payloadSender,
+                              PayloadSerializer payloadSerializer, ReporterConfiguration reporterConfiguration,
+                              @Nullable DiskSpool spool, AtomicInteger dropped, int queueSize) {
+        final int ringBufferSize = MathUtils.getNextPowerOf2(queueSize);
+        final OverflowQueue overflowEvents = new OverflowQueue(ringBufferSize);
+        final ReportingEventHandler handler = new ReportingEventHandler(service, process, system, payloadSender,
+            getSerializerForShard(payloadSerializer), reporterConfiguration, dropped, spool, overflowEvents, droppedOldest);
+        return new Shard(threadName, handler, overflowEvents, dropped, ringBufferSize, reporterConfiguration.getWaitStrategy());
+    }
+
+    /**
+     * The caches of the {@link DirectJsonPayloadSerializer} are not synchronized,
+     * so each shard gets a serializer of its own, which is only used by the thread of the shard.
+     */
+    private static PayloadSerializer getSerializerForShard(PayloadSerializer payloadSerializer) {
+        if (payloadSerializer.getClass() == DirectJsonPayloadSerializer.class) {
+            return new DirectJsonPayloadSerializer();
+        }
+        return payloadSerializer;
     }
 
     @Override
     public void report(Transaction transaction) {
-        if (!tryAddEventToRingBuffer(transaction, TRANSACTION_EVENT_TRANSLATOR)) {
+        if (!tryAddEventToRingBuffer(getShard(), transaction, TRANSACTION_EVENT_TRANSLATOR)) {
             transaction.recycle();
         }
     }
 
+    /**
+     * @return the number of transactions and errors which have been dropped
+     */
     @Override
     public int getDropped() {
-        return dropped.get();
+        return dropped.get() + droppedErrors.get();
+    }
+
+    /**
+     * @return the number of errors which have been dropped
+     */
+    public int getDroppedErrors() {
+        return droppedErrors.get();
+    }
+
+    /**
+     * @return the utilization of the fullest transaction ring buffer
+     */
+    @Override
+    public double getQueueUtilization() {
+        double maxUtilization = 0;
+        for (Shard shard : shards) {
+            final RingBuffer<ReportingEvent> ringBuffer = shard.disruptor.getRingBuffer();
+            maxUtilization = Math.max(maxUtilization, 1 - (double) ringBuffer.remainingCapacity() / ringBuffer.getBufferSize());
+        }
+        return maxUtilization;
     }
 
     /**
      * Flushes pending {@link ErrorCapture}s and {@link Transaction}s to the APM server.
      * <p>
-     * This method may block for a while until a slot in the ring buffer becomes available.
+     * This method may block for a while until a slot in the ring buffers becomes available.
      * </p>
      *
-     * @return A {@link Future} which resolves when the flush has been executed.
+     * @return A {@link Future} which resolves when all payloads which are pending at the time of the flush have been sent.
+     * It resolves to {@code true} if the APM server has accepted all of them,
+     * and to {@code false} if some of them could not be sent and have been spooled or dropped.
      */
     @Override
-    public Future<Void> flush() {
-        disruptor.publishEvent(FLUSH_EVENT_TRANSLATOR);
-        final long cursor = disruptor.getCursor();
-        return new Future<Void>() {
-            @Override
-            public boolean cancel(boolean mayInterruptIfRunning) {
-                return false;
-            }
-
-            @Override
-            public boolean isCancelled() {
-                return false;
-            }
-
-            @Override
-            public boolean isDone() {
-                return false;
-            }
-
-            @Override
-            public Void get() throws InterruptedException, ExecutionException {
-                while (!isEventProcessed(cursor)) {
-                    Thread.sleep(1);
-                }
-                return null;
-            }
-
-            /*
-             * This might not a very elegant or efficient implementation but it is only intended to be used in tests anyway
-             */
-            @Override
-            public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-                for (; timeout > 0 && !isEventProcessed(cursor); timeout--) {
-                    Thread.sleep(1);
-                }
-                if (!isEventProcessed(cursor)) {
-                    throw new TimeoutException();
-                }
-                return null;
-            }
-        };
-    }
-
-    private boolean isEventProcessed(long sequence) {
-        return disruptor.getSequenceValueFor(reportingEventHandler) >= sequence;
+    public Future<Boolean> flush() {
+        final FlushFuture flushFuture = new FlushFuture(shards.length + 1);
+        for (Shard shard : shards) {
+            shard.disruptor.publishEvent(FLUSH_WITH_FUTURE_EVENT_TRANSLATOR, flushFuture);
+        }
+        errorLane.disruptor.publishEvent(FLUSH_WITH_FUTURE_EVENT_TRANSLATOR, flushFuture);
+        return flushFuture;
     }
 
     @Override
     public void close() {
-        disruptor.shutdown();
-        if (flushScheduler != null) {
-            flushScheduler.shutdown();
+        // a request to the APM server takes no longer than the server timeout
+        final long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(reporterConfiguration.getServerTimeout());
+        for (Shard shard : shards) {
+            shard.close(deadlineNanos);
         }
+        errorLane.close(deadlineNanos);
+        // the senders may be shared by the shards, so they are closed once all shards have stopped
+        transactionPayloadSender.close();
+        errorPayloadSender.close();
+        flushScheduler.shutdown();
+        reportAggregatedEvents();
     }
 
     @Override
     public void report(ErrorCapture error) {
-        if (!tryAddEventToRingBuffer(error, ERROR_EVENT_TRANSLATOR)) {
+        if (!tryAddEventToRingBuffer(errorLane, error, ERROR_EVENT_TRANSLATOR)) {
             error.recycle();
         }
     }
 
-    private <E extends Recyclable> boolean tryAddEventToRingBuffer(E event, EventTranslatorOneArg<ReportingEvent, E> eventTranslator) {
+    private <E extends Recyclable> boolean tryAddEventToRingBuffer(Shard shard, E event, EventTranslatorOneArg<ReportingEvent, E> eventTranslator) {
         if (dropTransactionIfQueueFull) {
-            boolean queueFull = !disruptor.getRingBuffer().tryPublishEvent(eventTranslator, event);
-            if (queueFull) {
-                dropped.incrementAndGet();
-                return false;
-            }
+            return shard.disruptor.getRingBuffer().tryPublishEvent(eventTranslator, event) || onQueueFull(shard, event, eventTranslator);
         } else {
-            disruptor.getRingBuffer().publishEvent(eventTranslator, event);
+            shard.disruptor.getRingBuffer().publishEvent(eventTranslator, event);
         }
         return true;
     }
 
+    /**
+     * The transactions of a thread always end up in the same shard, so that they are reported in order
+     */
+    private Shard getShard() {
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        return shards[(int) (Thread.currentThread().getId() % shards.length)];
+    }
+
+    /**
+     * Applies the {@link BackpressurePolicy}
+     *
+     * @return {@code true}, if the event has been handed over to the consumer after all
+     */
+    private <E extends Recyclable> boolean onQueueFull(Shard shard, E event, EventTranslatorOneArg<ReportingEvent, E> eventTranslator) {
+        switch (reporterConfiguration.getBackpressurePolicy()) {
+            case DROP_OLDEST:
+                // the consumer replaces the oldest event in the ring buffer with this one, the application thread does not wait for it
+                final Recyclable displaced = shard.overflowEvents.offer(event);
+                if (displaced != null) {
+                    // all events in the ring buffer are already going to be replaced,
+                    // so the oldest overflow event is the oldest one which would still be reported
+                    ReportingEventHandler.recycle(displaced);
+                    droppedOldest.incrementAndGet();
+                    shard.dropped.incrementAndGet();
+                }
+                return true;
+            case BLOCK_WITH_TIMEOUT:
+                if (tryPublishEvent(shard, event, eventTranslator, TimeUnit.MILLISECONDS.toNanos(reporterConfiguration.getBackpressureTimeout()))) {
+                    return true;
+                }
+                backpressureTimeouts.incrementAndGet();
+                break;
+            case AGGREGATE:
+                if (event instanceof Transaction) {
+                    aggregatedTransactions.add(((Transaction) event).getDuration());
+                } else {
+                    aggregatedErrors.incrementAndGet();
+                }
+                break;
+            default:
+                droppedNewest.incrementAndGet();
+        }
+        shard.dropped.incrementAndGet();
+        return false;
+    }
+
+    private <E extends Recyclable> boolean tryPublishEvent(Shard shard, E event, EventTranslatorOneArg<ReportingEvent, E> eventTranslator,
+                                                           long timeoutNanos) {
+        final RingBuffer<ReportingEvent> ringBuffer = shard.disruptor.getRingBuffer();
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
+            if (ringBuffer.tryPublishEvent(eventTranslator, event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Logs the events which have only been counted since the last report, see {@link BackpressurePolicy#AGGREGATE}
+     */
+    synchronized void reportAggregatedEvents() {
+        final long transactions = aggregatedTransactions.getCount();
+        final double durationMs = aggregatedTransactions.getTotalDurationMs();
+        final long errors = aggregatedErrors.get();
+        if (transactions > reportedAggregatedTransactions || errors > reportedAggregatedErrors) {
+            logger.info("{} transactions with a total duration of {} ms and {} errors have only been counted because the queue was full",
+                transactions - reportedAggregatedTransactions, durationMs - reportedAggregatedDurationMs, errors - reportedAggregatedErrors);
+        }
+        reportedAggregatedTransactions = transactions;
+        reportedAggregatedDurationMs = durationMs;
+        reportedAggregatedErrors = errors;
+    }
+
+    /**
+     * @return the number of events which have been discarded because the ring buffer was full,
+     * see {@link BackpressurePolicy#DROP_NEWEST}
+     */
+    public long getDroppedNewest() {
+        return droppedNewest.get();
+    }
+
+    /**
+     * @return the number of events which have been discarded by the consumer to make room for newer events,
+     * see {@link BackpressurePolicy#DROP_OLDEST}
+     */
+    public long getDroppedOldest() {
+        return droppedOldest.get();
+    }
+
+    /**
+     * @return the number of events which have been discarded because there was no space in the ring buffer within the
+     * backpressure timeout, see {@link BackpressurePolicy#BLOCK_WITH_TIMEOUT}
+     */
+    public long getBackpressureTimeouts() {
+        return backpressureTimeouts.get();
+    }
+
+    /**
+     * @return the transactions which have only been counted, see {@link BackpressurePolicy#AGGREGATE}
+     */
+    public TransactionAggregate getAggregatedTransactions() {
+        return aggregatedTransactions;
+    }
+
+    /**
+     * @return the number of errors which have only been counted, see {@link BackpressurePolicy#AGGREGATE}
+     */
+    public long getAggregatedErrors() {
+        return aggregatedErrors.get();
+    }
+
+    /**
+     * A ring buffer along with the {@link ReportingEventHandler} which consumes it on a thread of its own
+     */
+    private static class Shard {
+        private final Disruptor<ReportingEvent> disruptor;
+        private final ReportingEventHandler handler;
+        /**
+         * The events which did not fit into the full ring buffer, see {@link BackpressurePolicy#DROP_OLDEST}
+         */
+        private final OverflowQueue overflowEvents;
+        /**
+         * The drop counter of the kind of events in this ring buffer
+         */
+        private final AtomicInteger dropped;
+
+        private Shard(final String threadName, ReportingEventHandler handler, OverflowQueue overflowEvents,
+                      AtomicInteger dropped, int ringBufferSize, ReporterWaitStrategy waitStrategy) {
+            this.handler = handler;
+            this.overflowEvents = overflowEvents;
+            this.dropped = dropped;
+            // events are reported by all application threads, so a single producer sequencer can't be used
+            disruptor = new Disruptor<>(new TransactionEventFactory(), ringBufferSize, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r);
+                    thread.setDaemon(true);
+                    thread.setName(threadName);
+                    return thread;
+                }
+            }, ProducerType.MULTI, waitStrategy.createWaitStrategy());
+            disruptor.handleEventsWith(handler);
+            disruptor.start();
+        }
+
+        private void close(long deadlineNanos) {
+            disruptor.shutdown();
+            handler.close(deadlineNanos);
+        }
+    }
+
     static class ReportingEvent {
         @Nullable
         Transaction transaction;
@@ -191,6 +446,8 @@ public class ApmServerReporter implements Reporter {
         ReportingEventType type;
         @Nullable
         ErrorCapture error;
+        @Nullable
+        FlushFuture flushFuture;
 
         public void setTransaction(Transaction transaction) {
             this.type = ReportingEventType.TRANSACTION;
@@ -201,6 +458,7 @@ public class ApmServerReporter implements Reporter {
             this.transaction = null;
             this.type = null;
             this.error = null;
+            this.flushFuture = null;
         }
 
         enum ReportingEventType {
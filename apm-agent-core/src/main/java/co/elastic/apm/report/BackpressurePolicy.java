@@ -0,0 +1,41 @@
+package co.elastic.apm.report;
+
+/**
+ * Determines what happens when an event is reported while the ring buffer of the {@link ApmServerReporter} is full.
+ * <p>
+ * None of the policies lets the application thread wait for the APM server for longer than a bounded amount of time.
+ * </p>
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Discards the event which is about to be reported
+     */
+    DROP_NEWEST,
+
+    /**
+     * Lets the reporter discard the oldest event which has not been serialized yet, in favor of the new event.
+     * <p>
+     * As the Disruptor does not allow to overwrite slots which have not been consumed yet,
+     * the new event is handed over to the consumer via an overflow queue.
+     * For each event in the overflow queue, the consumer discards the next event it takes from the ring buffer,
+     * which is the oldest one, and handles the oldest overflow event instead.
+     * The application thread does not wait for that.
+     * The overflow queue holds as many events as the ring buffer, as every event in the ring buffer is going to be discarded by then.
+     * If it is full, its oldest event is discarded.
+     * </p>
+     */
+    DROP_OLDEST,
+
+    /**
+     * Waits for up to {@link ReporterConfiguration#getBackpressureTimeout()} for a free slot, before discarding the event
+     */
+    BLOCK_WITH_TIMEOUT,
+
+    /**
+     * Only adds the event to counters before discarding it,
+     * so that the number and the duration of transactions can still be estimated.
+     * The counters are logged periodically.
+     */
+    AGGREGATE
+}
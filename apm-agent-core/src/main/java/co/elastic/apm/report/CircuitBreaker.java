@@ -0,0 +1,113 @@
+package co.elastic.apm.report;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of whether the APM server is available, so that no requests are made while it is known to be unavailable.
+ * <p>
+ * After {@link #FAILURE_THRESHOLD} consecutive failures, the circuit breaker opens and rejects all requests.
+ * After a backoff, a single request is let through to probe whether the APM server has recovered (half-open).
+ * If it succeeds, the circuit breaker closes again.
+ * Otherwise, it opens again with an exponentially increasing backoff.
+ * The backoff is jittered, so that not all agents retry at the same time after an outage of the APM server.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+public class CircuitBreaker {
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long INITIAL_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final long MAX_BACKOFF_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures;
+    private volatile long retryAtNanos;
+    // guarded by this
+    private int consecutiveOpenings;
+
+    /**
+     * @return {@code true}, if a request may be made
+     */
+    public boolean allowRequest() {
+        return allowRequest(System.nanoTime());
+    }
+
+    boolean allowRequest(long nanoTime) {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && nanoTime - retryAtNanos >= 0) {
+                state = State.HALF_OPEN;
+                logger.debug("Probing whether the APM server is available again");
+                return true;
+            }
+            return state == State.CLOSED;
+        }
+    }
+
+    /**
+     * @return {@code false}, if requests are currently rejected, so that there is no point in preparing them
+     */
+    public boolean isAvailable() {
+        return isAvailable(System.nanoTime());
+    }
+
+    boolean isAvailable(long nanoTime) {
+        final State currentState = state;
+        return currentState == State.CLOSED || currentState == State.OPEN && nanoTime - retryAtNanos >= 0;
+    }
+
+    public void onSuccess() {
+        if (state == State.CLOSED && consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (state != State.CLOSED) {
+                logger.info("APM server is available again");
+            }
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            consecutiveOpenings = 0;
+        }
+    }
+
+    public void onFailure() {
+        onFailure(System.nanoTime());
+    }
+
+    synchronized void onFailure(long nanoTime) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= FAILURE_THRESHOLD) {
+            final long backoff = getBackoffNanos(consecutiveOpenings++);
+            retryAtNanos = nanoTime + backoff;
+            state = State.OPEN;
+            logger.info("APM server is unavailable, retrying in {} ms", TimeUnit.NANOSECONDS.toMillis(backoff));
+        }
+    }
+
+    /**
+     * Calculates an exponential backoff with "equal jitter":
+     * the backoff is at least half of the exponential value, plus a random fraction of the other half.
+     */
+    static long getBackoffNanos(int consecutiveOpenings) {
+        final long exponentialBackoff = Math.min(MAX_BACKOFF_NANOS, INITIAL_BACKOFF_NANOS << Math.min(consecutiveOpenings, 16));
+        final long half = exponentialBackoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    State getState() {
+        return state;
+    }
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+}
@@ -0,0 +1,163 @@
+package co.elastic.apm.report;
+
+import okio.Buffer;
+import okio.BufferedSink;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * The body of a long-lived, chunked request to the APM server which carries newline delimited JSON events.
+ * <p>
+ * The reporter thread {@linkplain #write(Buffer) writes} lines to the stream,
+ * while the HTTP client concurrently {@linkplain #writeTo(BufferedSink) transfers} them to the network.
+ * In contrast to an {@link okio.Pipe}, writing never blocks:
+ * if the network can't keep up and the buffer of the stream is full, the line is rejected,
+ * so that the reporter thread never waits for the APM server.
+ * </p>
+ */
+public class EventStream {
+
+    private final long maxBufferSize;
+    private final long openedNanos = System.nanoTime();
+    // guarded by this
+    private final Buffer buffer = new Buffer();
+    private boolean closed;
+    @Nullable
+    private PayloadBuffer.SendListener sendListener;
+    private long sendSequence;
+    @Nullable
+    private Boolean sendResult;
+    // only written by the reporter thread
+    private long bytesWritten;
+    private volatile int numberOfEvents;
+
+    /**
+     * @param maxBufferSize the maximum number of bytes which may wait to be sent
+     */
+    public EventStream(long maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * Moves a line to the stream, if it fits into the buffer.
+     *
+     * @param line the line, including the trailing newline, which is empty afterwards if it has been written
+     * @return {@code true}, if the line has been written,
+     * {@code false} if the stream is closed or the line would exceed the buffer
+     */
+    public boolean write(Buffer line) {
+        final long size = line.size();
+        synchronized (this) {
+            if (closed || buffer.size() + size > maxBufferSize) {
+                return false;
+            }
+            buffer.write(line, size);
+            notifyAll();
+        }
+        bytesWritten += size;
+        return true;
+    }
+
+    /**
+     * Counts the events which have been written to the stream
+     */
+    void onEventsWritten(int count) {
+        numberOfEvents += count;
+    }
+
+    /**
+     * @return {@code true}, if the stream has been closed, for example because the request has failed
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Signals that no further lines are going to be written, which lets the request complete
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Transfers the lines to the sink as soon as they are written, until the stream is closed
+     */
+    public void writeTo(BufferedSink sink) throws IOException {
+        final Buffer chunk = new Buffer();
+        while (true) {
+            synchronized (this) {
+                while (buffer.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (buffer.size() == 0) {
+                    return;
+                }
+                chunk.write(buffer, buffer.size());
+            }
+            sink.write(chunk, chunk.size());
+            sink.flush();
+        }
+    }
+
+    /**
+     * @return the number of bytes which have been written to this stream so far
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getNumberOfEvents() {
+        return numberOfEvents;
+    }
+
+    /**
+     * @return the number of nanoseconds since this stream has been opened
+     */
+    public long getAgeNanos() {
+        return System.nanoTime() - openedNanos;
+    }
+
+    /**
+     * Registers a listener which is notified once the request has completed.
+     * If it has already completed, the listener is notified immediately.
+     */
+    void setSendListener(PayloadBuffer.SendListener sendListener, long sequence) {
+        final Boolean result;
+        synchronized (this) {
+            this.sendListener = sendListener;
+            this.sendSequence = sequence;
+            result = sendResult;
+        }
+        if (result != null) {
+            sendListener.onSendCompleted(sequence, result);
+        }
+    }
+
+    /**
+     * Has to be called by the {@link PayloadSender} once the request has completed.
+     *
+     * @param success whether the APM server has accepted the events
+     */
+    public void onSendCompleted(boolean success) {
+        final PayloadBuffer.SendListener listener;
+        final long sequence;
+        synchronized (this) {
+            closed = true;
+            sendResult = success;
+            listener = sendListener;
+            sequence = sendSequence;
+            notifyAll();
+        }
+        if (listener != null) {
+            listener.onSendCompleted(sequence, success);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package co.elastic.apm.report;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of a {@link Reporter#flush()}.
+ * <p>
+ * It is completed once each {@link ReportingEventHandler} has sent all payloads which have been handed over to the {@link PayloadSender}
+ * up to and including the flush.
+ * It resolves to {@code true} if all of these payloads have been accepted by the APM server
+ * and to {@code false} if at least one of them has been spooled or dropped.
+ * </p>
+ */
+class FlushFuture implements Future<Boolean> {
+
+    private final CountDownLatch completed;
+    private volatile boolean success = true;
+
+    /**
+     * @param numberOfHandlers the number of {@link ReportingEventHandler}s which have to complete the flush
+     */
+    FlushFuture(int numberOfHandlers) {
+        completed = new CountDownLatch(numberOfHandlers);
+    }
+
+    void markFailed() {
+        success = false;
+    }
+
+    void complete() {
+        completed.countDown();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return completed.getCount() == 0;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException {
+        completed.await();
+        return success;
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!completed.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return success;
+    }
+}
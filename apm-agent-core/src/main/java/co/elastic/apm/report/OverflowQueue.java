@@ -0,0 +1,57 @@
+package co.elastic.apm.report;
+
+import co.elastic.apm.objectpool.Recyclable;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The events which did not fit into the full ring buffer of a shard, see {@link BackpressurePolicy#DROP_OLDEST}.
+ * <p>
+ * The consumer replaces each event it takes from the ring buffer with the head of this queue.
+ * That is why the queue does not need to hold more events than the ring buffer:
+ * once it is full, every event in the ring buffer is going to be discarded already,
+ * so that the head of this queue is the oldest event which would still be reported.
+ * </p>
+ * <p>
+ * The capacity is not enforced strictly when multiple threads offer events at the same time.
+ * </p>
+ */
+class OverflowQueue {
+
+    private final ConcurrentLinkedQueue<Recyclable> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+
+    OverflowQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds the event to the tail of the queue
+     *
+     * @return the oldest event of the queue, which has been removed to make room for the new one,
+     * or {@code null}, if the queue was not full
+     */
+    @Nullable
+    Recyclable offer(Recyclable event) {
+        final Recyclable displaced = size.get() >= capacity ? poll() : null;
+        events.offer(event);
+        size.incrementAndGet();
+        return displaced;
+    }
+
+    @Nullable
+    Recyclable poll() {
+        // reading the size first avoids touching the queue for each event while there is no overflow
+        if (size.get() == 0) {
+            return null;
+        }
+        final Recyclable event = events.poll();
+        if (event != null) {
+            size.decrementAndGet();
+        }
+        return event;
+    }
+}
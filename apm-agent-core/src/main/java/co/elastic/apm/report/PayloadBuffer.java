@@ -0,0 +1,157 @@
+package co.elastic.apm.report;
+
+import co.elastic.apm.impl.error.ErrorPayload;
+import co.elastic.apm.impl.payload.Payload;
+import co.elastic.apm.objectpool.ObjectPool;
+import co.elastic.apm.objectpool.Recyclable;
+import co.elastic.apm.report.serialize.PayloadSerializer;
+import okio.Buffer;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Holds the serialized form of a {@link Payload}, which is built up incrementally by adding one event after another.
+ * <p>
+ * That way, events can be serialized and recycled as soon as they are reported
+ * and the {@link PayloadSender} only has to deal with bytes.
+ * The underlying {@link Buffer} consists of pooled segments, so that building up a payload does not create garbage.
+ * </p>
+ */
+public class PayloadBuffer implements Recyclable {
+
+    private final Buffer buffer = new Buffer();
+    private final ObjectPool<PayloadBuffer> pool;
+    @Nullable
+    private Payload metadata;
+    private int numberOfEvents;
+    private boolean finished;
+    @Nullable
+    private SendListener sendListener;
+    private long sendSequence;
+
+    public PayloadBuffer(ObjectPool<PayloadBuffer> pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param metadata the payload whose {@code service}, {@code process} and {@code system} are sent along with the events.
+     *                 Whether this is a {@link ErrorPayload} determines whether this buffer holds errors or transactions.
+     */
+    public PayloadBuffer withMetadata(Payload metadata) {
+        this.metadata = metadata;
+        return this;
+    }
+
+    /**
+     * Adds an event which has already been serialized.
+     * The bytes are moved from the provided buffer, which is empty afterwards.
+     */
+    public void addSerializedEvent(PayloadSerializer payloadSerializer, Buffer serializedEvent) throws IOException {
+        beforeEvent(payloadSerializer);
+        buffer.writeAll(serializedEvent);
+        numberOfEvents++;
+    }
+
+    private void beforeEvent(PayloadSerializer payloadSerializer) throws IOException {
+        if (numberOfEvents == 0) {
+            buffer.writeByte('{');
+            payloadSerializer.serializeMetadata(buffer, getMetadata());
+            buffer.writeUtf8(isErrorPayload() ? ",\"errors\":[" : ",\"transactions\":[");
+        } else {
+            buffer.writeByte(',');
+        }
+    }
+
+    /**
+     * Completes the JSON document. No events may be added afterwards.
+     */
+    public void finish() {
+        if (!finished) {
+            buffer.writeUtf8("]}");
+            finished = true;
+        }
+    }
+
+    /**
+     * Marks the bytes which have been written directly to the {@linkplain #getBuffer() buffer} as a finished payload,
+     * for example when restoring a payload which has been serialized before.
+     */
+    public void markFinished(int numberOfEvents) {
+        this.numberOfEvents = numberOfEvents;
+        this.finished = true;
+    }
+
+    public Buffer getBuffer() {
+        return buffer;
+    }
+
+    public Payload getMetadata() {
+        if (metadata == null) {
+            throw new IllegalStateException("Metadata has not been set");
+        }
+        return metadata;
+    }
+
+    public boolean isErrorPayload() {
+        return metadata instanceof ErrorPayload;
+    }
+
+    /**
+     * @return the current size of the serialized payload in bytes
+     */
+    public long getSize() {
+        return buffer.size();
+    }
+
+    public int getNumberOfEvents() {
+        return numberOfEvents;
+    }
+
+    public boolean isEmpty() {
+        return numberOfEvents == 0;
+    }
+
+    /**
+     * Registers a listener which is notified once the payload has been sent or could not be sent
+     *
+     * @param sequence an identifier of this payload, which is passed to the listener
+     */
+    void setSendListener(SendListener sendListener, long sequence) {
+        this.sendListener = sendListener;
+        this.sendSequence = sequence;
+    }
+
+    /**
+     * Has to be called by the {@link PayloadSender} once the payload has been sent, or once sending it has failed.
+     * Recycles the buffer.
+     *
+     * @param success whether the payload has been accepted by the APM server
+     */
+    public void onSendCompleted(boolean success) {
+        final SendListener listener = this.sendListener;
+        final long sequence = this.sendSequence;
+        recycle();
+        if (listener != null) {
+            listener.onSendCompleted(sequence, success);
+        }
+    }
+
+    public void recycle() {
+        pool.recycle(this);
+    }
+
+    @Override
+    public void resetState() {
+        buffer.clear();
+        metadata = null;
+        numberOfEvents = 0;
+        finished = false;
+        sendListener = null;
+        sendSequence = 0;
+    }
+
+    interface SendListener {
+        void onSendCompleted(long sequence, boolean success);
+    }
+}
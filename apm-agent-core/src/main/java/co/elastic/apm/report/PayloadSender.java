@@ -2,6 +2,48 @@ package co.elastic.apm.report;
 
 import co.elastic.apm.impl.payload.Payload;
 
+import javax.annotation.Nullable;
+
 public interface PayloadSender {
-    void sendPayload(Payload payload);
+
+    /**
+     * Sends a serialized payload to the APM server.
+     * <p>
+     * Implementations have to call {@link PayloadBuffer#onSendCompleted(boolean)} once the payload has been sent,
+     * or once sending it has failed.
+     * This recycles the buffer and completes pending {@linkplain Reporter#flush() flushes}.
+     * </p>
+     */
+    void sendPayload(PayloadBuffer payload);
+
+    /**
+     * @return {@code false}, if the APM server is known to be unavailable,
+     * which means that payloads would not be sent anyway and that there is no point in serializing events
+     */
+    boolean isAvailable();
+
+
+    /**
+     * Opens a request which streams events to the APM server as newline delimited JSON,
+     * see {@link ReporterConfiguration#isStreamingIntake()}.
+     * <p>
+     * Implementations have to call {@link EventStream#onSendCompleted(boolean)} once the request has completed.
+     * </p>
+     *
+     * @param metadata the payload whose {@code service} is used to identify the agent
+     * @return the stream to write the events to,
+     * or {@code null} if no request can be opened at the moment,
+     * in which case the events have to wait until a request becomes available
+     */
+    @Nullable
+    EventStream openEventStream(Payload metadata);
+
+    /**
+     * Releases the resources of the sender, like the threads of its {@link co.elastic.apm.report.compression.PayloadCompressor}.
+     * <p>
+     * It is called when the reporter is closed, but payloads which are still being sent may use the sender afterwards.
+     * Closing a sender multiple times has no effect.
+     * </p>
+     */
+    void close();
 }
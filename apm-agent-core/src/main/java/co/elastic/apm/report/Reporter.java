@@ -11,7 +11,14 @@ public interface Reporter extends Closeable {
 
     int getDropped();
 
-    Future<Void> flush();
+    /**
+     * Returns how full the queue of events which are waiting to be reported is.
+     *
+     * @return a value between 0.0 (empty) and 1.0 (full)
+     */
+    double getQueueUtilization();
+
+    Future<Boolean> flush();
 
     @Override
     void close();
@@ -4,6 +4,7 @@ import org.stagemonitor.configuration.ConfigurationOption;
 import org.stagemonitor.configuration.ConfigurationOptionProvider;
 import org.stagemonitor.configuration.converter.UrlValueConverter;
 
+import javax.annotation.Nullable;
 import java.net.URL;
 
 public class ReporterConfiguration extends ConfigurationOptionProvider {
@@ -54,6 +55,128 @@ public class ReporterConfiguration extends ConfigurationOptionProvider {
         .dynamic(true)
         .buildWithDefault(500);
 
+    private final ConfigurationOption<Integer> reporterThreads = ConfigurationOption.integerOption()
+        .key("reporter_threads")
+        .description("The number of threads which serialize and send events.\n\n" +
+            "Each thread has a queue of its own, which can hold up to max_queue_size events. " +
+            "The events of an application thread are always reported by the same reporter thread. " +
+            "Only increase this value if a single reporter thread can't keep up with the number of transactions.")
+        .buildWithDefault(1);
+
+    private final ConfigurationOption<ReporterWaitStrategy> waitStrategy = ConfigurationOption.enumOption(ReporterWaitStrategy.class)
+        .key("reporter_wait_strategy")
+        .description("How the reporter thread waits for new events.\n\n" +
+            "BLOCKING: uses no CPU when idle, but the application threads have to signal each event.\n" +
+            "SLEEPING: spins, yields and then sleeps for short periods, which uses little CPU when idle.\n" +
+            "YIELDING: uses a full CPU core, but lets other threads run.\n" +
+            "BUSY_SPIN: the lowest latency, but permanently occupies a CPU core. " +
+            "Only use this if there is a spare core for the reporter.\n" +
+            "PHASED_BACKOFF: spins and yields for a short while after the last event, " +
+            "then waits without using CPU.")
+        .buildWithDefault(ReporterWaitStrategy.BLOCKING);
+
+    private final ConfigurationOption<BackpressurePolicy> backpressurePolicy = ConfigurationOption.enumOption(BackpressurePolicy.class)
+        .key("backpressure_policy")
+        .description("What to do with an event when the queue of events which are waiting to be reported is full.\n\n" +
+            "DROP_NEWEST: the event is discarded.\n" +
+            "DROP_OLDEST: the oldest event in the queue is discarded to make room for the new one.\n" +
+            "BLOCK_WITH_TIMEOUT: the application waits for up to backpressure_timeout for space in the queue, " +
+            "before the event is discarded.\n" +
+            "AGGREGATE: the event is discarded, but transactions are still counted, along with their duration. " +
+            "The counts are logged periodically.\n\n" +
+            "In any case, the latency of your requests does not depend on the APM server for longer than backpressure_timeout.")
+        .dynamic(true)
+        .buildWithDefault(BackpressurePolicy.DROP_NEWEST);
+
+    private final ConfigurationOption<Integer> backpressureTimeout = ConfigurationOption.integerOption()
+        .key("backpressure_timeout")
+        .label("A timeout in milliseconds.")
+        .description("The maximum time the application waits for space in the queue of events " +
+            "when the backpressure_policy is BLOCK_WITH_TIMEOUT.")
+        .dynamic(true)
+        .buildWithDefault(5);
+
+    private final ConfigurationOption<Integer> maxErrorQueueSize = ConfigurationOption.integerOption()
+        .key("max_error_queue_size")
+        .description("Maximum queue length of errors before sending errors to the APM server.\n\n" +
+            "Errors are queued separately from transactions, so that a burst of transactions can't lead to dropped errors.")
+        .buildWithDefault(500);
+
+    private final ConfigurationOption<Integer> errorFlushInterval = ConfigurationOption.integerOption()
+        .key("error_flush_interval")
+        .label("An interval in milliseconds.")
+        .description("Interval with which errors are sent to the APM server.\n\n" +
+            "Errors which occur within this interval are sent in a single request. " +
+            "Set to 0 to send errors as soon as possible.")
+        .buildWithDefault(1000);
+
+    private final ConfigurationOption<Boolean> streamingIntake = ConfigurationOption.booleanOption()
+        .key("streaming_intake")
+        .description("When enabled, events are streamed to the intake API of the APM server as newline delimited JSON " +
+            "within long-lived chunked requests, instead of sending them in batches.\n\n" +
+            "The metadata about the service, process and system is only sent once per request " +
+            "and events don't have to be buffered until a batch is complete. " +
+            "Requires an APM server which supports the /intake/v2/events endpoint. " +
+            "Note that streamed events can't be spooled if the APM server is unavailable.")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Integer> apiRequestSize = ConfigurationOption.integerOption()
+        .key("api_request_size")
+        .label("The maximum size of a streaming request in kilobytes.")
+        .description("When streaming_intake is enabled, the request is closed and a new one is opened " +
+            "once this amount of events has been sent.")
+        .dynamic(true)
+        .buildWithDefault(768);
+
+    private final ConfigurationOption<Integer> apiRequestTime = ConfigurationOption.integerOption()
+        .key("api_request_time")
+        .label("The maximum duration of a streaming request in seconds.")
+        .description("When streaming_intake is enabled, the request is closed and a new one is opened " +
+            "once it has been open for this amount of time.")
+        .dynamic(true)
+        .buildWithDefault(10);
+
+    private final ConfigurationOption<Integer> maxPayloadSize = ConfigurationOption.integerOption()
+        .key("max_payload_size")
+        .label("The maximum size of a payload in kilobytes.")
+        .description("When the serialized transactions reach this size, they are sent to the APM server, " +
+            "even if max_queue_size has not been reached yet.\n\n" +
+            "As the number of spans per transaction can vary a lot, this limits the size of the requests to the APM server " +
+            "and the memory which is needed to buffer them more reliably than max_queue_size.")
+        .dynamic(true)
+        .buildWithDefault(1024);
+
+    private final ConfigurationOption<Integer> maxConcurrentRequests = ConfigurationOption.integerOption()
+        .key("max_concurrent_requests")
+        .description("The maximum number of requests to the APM server which may be in flight at the same time.\n\n" +
+            "Payloads are sent asynchronously, so that a slow round trip to the APM server does not stall the reporting. " +
+            "A higher value increases the achievable throughput when the latency to the APM server is high, " +
+            "while a lower value limits the load on your APM server.")
+        .buildWithDefault(4);
+
+    private final ConfigurationOption<Integer> compressionLevel = ConfigurationOption.integerOption()
+        .key("compression_level")
+        .description("The gzip compression level, from 0 to 9, of the payloads which are sent to the APM server. " +
+            "0 disables the compression.\n\n" +
+            "When set to -1, the level is chosen based on the CPU load and on the throughput of the connection to the APM server: " +
+            "payloads are compressed harder when the connection is slow and the CPU is idle, " +
+            "and faster when the CPU is busy or the connection is fast.")
+        .dynamic(true)
+        .buildWithDefault(-1);
+
+    private final ConfigurationOption<String> spoolDir = ConfigurationOption.stringOption()
+        .key("spool_dir")
+        .description("When set, payloads which can't be sent because the APM server is unavailable or can't keep up " +
+            "are stored in this directory instead of being dropped. " +
+            "They are sent once the APM server is available again, even after a restart of the application.")
+        .build();
+
+    private final ConfigurationOption<Integer> spoolMaxSize = ConfigurationOption.integerOption()
+        .key("spool_max_size")
+        .label("The maximum size of the spool in megabytes.")
+        .description("When the spool has reached this size, further payloads are dropped until the APM server is available again.")
+        .buildWithDefault(100);
+
     public String getSecretToken() {
         return secretToken.get();
     }
@@ -77,4 +200,79 @@ public class ReporterConfiguration extends ConfigurationOptionProvider {
     public int getMaxQueueSize() {
         return maxQueueSize.get();
     }
+
+    public int getReporterThreads() {
+        return reporterThreads.get();
+    }
+
+    public ReporterWaitStrategy getWaitStrategy() {
+        return waitStrategy.get();
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy.get();
+    }
+
+    /**
+     * @return the backpressure timeout in milliseconds
+     */
+    public int getBackpressureTimeout() {
+        return backpressureTimeout.get();
+    }
+
+    public int getMaxErrorQueueSize() {
+        return maxErrorQueueSize.get();
+    }
+
+    /**
+     * @return the error flush interval in milliseconds
+     */
+    public int getErrorFlushInterval() {
+        return errorFlushInterval.get();
+    }
+
+    public boolean isStreamingIntake() {
+        return streamingIntake.get();
+    }
+
+    /**
+     * @return the maximum size of a streaming request in bytes
+     */
+    public long getApiRequestSize() {
+        return apiRequestSize.get() * 1024L;
+    }
+
+    /**
+     * @return the maximum duration of a streaming request in seconds
+     */
+    public int getApiRequestTime() {
+        return apiRequestTime.get();
+    }
+
+    /**
+     * @return the maximum size of a payload in bytes
+     */
+    public long getMaxPayloadSize() {
+        return maxPayloadSize.get() * 1024L;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests.get();
+    }
+
+    /**
+     * @return the gzip compression level or {@code -1}, if the level should be chosen adaptively
+     */
+    public int getCompressionLevel() {
+        return compressionLevel.get();
+    }
+
+    @Nullable
+    public String getSpoolDir() {
+        return spoolDir.get();
+    }
+
+    public int getSpoolMaxSize() {
+        return spoolMaxSize.get();
+    }
 }
@@ -4,9 +4,12 @@ import co.elastic.apm.configuration.CoreConfiguration;
 import co.elastic.apm.impl.payload.ProcessFactory;
 import co.elastic.apm.impl.payload.ServiceFactory;
 import co.elastic.apm.impl.payload.SystemInfo;
-import co.elastic.apm.report.serialize.JacksonPayloadSerializer;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import co.elastic.apm.report.compression.GzipPayloadCompressor;
+import co.elastic.apm.report.compression.PayloadCompressor;
+import co.elastic.apm.report.serialize.DirectJsonPayloadSerializer;
+import co.elastic.apm.report.spool.DiskSpool;
+import co.elastic.apm.util.ExecutorUtils;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +22,8 @@ import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
@@ -30,18 +35,40 @@ public class ReporterFactory {
 
     public Reporter createReporter(CoreConfiguration coreConfiguration, ReporterConfiguration reporterConfiguration,
                                    @Nullable String frameworkName, @Nullable String frameworkVersion) {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new AfterburnerModule());
+        final DiskSpool spool = createSpool(reporterConfiguration);
+        // shared, so that both senders use the same deflaters and compression threads
+        final PayloadCompressor compressor = new GzipPayloadCompressor(reporterConfiguration);
         return new ApmServerReporter(
             new ServiceFactory().createService(coreConfiguration, frameworkName, frameworkVersion),
             ProcessFactory.ForCurrentVM.INSTANCE.getProcessInformation(),
             SystemInfo.create(),
-            new ApmServerHttpPayloadSender(getOkHttpClient(reporterConfiguration), new JacksonPayloadSerializer(objectMapper), reporterConfiguration), true, reporterConfiguration);
+            new ApmServerHttpPayloadSender(getOkHttpClient(reporterConfiguration), reporterConfiguration, spool, compressor),
+            // errors get connections of their own, so that they don't queue up behind transaction payloads
+            new ApmServerHttpPayloadSender(getOkHttpClient(reporterConfiguration), reporterConfiguration, spool, compressor),
+            new DirectJsonPayloadSerializer(), true, reporterConfiguration, spool);
+    }
+
+    @Nullable
+    private DiskSpool createSpool(ReporterConfiguration reporterConfiguration) {
+        final String spoolDir = reporterConfiguration.getSpoolDir();
+        if (spoolDir == null) {
+            return null;
+        }
+        try {
+            return new DiskSpool(new File(spoolDir), reporterConfiguration.getSpoolMaxSize() * 1024L * 1024L);
+        } catch (IOException e) {
+            logger.warn("Could not create spool in " + spoolDir + ", payloads will be dropped if the APM server is unavailable", e);
+            return null;
+        }
     }
 
     @Nonnull
     OkHttpClient getOkHttpClient(ReporterConfiguration reporterConfiguration) {
+        // the default dispatcher uses non-daemon threads which would delay the shutdown of the JVM
+        final Dispatcher dispatcher = new Dispatcher(ExecutorUtils.createCachedDeamonPool("apm-reporter-http"));
+        dispatcher.setMaxRequestsPerHost(Math.max(1, reporterConfiguration.getMaxConcurrentRequests()));
         final OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
             .connectTimeout(reporterConfiguration.getServerTimeout(), TimeUnit.SECONDS);
         if (!reporterConfiguration.isVerifyServerCert()) {
             disableCertificateValidation(builder);
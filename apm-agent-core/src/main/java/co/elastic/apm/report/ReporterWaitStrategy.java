@@ -0,0 +1,71 @@
+package co.elastic.apm.report;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.PhasedBackoffWaitStrategy;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how the reporter thread waits for new events.
+ * <p>
+ * The strategies trade the CPU usage of an idle reporter for the latency with which events are picked up.
+ * </p>
+ */
+public enum ReporterWaitStrategy {
+
+    /**
+     * Waits on a lock, which uses no CPU when idle but requires the application threads to signal new events
+     */
+    BLOCKING {
+        @Override
+        WaitStrategy createWaitStrategy() {
+            return new BlockingWaitStrategy();
+        }
+    },
+
+    /**
+     * Spins, yields and then sleeps for short periods, without signalling costs for the application threads
+     */
+    SLEEPING {
+        @Override
+        WaitStrategy createWaitStrategy() {
+            return new SleepingWaitStrategy();
+        }
+    },
+
+    /**
+     * Spins and yields, which uses a full CPU core but gives other threads the chance to run
+     */
+    YIELDING {
+        @Override
+        WaitStrategy createWaitStrategy() {
+            return new YieldingWaitStrategy();
+        }
+    },
+
+    /**
+     * Busy spins, which results in the lowest latency but permanently occupies a CPU core
+     */
+    BUSY_SPIN {
+        @Override
+        WaitStrategy createWaitStrategy() {
+            return new BusySpinWaitStrategy();
+        }
+    },
+
+    /**
+     * Spins and yields for a short while after the last event, before falling back to waiting on a lock
+     */
+    PHASED_BACKOFF {
+        @Override
+        WaitStrategy createWaitStrategy() {
+            return PhasedBackoffWaitStrategy.withLiteLock(100, 1000, TimeUnit.MICROSECONDS);
+        }
+    };
+
+    abstract WaitStrategy createWaitStrategy();
+}
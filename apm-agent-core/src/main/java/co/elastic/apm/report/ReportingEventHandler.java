@@ -1,63 +1,526 @@
 package co.elastic.apm.report;
 
+import co.elastic.apm.impl.error.ErrorCapture;
 import co.elastic.apm.impl.error.ErrorPayload;
 import co.elastic.apm.impl.payload.Payload;
 import co.elastic.apm.impl.payload.ProcessInfo;
 import co.elastic.apm.impl.payload.Service;
 import co.elastic.apm.impl.payload.SystemInfo;
 import co.elastic.apm.impl.payload.TransactionPayload;
+import co.elastic.apm.impl.transaction.Transaction;
+import co.elastic.apm.objectpool.ObjectPool;
+import co.elastic.apm.objectpool.Recyclable;
+import co.elastic.apm.objectpool.RecyclableObjectFactory;
+import co.elastic.apm.objectpool.impl.BlockingQueueObjectPool;
+import co.elastic.apm.report.serialize.DirectJsonPayloadSerializer;
+import co.elastic.apm.report.serialize.PayloadSerializer;
+import co.elastic.apm.report.spool.DiskSpool;
+import co.elastic.apm.util.ExecutorUtils;
 import com.lmax.disruptor.EventHandler;
+import okio.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static co.elastic.apm.report.ApmServerReporter.ReportingEvent.ReportingEventType.ERROR;
 import static co.elastic.apm.report.ApmServerReporter.ReportingEvent.ReportingEventType.FLUSH;
 import static co.elastic.apm.report.ApmServerReporter.ReportingEvent.ReportingEventType.TRANSACTION;
 
-class ReportingEventHandler implements EventHandler<ApmServerReporter.ReportingEvent> {
-    private final TransactionPayload transactionPayload;
-    private final ErrorPayload errorPayload;
+/**
+ * Serializes the events on the Disruptor consumer thread and hands the serialized payloads over to a separate I/O thread.
+ * <p>
+ * That way, serialization never has to wait for the network.
+ * If the APM server is slow, the I/O stage fills up and further payloads are dropped,
+ * instead of blocking the consumer thread which would lead to a full ring buffer.
+ * </p>
+ * <p>
+ * In {@linkplain ReporterConfiguration#isStreamingIntake() streaming mode}, the events are not batched but written to an
+ * {@link EventStream}, which is transferred to the network by the HTTP client while further events are written.
+ * </p>
+ * <p>
+ * Each payload which is handed over to the I/O thread and each event stream gets a sequence number.
+ * A {@link FlushFuture} is completed as soon as all payloads up to the last sequence number at the time of the flush
+ * have {@linkplain PayloadBuffer#onSendCompleted(boolean) completed}.
+ * </p>
+ */
+class ReportingEventHandler implements EventHandler<ApmServerReporter.ReportingEvent>, PayloadBuffer.SendListener {
+
+    /**
+     * The number of serialized payloads which can wait for the I/O thread
+     */
+    static final int MAX_PENDING_PAYLOADS = 16;
+    static final long SPOOL_DRAIN_INTERVAL_MS = 1000;
+    private static final Logger logger = LoggerFactory.getLogger(ReportingEventHandler.class);
+
+    private final TransactionPayload transactionMetadata;
+    private final ErrorPayload errorMetadata;
     private final PayloadSender payloadSender;
+    private final PayloadSerializer payloadSerializer;
     private final ReporterConfiguration reporterConfiguration;
+    private final AtomicInteger dropped;
+    private final OverflowQueue overflowEvents;
+    private final AtomicLong droppedOldest;
+    private final ObjectPool<PayloadBuffer> payloadBufferPool;
+    private final ThreadPoolExecutor ioStage;
+    @Nullable
+    private final DiskSpool spool;
+    @Nullable
+    private ScheduledThreadPoolExecutor spoolDrainer;
+    @Nullable
+    private PayloadBuffer transactions;
+    @Nullable
+    private PayloadBuffer errors;
+    /**
+     * Each event is serialized into this buffer first, so that its size is known before adding it to a payload
+     */
+    private final Buffer eventBuffer = new Buffer();
+    /**
+     * Whether events are streamed as newline delimited JSON instead of being batched, see {@link ReporterConfiguration#isStreamingIntake()}
+     */
+    private final boolean streaming;
+    @Nullable
+    private EventStream eventStream;
+    /**
+     * The intake v2 format of the event stream is only implemented by the {@link DirectJsonPayloadSerializer}
+     */
+    @Nullable
+    private final DirectJsonPayloadSerializer eventSerializer;
+    private final Buffer metadataLine = new Buffer();
+    /**
+     * The serialized events which wait for a stream,
+     * as all {@linkplain ReporterConfiguration#getMaxConcurrentRequests() concurrent requests} are in use
+     */
+    private final Buffer pendingEvents = new Buffer();
+    private int numberOfPendingEvents;
+    /**
+     * Guards {@link #payloadSequence}, {@link #outstandingPayloads} and {@link #pendingFlushes},
+     * as payloads are sent by the consumer thread and the spool drainer and complete on the threads of the {@link PayloadSender}
+     */
+    private final Object sendLock = new Object();
+    private final TreeSet<Long> outstandingPayloads = new TreeSet<>();
+    private final ArrayDeque<PendingFlush> pendingFlushes = new ArrayDeque<>();
+    private long payloadSequence;
 
-    public ReportingEventHandler(Service service, ProcessInfo process, SystemInfo system, PayloadSender payloadSender, ReporterConfiguration reporterConfiguration) {
+    ReportingEventHandler(Service service, ProcessInfo process, SystemInfo system, PayloadSender payloadSender,
+                          PayloadSerializer payloadSerializer, ReporterConfiguration reporterConfiguration, AtomicInteger dropped,
+                          @Nullable DiskSpool spool, OverflowQueue overflowEvents, AtomicLong droppedOldest) {
         this.payloadSender = payloadSender;
+        this.spool = spool;
+        this.payloadSerializer = payloadSerializer;
         this.reporterConfiguration = reporterConfiguration;
-        transactionPayload = new TransactionPayload(process, service, system);
-        errorPayload = new ErrorPayload(process, service, system);
+        this.dropped = dropped;
+        this.streaming = reporterConfiguration.isStreamingIntake();
+        this.eventSerializer = streaming ? new DirectJsonPayloadSerializer() : null;
+        this.overflowEvents = overflowEvents;
+        this.droppedOldest = droppedOldest;
+        transactionMetadata = new TransactionPayload(process, service, system);
+        errorMetadata = new ErrorPayload(process, service, system);
+        // one buffer for transactions and errors each, plus the ones waiting for or being sent by the I/O thread
+        payloadBufferPool = new BlockingQueueObjectPool<>(MAX_PENDING_PAYLOADS + 3, false, new RecyclableObjectFactory<PayloadBuffer>() {
+            @Override
+            public PayloadBuffer createInstance() {
+                return new PayloadBuffer(payloadBufferPool);
+            }
+        });
+        ioStage = ExecutorUtils.createSingleThreadDeamonPool("apm-reporter-io", MAX_PENDING_PAYLOADS);
+        if (spool != null) {
+            spoolDrainer = ExecutorUtils.createSingleThreadSchedulingDeamonPool("apm-reporter-spool-drainer", 1);
+            spoolDrainer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    drainSpool();
+                }
+            }, SPOOL_DRAIN_INTERVAL_MS, SPOOL_DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
     }
 
     @Override
     public void onEvent(ApmServerReporter.ReportingEvent event, long sequence, boolean endOfBatch) {
         if (event.type == FLUSH) {
-            flush(transactionPayload);
-            flush(errorPayload);
-        }
-        if (event.type == TRANSACTION) {
-            transactionPayload.getTransactions().add(event.transaction);
-            if (transactionPayload.getTransactions().size() >= reporterConfiguration.getMaxQueueSize()) {
-                flush(transactionPayload);
+            // the events which did not fit into the ring buffer must not wait for further events
+            for (Recyclable overflowEvent = overflowEvents.poll(); overflowEvent != null; overflowEvent = overflowEvents.poll()) {
+                handle(overflowEvent);
+            }
+            flushTransactions();
+            flushErrors();
+            endEventStream();
+            flushPendingEvents();
+            if (event.flushFuture != null) {
+                if (numberOfPendingEvents > 0) {
+                    // there is still no stream available for them
+                    event.flushFuture.markFailed();
+                }
+                registerFlush(event.flushFuture);
             }
         }
-        if (event.type == ERROR) {
-            errorPayload.getErrors().add(event.error);
-            // report errors immediately, except if there are multiple in the queue
-            if (endOfBatch) {
-                flush(errorPayload);
+        if (event.type == TRANSACTION && event.transaction != null) {
+            handle(replaceOldestEvent(event.transaction));
+        }
+        if (event.type == ERROR && event.error != null) {
+            handle(replaceOldestEvent(event.error));
+            // without an error flush interval, report errors immediately, except if there are multiple in the queue
+            if (endOfBatch && reporterConfiguration.getErrorFlushInterval() <= 0) {
+                flushErrors();
             }
         }
         event.resetState();
     }
 
-    private void flush(Payload payload) {
-        if (payload.getPayloadObjects().isEmpty()) {
-            return;
+    /**
+     * While the APM server is unavailable, events would be dropped after serialization anyway.
+     * Only if there is a spool, it is worth serializing them.
+     */
+    private boolean isDiscardingEvents() {
+        return (spool == null || streaming) && !payloadSender.isAvailable();
+    }
+
+    private void handle(Recyclable event) {
+        if (isDiscardingEvents()) {
+            dropped.incrementAndGet();
+            recycle(event);
+        } else if (event instanceof Transaction) {
+            addTransaction((Transaction) event);
+        } else if (event instanceof ErrorCapture) {
+            addError((ErrorCapture) event);
         }
+    }
 
+    /**
+     * Discards the current event without serializing it, if a reporting thread has found the ring buffer full,
+     * and returns the oldest event which did not fit into the ring buffer instead.
+     * As the events are consumed in order, the current event is the oldest one in the ring buffer.
+     *
+     * @see BackpressurePolicy#DROP_OLDEST
+     */
+    private Recyclable replaceOldestEvent(Recyclable oldest) {
+        final Recyclable overflowEvent = overflowEvents.poll();
+        if (overflowEvent == null) {
+            return oldest;
+        }
+        dropped.incrementAndGet();
+        droppedOldest.incrementAndGet();
+        recycle(oldest);
+        return overflowEvent;
+    }
+
+    static void recycle(Recyclable event) {
+        if (event instanceof Transaction) {
+            ((Transaction) event).recycle();
+        } else if (event instanceof ErrorCapture) {
+            ((ErrorCapture) event).recycle();
+        }
+    }
+
+    private void addTransaction(Transaction transaction) {
+        try {
+            if (eventSerializer != null) {
+                eventSerializer.serializeTransactionEvents(eventBuffer, transaction);
+                streamSerializedEvent();
+            } else {
+                payloadSerializer.serializeTransaction(eventBuffer, transaction);
+                transactions = addSerializedEvent(transactions, transactionMetadata);
+            }
+        } catch (IOException e) {
+            logger.debug("Serializing transaction failed", e);
+            dropped.incrementAndGet();
+            eventBuffer.clear();
+        } finally {
+            transaction.recycle();
+        }
+    }
+
+    private void addError(ErrorCapture error) {
         try {
-            payloadSender.sendPayload(payload);
+            if (eventSerializer != null) {
+                eventSerializer.serializeErrorEvent(eventBuffer, error);
+                streamSerializedEvent();
+            } else {
+                payloadSerializer.serializeError(eventBuffer, error);
+                errors = addSerializedEvent(errors, errorMetadata);
+            }
+        } catch (IOException e) {
+            logger.debug("Serializing error failed", e);
+            dropped.incrementAndGet();
+            eventBuffer.clear();
         } finally {
-            payload.resetState();
+            error.recycle();
         }
+    }
 
+    /**
+     * Moves the event which has just been serialized into the {@link #eventBuffer} to the payload.
+     * <p>
+     * If the event would make the payload exceed the maximum payload size, the payload is sent first,
+     * and the event is added to a new payload.
+     * A single event which exceeds the maximum size on its own is sent in a payload of its own.
+     * </p>
+     *
+     * @return the payload the event has been added to
+     */
+    @Nullable
+    private PayloadBuffer addSerializedEvent(@Nullable PayloadBuffer payload, Payload metadata) throws IOException {
+        final long maxPayloadSize = reporterConfiguration.getMaxPayloadSize();
+        // the separating comma and the closing brackets
+        if (payload != null && payload.getSize() + eventBuffer.size() + 3 > maxPayloadSize) {
+            send(payload);
+            payload = null;
+        }
+        if (payload == null) {
+            payload = payloadBufferPool.createInstance().withMetadata(metadata);
+        }
+        payload.addSerializedEvent(payloadSerializer, eventBuffer);
+        if (payload.getSize() >= maxPayloadSize || payload.getNumberOfEvents() >= reporterConfiguration.getMaxQueueSize()) {
+            send(payload);
+            return null;
+        }
+        return payload;
     }
 
+    /**
+     * Writes the lines of the event which has just been serialized into the {@link #eventBuffer} to the event stream.
+     * <p>
+     * If no stream can be opened because all concurrent requests are in use,
+     * the event waits for the next stream instead of being dropped,
+     * unless the waiting events would exceed the maximum payload size.
+     * </p>
+     * <p>
+     * Once the stream has reached its maximum size or age, it is closed and the next event opens a new one.
+     * </p>
+     */
+    private void streamSerializedEvent() throws IOException {
+        if (eventStream != null && eventStream.isClosed()) {
+            // the request has failed
+            eventStream = null;
+        }
+        if (eventStream == null) {
+            eventStream = openEventStream();
+        }
+        if (eventStream == null) {
+            queueSerializedEvent();
+            return;
+        }
+        writeEvents(eventStream, eventBuffer, 1);
+        if (eventStream.getBytesWritten() >= reporterConfiguration.getApiRequestSize()
+            || eventStream.getAgeNanos() >= TimeUnit.SECONDS.toNanos(reporterConfiguration.getApiRequestTime())) {
+            endEventStream();
+        }
+    }
+
+    private void queueSerializedEvent() {
+        if (pendingEvents.size() + eventBuffer.size() > reporterConfiguration.getMaxPayloadSize()) {
+            dropped.incrementAndGet();
+            eventBuffer.clear();
+        } else {
+            pendingEvents.write(eventBuffer, eventBuffer.size());
+            numberOfPendingEvents++;
+        }
+    }
+
+    private void writeEvents(EventStream stream, Buffer lines, int numberOfEvents) {
+        if (stream.write(lines)) {
+            stream.onEventsWritten(numberOfEvents);
+        } else {
+            // the network can't keep up
+            dropped.addAndGet(numberOfEvents);
+            lines.clear();
+        }
+    }
+
+    /**
+     * Opens a new stream, whose first line holds the metadata, followed by the events which have been waiting for a stream
+     */
+    @Nullable
+    private EventStream openEventStream() throws IOException {
+        final EventStream stream = payloadSender.openEventStream(transactionMetadata);
+        if (stream == null || eventSerializer == null) {
+            return null;
+        }
+        stream.setSendListener(this, trackPayload());
+        eventSerializer.serializeMetadataEvent(metadataLine, transactionMetadata);
+        if (!stream.write(metadataLine)) {
+            metadataLine.clear();
+        }
+        if (numberOfPendingEvents > 0) {
+            writeEvents(stream, pendingEvents, numberOfPendingEvents);
+            numberOfPendingEvents = 0;
+        }
+        return stream;
+    }
+
+    /**
+     * Sends the events which are waiting for a stream right away, so that a flush does not have to wait for the next event
+     */
+    private void flushPendingEvents() {
+        if (numberOfPendingEvents == 0) {
+            return;
+        }
+        try {
+            eventStream = openEventStream();
+        } catch (IOException e) {
+            logger.debug("Opening event stream failed", e);
+        }
+        endEventStream();
+    }
+
+    private void endEventStream() {
+        if (eventStream != null) {
+            eventStream.close();
+            eventStream = null;
+        }
+    }
+
+    private void flushTransactions() {
+        if (transactions != null) {
+            send(transactions);
+            transactions = null;
+        }
+    }
+
+    private void flushErrors() {
+        if (errors != null) {
+            send(errors);
+            errors = null;
+        }
+    }
+
+    private void send(final PayloadBuffer payload) {
+        if (payload.isEmpty()) {
+            payload.recycle();
+            return;
+        }
+        payload.finish();
+        final long sequence = trackPayload();
+        payload.setSendListener(this, sequence);
+        try {
+            ioStage.execute(new Runnable() {
+                @Override
+                public void run() {
+                    payloadSender.sendPayload(payload);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (spool != null && spool.append(payload)) {
+                logger.debug("Spooling payload as the APM server can't keep up");
+            } else {
+                logger.debug("Dropping payload as the APM server can't keep up");
+                dropped.addAndGet(payload.getNumberOfEvents());
+            }
+            payload.onSendCompleted(false);
+        }
+    }
+
+    private long trackPayload() {
+        synchronized (sendLock) {
+            final long sequence = ++payloadSequence;
+            outstandingPayloads.add(sequence);
+            return sequence;
+        }
+    }
+
+    private void registerFlush(FlushFuture flushFuture) {
+        synchronized (sendLock) {
+            pendingFlushes.add(new PendingFlush(flushFuture, payloadSequence));
+            completeFlushes();
+        }
+    }
+
+    @Override
+    public void onSendCompleted(long sequence, boolean success) {
+        synchronized (sendLock) {
+            outstandingPayloads.remove(sequence);
+            if (!success) {
+                for (PendingFlush pendingFlush : pendingFlushes) {
+                    if (pendingFlush.lastPayloadSequence >= sequence) {
+                        pendingFlush.flushFuture.markFailed();
+                    }
+                }
+            }
+            completeFlushes();
+        }
+    }
+
+    /**
+     * Completes the flushes which don't wait for any outstanding payload anymore.
+     * As flushes are registered in order, the pending flushes are ordered by their last payload sequence.
+     */
+    private void completeFlushes() {
+        final long oldestOutstandingPayload = outstandingPayloads.isEmpty() ? Long.MAX_VALUE : outstandingPayloads.first();
+        while (!pendingFlushes.isEmpty() && pendingFlushes.peek().lastPayloadSequence < oldestOutstandingPayload) {
+            pendingFlushes.poll().flushFuture.complete();
+        }
+    }
+
+    /**
+     * Hands spooled payloads over to the I/O thread, as long as it is not busy.
+     * <p>
+     * If the APM server is still unavailable, the payloads end up in the spool again.
+     * </p>
+     */
+    private void drainSpool() {
+        if (spool == null || !payloadSender.isAvailable()) {
+            return;
+        }
+        for (int i = 0; i < MAX_PENDING_PAYLOADS / 2 && ioStage.getQueue().size() < MAX_PENDING_PAYLOADS / 2; i++) {
+            final PayloadBuffer payload = payloadBufferPool.createInstance();
+            if (!spool.poll(payload, transactionMetadata, errorMetadata)) {
+                payload.recycle();
+                return;
+            }
+            send(payload);
+        }
+    }
+
+    /**
+     * Stops the handler after sending the events which have not been sent yet and waits for the payloads which are still in flight,
+     * so that the {@link PayloadSender} can be closed afterwards.
+     *
+     * @param deadlineNanos the {@link System#nanoTime()} until which to wait for the I/O thread at most
+     */
+    void close(long deadlineNanos) {
+        flushTransactions();
+        flushErrors();
+        endEventStream();
+        // the events which are waiting for a stream get a final one, they can't be spooled as the spool only holds whole payloads
+        flushPendingEvents();
+        if (numberOfPendingEvents > 0) {
+            logger.debug("Dropping {} events as no stream could be opened before closing", numberOfPendingEvents);
+            dropped.addAndGet(numberOfPendingEvents);
+            numberOfPendingEvents = 0;
+            pendingEvents.clear();
+        }
+        if (spoolDrainer != null) {
+            spoolDrainer.shutdown();
+        }
+        ioStage.shutdown();
+        try {
+            if (!ioStage.awaitTermination(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                logger.debug("Closing the reporter while payloads are still being sent");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class PendingFlush {
+        private final FlushFuture flushFuture;
+        /**
+         * The sequence of the last payload the flush has to wait for
+         */
+        private final long lastPayloadSequence;
+
+        private PendingFlush(FlushFuture flushFuture, long lastPayloadSequence) {
+            this.flushFuture = flushFuture;
+            this.lastPayloadSequence = lastPayloadSequence;
+        }
+    }
 }
@@ -0,0 +1,103 @@
+package co.elastic.apm.report.compression;
+
+import co.elastic.apm.report.ReporterConfiguration;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Chooses the compression level of the next payload.
+ * <p>
+ * Unless a fixed {@link ReporterConfiguration#getCompressionLevel() compression_level} is configured,
+ * the level depends on the CPU headroom of the machine, derived from the system load average,
+ * and on the throughput of the connection to the APM server, estimated from the previous requests.
+ * Compressing harder only pays off if the connection is the bottleneck and there are idle CPUs to do the work.
+ * </p>
+ */
+class AdaptiveCompressionLevel {
+
+    static final int DEFAULT_LEVEL = 3;
+    static final int HIGH_LEVEL = 6;
+    static final long SLOW_CONNECTION_BYTES_PER_SECOND = 1024 * 1024;
+    static final long FAST_CONNECTION_BYTES_PER_SECOND = 64 * 1024 * 1024;
+    static final double BUSY_LOAD_PER_PROCESSOR = 0.8;
+    static final double IDLE_LOAD_PER_PROCESSOR = 0.5;
+    private static final long LOAD_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private final ReporterConfiguration reporterConfiguration;
+    private final OperatingSystemMXBean operatingSystem;
+    private volatile double loadPerProcessor;
+    private volatile long loadSampledNanos;
+    // 0 as long as no request has completed
+    private volatile double bytesPerSecond;
+
+    AdaptiveCompressionLevel(ReporterConfiguration reporterConfiguration) {
+        this(reporterConfiguration, ManagementFactory.getOperatingSystemMXBean());
+    }
+
+    AdaptiveCompressionLevel(ReporterConfiguration reporterConfiguration, OperatingSystemMXBean operatingSystem) {
+        this.reporterConfiguration = reporterConfiguration;
+        this.operatingSystem = operatingSystem;
+        sampleLoad(System.nanoTime());
+    }
+
+    /**
+     * @return the level, between {@link Deflater#NO_COMPRESSION} and {@link Deflater#BEST_COMPRESSION}
+     */
+    int getLevel() {
+        final int configuredLevel = reporterConfiguration.getCompressionLevel();
+        if (configuredLevel >= 0) {
+            return Math.min(configuredLevel, Deflater.BEST_COMPRESSION);
+        }
+        final double load = getLoadPerProcessor();
+        if (load > BUSY_LOAD_PER_PROCESSOR) {
+            return Deflater.BEST_SPEED;
+        }
+        final double throughput = bytesPerSecond;
+        if (throughput > 0) {
+            if (throughput < SLOW_CONNECTION_BYTES_PER_SECOND && load < IDLE_LOAD_PER_PROCESSOR) {
+                return HIGH_LEVEL;
+            }
+            if (throughput > FAST_CONNECTION_BYTES_PER_SECOND) {
+                return Deflater.BEST_SPEED;
+            }
+        }
+        return DEFAULT_LEVEL;
+    }
+
+    /**
+     * Updates the exponentially weighted moving average of the throughput of the connection to the APM server
+     */
+    synchronized void onRequestCompleted(long bytesSent, long durationNanos) {
+        if (bytesSent <= 0 || durationNanos <= 0) {
+            return;
+        }
+        final double sample = bytesSent * 1e9 / durationNanos;
+        final double current = bytesPerSecond;
+        bytesPerSecond = current == 0 ? sample : current + SMOOTHING_FACTOR * (sample - current);
+    }
+
+    double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return the system load average per processor, or {@link Double#NaN} if the platform does not provide it
+     */
+    private double getLoadPerProcessor() {
+        final long now = System.nanoTime();
+        if (now - loadSampledNanos > LOAD_SAMPLE_INTERVAL_NANOS) {
+            sampleLoad(now);
+        }
+        return loadPerProcessor;
+    }
+
+    private void sampleLoad(long now) {
+        final double loadAverage = operatingSystem.getSystemLoadAverage();
+        loadPerProcessor = loadAverage < 0 ? Double.NaN : loadAverage / Math.max(1, operatingSystem.getAvailableProcessors());
+        loadSampledNanos = now;
+    }
+}
@@ -0,0 +1,184 @@
+package co.elastic.apm.report.compression;
+
+import co.elastic.apm.objectpool.ObjectPool;
+import co.elastic.apm.objectpool.RecyclableObjectFactory;
+import co.elastic.apm.objectpool.impl.BlockingQueueObjectPool;
+import co.elastic.apm.report.ReporterConfiguration;
+import co.elastic.apm.util.ExecutorUtils;
+import okio.Buffer;
+import okio.ByteString;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses payloads with gzip, using pooled {@link Deflater}s and an {@link AdaptiveCompressionLevel adaptive compression level}.
+ * <p>
+ * Large payloads are split into chunks which are compressed in parallel as independent gzip members.
+ * As specified by RFC 1952, the concatenation of these members is a valid gzip stream which decompresses to the whole payload.
+ * Each chunk is large enough for the compression ratio to be on par with compressing the payload at once.
+ * </p>
+ */
+public class GzipPayloadCompressor implements PayloadCompressor {
+
+    static final int CHUNK_SIZE = 256 * 1024;
+    private static final ByteString GZIP_HEADER = ByteString.of(
+        (byte) 0x1f, (byte) 0x8b, // magic
+        (byte) 8, // deflate
+        (byte) 0, // flags
+        (byte) 0, (byte) 0, (byte) 0, (byte) 0, // modification time
+        (byte) 0, // extra flags
+        (byte) 0xff); // unknown operating system
+
+    private final AdaptiveCompressionLevel compressionLevel;
+    private final ObjectPool<PooledDeflater> deflaterPool;
+    @Nullable
+    private final ExecutorService executor;
+
+    public GzipPayloadCompressor(ReporterConfiguration reporterConfiguration) {
+        this(reporterConfiguration, new AdaptiveCompressionLevel(reporterConfiguration),
+            Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * @param compressionThreads the number of threads which help compressing large payloads,
+     *                           0 to compress all payloads on the calling thread
+     */
+    GzipPayloadCompressor(ReporterConfiguration reporterConfiguration, AdaptiveCompressionLevel compressionLevel, int compressionThreads) {
+        this.compressionLevel = compressionLevel;
+        this.executor = compressionThreads > 0 ? ExecutorUtils.createDeamonPool("apm-compression", compressionThreads) : null;
+        // one deflater per request and compression thread,
+        // deflaters which don't fit into the pool are garbage collected, which frees their native memory
+        final int maxPooledDeflaters = Math.max(1, reporterConfiguration.getMaxConcurrentRequests()) + Math.max(0, compressionThreads);
+        this.deflaterPool = new BlockingQueueObjectPool<>(maxPooledDeflaters, false, new RecyclableObjectFactory<PooledDeflater>() {
+            @Override
+            public PooledDeflater createInstance() {
+                return new PooledDeflater();
+            }
+        });
+    }
+
+    @Nullable
+    @Override
+    public String getContentEncoding() {
+        return compressionLevel.getLevel() == Deflater.NO_COMPRESSION ? null : "gzip";
+    }
+
+    @Override
+    public void compress(Buffer source, Buffer target) throws IOException {
+        final int level = compressionLevel.getLevel();
+        final long size = source.size();
+        if (executor == null || executor.isShutdown() || size < 2 * CHUNK_SIZE) {
+            writeMember(copy(source, 0, size), level, target);
+            return;
+        }
+        final List<Future<Buffer>> compressedChunks = new ArrayList<>((int) (size / CHUNK_SIZE));
+        try {
+            // copying shares the segments with the source, the chunks are taken on this thread so that the source is only read here
+            for (long offset = CHUNK_SIZE; offset < size; offset += CHUNK_SIZE) {
+                final Buffer chunk = copy(source, offset, Math.min(CHUNK_SIZE, size - offset));
+                compressedChunks.add(executor.submit(new Callable<Buffer>() {
+                    @Override
+                    public Buffer call() {
+                        final Buffer compressed = new Buffer();
+                        writeMember(chunk, level, compressed);
+                        return compressed;
+                    }
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            // the compressor has been closed in the meantime
+            cancel(compressedChunks);
+            writeMember(copy(source, 0, size), level, target);
+            return;
+        }
+        try {
+            // the calling thread compresses the first chunk in the meantime
+            writeMember(copy(source, 0, CHUNK_SIZE), level, target);
+            for (Future<Buffer> compressedChunk : compressedChunks) {
+                final Buffer compressed = compressedChunk.get();
+                target.write(compressed, compressed.size());
+            }
+        } catch (InterruptedException e) {
+            cancel(compressedChunks);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            cancel(compressedChunks);
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void onRequestCompleted(long bytesSent, long durationNanos) {
+        compressionLevel.onRequestCompleted(bytesSent, durationNanos);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private Buffer copy(Buffer source, long offset, long byteCount) {
+        final Buffer chunk = new Buffer();
+        source.copyTo(chunk, offset, byteCount);
+        return chunk;
+    }
+
+    private void cancel(List<Future<Buffer>> futures) {
+        for (Future<Buffer> future : futures) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Consumes the chunk and writes it to the target as a complete gzip member, consisting of a header, the deflated data and a trailer
+     */
+    private void writeMember(Buffer chunk, int level, Buffer target) {
+        final long size = chunk.size();
+        final PooledDeflater pooledDeflater = deflaterPool.createInstance();
+        try {
+            final Deflater deflater = pooledDeflater.deflater;
+            final byte[] input = pooledDeflater.input;
+            deflater.setLevel(level);
+            target.write(GZIP_HEADER);
+            int read;
+            while ((read = chunk.read(input, 0, input.length)) != -1) {
+                pooledDeflater.crc.update(input, 0, read);
+                deflater.setInput(input, 0, read);
+                while (!deflater.needsInput()) {
+                    deflate(pooledDeflater, target);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(pooledDeflater, target);
+            }
+            target.writeIntLe((int) pooledDeflater.crc.getValue());
+            // the size modulo 2^32
+            target.writeIntLe((int) size);
+        } finally {
+            deflaterPool.recycle(pooledDeflater);
+        }
+    }
+
+    private void deflate(PooledDeflater pooledDeflater, Buffer target) {
+        final int length = pooledDeflater.deflater.deflate(pooledDeflater.output, 0, pooledDeflater.output.length);
+        target.write(pooledDeflater.output, 0, length);
+    }
+
+    int getPooledDeflaters() {
+        return deflaterPool.getObjectsInPool();
+    }
+}
@@ -0,0 +1,42 @@
+package co.elastic.apm.report.compression;
+
+import okio.Buffer;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Compresses the payloads before they are sent to the APM server.
+ */
+public interface PayloadCompressor {
+
+    /**
+     * @return the value of the {@code Content-Encoding} header of compressed payloads,
+     * or {@code null} if payloads should currently be sent uncompressed
+     */
+    @Nullable
+    String getContentEncoding();
+
+    /**
+     * Writes the compressed representation of the source to the target.
+     *
+     * @param source the uncompressed payload, which is not consumed
+     * @param target the buffer the compressed payload is written to
+     */
+    void compress(Buffer source, Buffer target) throws IOException;
+
+    /**
+     * Reports the number of compressed bytes which have been sent in a request and how long the request took,
+     * so that the compressor can adapt to the throughput of the connection to the APM server.
+     */
+    void onRequestCompleted(long bytesSent, long durationNanos);
+
+    /**
+     * Stops the threads of the compressor.
+     * <p>
+     * Payloads which are compressed afterwards are still compressed, but only on the calling thread.
+     * Closing a compressor multiple times has no effect, so that it can be shared by multiple senders.
+     * </p>
+     */
+    void close();
+}
@@ -0,0 +1,29 @@
+package co.elastic.apm.report.compression;
+
+import co.elastic.apm.objectpool.Recyclable;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A {@link Deflater} which writes raw deflate data, together with the checksum and the buffers needed to produce a gzip member.
+ * <p>
+ * Creating a {@link Deflater} allocates native memory and the buffers are too large to be allocated for each payload,
+ * which is why instances are pooled.
+ * </p>
+ */
+class PooledDeflater implements Recyclable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    final CRC32 crc = new CRC32();
+    final byte[] input = new byte[BUFFER_SIZE];
+    final byte[] output = new byte[BUFFER_SIZE];
+
+    @Override
+    public void resetState() {
+        deflater.reset();
+        crc.reset();
+    }
+}
@@ -0,0 +1,745 @@
+package co.elastic.apm.report.serialize;
+
+import co.elastic.apm.impl.context.Context;
+import co.elastic.apm.impl.context.Request;
+import co.elastic.apm.impl.context.Response;
+import co.elastic.apm.impl.context.Socket;
+import co.elastic.apm.impl.context.Url;
+import co.elastic.apm.impl.context.User;
+import co.elastic.apm.impl.error.ErrorCapture;
+import co.elastic.apm.impl.error.ErrorPayload;
+import co.elastic.apm.impl.error.ExceptionInfo;
+import co.elastic.apm.impl.error.Log;
+import co.elastic.apm.impl.payload.Agent;
+import co.elastic.apm.impl.payload.Framework;
+import co.elastic.apm.impl.payload.Language;
+import co.elastic.apm.impl.payload.Payload;
+import co.elastic.apm.impl.payload.ProcessInfo;
+import co.elastic.apm.impl.payload.RuntimeInfo;
+import co.elastic.apm.impl.payload.Service;
+import co.elastic.apm.impl.payload.SystemInfo;
+import co.elastic.apm.impl.payload.TransactionPayload;
+import co.elastic.apm.impl.stacktrace.Stacktrace;
+import co.elastic.apm.impl.transaction.Db;
+import co.elastic.apm.impl.transaction.Span;
+import co.elastic.apm.impl.transaction.Transaction;
+import co.elastic.apm.impl.transaction.TransactionId;
+import co.elastic.apm.util.HexUtils;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes payloads and events field by field to the sink, without reflection and without intermediate objects.
+ * <p>
+ * The output is equivalent to the one of the {@link JacksonPayloadSerializer},
+ * except that durations and offsets are written with a precision of one microsecond,
+ * which is the precision the APM server stores them with anyway.
+ * </p>
+ * <p>
+ * Apart from the iterators of the maps in the {@link Context},
+ * serializing an event does not allocate any objects.
+ * The metadata of the payloads and values which tend to repeat, like transaction types, span types or header names,
+ * are only encoded once and then copied to the sink.
+ * Names of transactions and spans are not cached, as there may be too many of them for the cache to be effective.
+ * </p>
+ * <p>
+ * As the caches are not synchronized, an instance must not be shared between threads.
+ * Each reporter thread uses a serializer of its own.
+ * </p>
+ * <p>
+ * Apart from the intake v1 payloads, it writes the newline delimited events of the intake v2 API,
+ * see {@link #serializeTransactionEvents(BufferedSink, Transaction)}.
+ * </p>
+ */
+public class DirectJsonPayloadSerializer implements PayloadSerializer {
+
+    private static final int MAX_CACHED_STRINGS = 1024;
+    /**
+     * Longer strings are unlikely to be repeated and would bloat the cache
+     */
+    private static final int MAX_CACHED_STRING_LENGTH = 128;
+
+    private final EncodedStringCache stringCache = new EncodedStringCache(MAX_CACHED_STRINGS);
+    private final TimestampEncoder timestampEncoder = new TimestampEncoder();
+    @Nullable
+    private EncodedMetadata encodedMetadata;
+
+    @Override
+    public void serializePayload(BufferedSink sink, Payload payload) throws IOException {
+        sink.writeByte('{');
+        serializeMetadata(sink, payload);
+        if (payload instanceof TransactionPayload) {
+            final List<Transaction> transactions = ((TransactionPayload) payload).getTransactions();
+            writeFieldName(sink, JsonFields.TRANSACTIONS, false);
+            sink.writeByte('[');
+            for (int i = 0; i < transactions.size(); i++) {
+                if (i > 0) {
+                    sink.writeByte(',');
+                }
+                serializeTransaction(sink, transactions.get(i));
+            }
+            sink.writeByte(']');
+        } else if (payload instanceof ErrorPayload) {
+            final List<ErrorCapture> errors = ((ErrorPayload) payload).getErrors();
+            writeFieldName(sink, JsonFields.ERRORS, false);
+            sink.writeByte('[');
+            for (int i = 0; i < errors.size(); i++) {
+                if (i > 0) {
+                    sink.writeByte(',');
+                }
+                serializeError(sink, errors.get(i));
+            }
+            sink.writeByte(']');
+        }
+        sink.writeByte('}');
+    }
+
+    @Override
+    public void serializeMetadata(BufferedSink sink, Payload payload) throws IOException {
+        EncodedMetadata metadata = encodedMetadata;
+        if (metadata == null || !metadata.isEncodingOf(payload)) {
+            final Buffer buffer = new Buffer();
+            writeMetadata(buffer, payload);
+            metadata = new EncodedMetadata(payload, buffer.readByteString());
+            encodedMetadata = metadata;
+        }
+        sink.write(metadata.encoded);
+    }
+
+    private void writeMetadata(BufferedSink sink, Payload payload) throws IOException {
+        writeFieldName(sink, JsonFields.SERVICE, true);
+        writeService(sink, payload.getService());
+        if (payload.getProcess() != null) {
+            writeFieldName(sink, JsonFields.PROCESS, false);
+            writeProcess(sink, payload.getProcess());
+        }
+        if (payload.getSystem() != null) {
+            writeFieldName(sink, JsonFields.SYSTEM, false);
+            writeSystem(sink, payload.getSystem());
+        }
+    }
+
+    @Override
+    public void serializeTransaction(BufferedSink sink, Transaction transaction) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.CONTEXT, true);
+        writeContext(sink, transaction.getContext());
+        writeFieldName(sink, JsonFields.TIMESTAMP, false);
+        timestampEncoder.writeTimestamp(sink, transaction.getTimestampMicros() / 1000);
+        writeFieldName(sink, JsonFields.SPANS, false);
+        writeSpans(sink, transaction.getSpans());
+        writeFieldName(sink, JsonFields.MARKS, false);
+        writeMap(sink, transaction.getMarks());
+        writeFieldName(sink, JsonFields.SPAN_COUNT, false);
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.DROPPED, true);
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.TOTAL, true);
+        sink.writeDecimalLong(transaction.getSpanCount().getDropped().getTotal());
+        sink.writeUtf8("}}");
+        writeFieldName(sink, JsonFields.ID, false);
+        writeUuid(sink, transaction.getId());
+        writeFieldName(sink, JsonFields.DURATION, false);
+        DurationEncoder.writeMicros(sink, transaction.getDurationMicros());
+        writeField(sink, JsonFields.NAME, transaction.getName(), false);
+        writeCachedField(sink, JsonFields.RESULT, transaction.getResult(), false);
+        writeCachedField(sink, JsonFields.TYPE, transaction.getType(), false);
+        writeField(sink, JsonFields.SAMPLED, transaction.isSampled(), false);
+        sink.writeByte('}');
+    }
+
+    @Override
+    public void serializeError(BufferedSink sink, ErrorCapture error) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.CONTEXT, true);
+        writeContext(sink, error.getContext());
+        writeFieldName(sink, JsonFields.EXCEPTION, false);
+        writeException(sink, error.getException());
+        writeFieldName(sink, JsonFields.LOG, false);
+        writeLog(sink, error.getLog());
+        writeFieldName(sink, JsonFields.TIMESTAMP, false);
+        timestampEncoder.writeTimestamp(sink, error.getTimestampMicros() / 1000);
+        writeFieldName(sink, JsonFields.TRANSACTION, false);
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.ID, true);
+        writeUuid(sink, error.getTransaction().getId());
+        sink.writeByte('}');
+        writeFieldName(sink, JsonFields.ID, false);
+        writeUuid(sink, error.getId());
+        sink.writeByte('}');
+    }
+
+    /**
+     * Writes the first line of a stream to the intake v2 API, which holds the metadata of all following events.
+     *
+     * @see co.elastic.apm.report.ReporterConfiguration#isStreamingIntake()
+     */
+    public void serializeMetadataEvent(BufferedSink sink, Payload payload) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.METADATA, true);
+        sink.writeByte('{');
+        serializeMetadata(sink, payload);
+        sink.writeUtf8("}}\n");
+    }
+
+    /**
+     * Writes the transaction and each of its spans as a line of their own, in the format of the intake v2 API.
+     * <p>
+     * In contrast to the intake v1 API, the spans are not nested within the transaction but refer to it by its id.
+     * The {@link TransactionId} serves as the trace id and its least significant bits as the id of the transaction.
+     * </p>
+     */
+    public void serializeTransactionEvents(BufferedSink sink, Transaction transaction) throws IOException {
+        final TransactionId traceId = transaction.getId();
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.TRANSACTION, true);
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.ID, true);
+        writeHexId(sink, traceId.getLeastSignificantBits());
+        writeFieldName(sink, JsonFields.TRACE_ID, false);
+        writeTraceId(sink, traceId);
+        writeFieldName(sink, JsonFields.TIMESTAMP, false);
+        sink.writeDecimalLong(transaction.getTimestampMicros());
+        writeFieldName(sink, JsonFields.DURATION, false);
+        DurationEncoder.writeMicros(sink, transaction.getDurationMicros());
+        writeField(sink, JsonFields.NAME, transaction.getName(), false);
+        writeCachedField(sink, JsonFields.RESULT, transaction.getResult(), false);
+        writeCachedField(sink, JsonFields.TYPE, transaction.getType(), false);
+        writeField(sink, JsonFields.SAMPLED, transaction.isSampled(), false);
+        writeFieldName(sink, JsonFields.SPAN_COUNT, false);
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.STARTED, true);
+        sink.writeDecimalLong(transaction.getSpans().size());
+        writeFieldName(sink, JsonFields.DROPPED, false);
+        sink.writeDecimalLong(transaction.getSpanCount().getDropped().getTotal());
+        sink.writeByte('}');
+        writeFieldName(sink, JsonFields.CONTEXT, false);
+        writeContext(sink, transaction.getContext(), true);
+        writeFieldName(sink, JsonFields.MARKS, false);
+        writeMap(sink, transaction.getMarks());
+        sink.writeUtf8("}}\n");
+        final List<Span> spans = transaction.getSpans();
+        for (int i = 0; i < spans.size(); i++) {
+            writeSpanEvent(sink, transaction, spans.get(i));
+        }
+    }
+
+    private void writeSpanEvent(BufferedSink sink, Transaction transaction, Span span) throws IOException {
+        final TransactionId traceId = transaction.getId();
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.SPAN, true);
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.ID, true);
+        writeHexId(sink, span.getId().asLong());
+        writeFieldName(sink, JsonFields.TRANSACTION_ID, false);
+        writeHexId(sink, traceId.getLeastSignificantBits());
+        writeFieldName(sink, JsonFields.TRACE_ID, false);
+        writeTraceId(sink, traceId);
+        writeFieldName(sink, JsonFields.PARENT_ID, false);
+        // spans without a parent span are children of the transaction
+        final long parent = span.getParent().asLong();
+        writeHexId(sink, parent != 0 ? parent : traceId.getLeastSignificantBits());
+        writeFieldName(sink, JsonFields.TIMESTAMP, false);
+        sink.writeDecimalLong(span.getTimestampMicros());
+        writeFieldName(sink, JsonFields.START, false);
+        DurationEncoder.writeMicros(sink, span.getStartMicros());
+        writeFieldName(sink, JsonFields.DURATION, false);
+        DurationEncoder.writeMicros(sink, span.getDurationMicros());
+        writeField(sink, JsonFields.NAME, span.getName(), false);
+        writeCachedField(sink, JsonFields.TYPE, span.getType(), false);
+        writeFieldName(sink, JsonFields.CONTEXT, false);
+        final Db db = span.getContext().getDb();
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.DB, true);
+        sink.writeByte('{');
+        boolean first = writeCachedField(sink, JsonFields.INSTANCE, db.getInstance(), true);
+        first = writeField(sink, JsonFields.STATEMENT, db.getStatement(), first);
+        first = writeCachedField(sink, JsonFields.TYPE, db.getType(), first);
+        writeCachedField(sink, JsonFields.USER, db.getUser(), first);
+        sink.writeUtf8("}}");
+        writeFieldName(sink, JsonFields.STACKTRACE, false);
+        writeStacktrace(sink, span.getStacktrace());
+        sink.writeUtf8("}}\n");
+    }
+
+    /**
+     * Writes the error as a line in the format of the intake v2 API.
+     * <p>
+     * The {@code exception} and {@code log} objects are only written if they have been captured,
+     * as the intake v2 API requires at least a message or type for them.
+     * </p>
+     */
+    public void serializeErrorEvent(BufferedSink sink, ErrorCapture error) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.ERROR, true);
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.ID, true);
+        writeTraceId(sink, error.getId());
+        writeFieldName(sink, JsonFields.TIMESTAMP, false);
+        sink.writeDecimalLong(error.getTimestampMicros());
+        final TransactionId traceId = error.getTransaction().getId();
+        if (!traceId.isEmpty()) {
+            writeFieldName(sink, JsonFields.TRACE_ID, false);
+            writeTraceId(sink, traceId);
+            writeFieldName(sink, JsonFields.TRANSACTION_ID, false);
+            writeHexId(sink, traceId.getLeastSignificantBits());
+            writeFieldName(sink, JsonFields.PARENT_ID, false);
+            writeHexId(sink, traceId.getLeastSignificantBits());
+        }
+        writeFieldName(sink, JsonFields.CONTEXT, false);
+        writeContext(sink, error.getContext(), true);
+        final ExceptionInfo exception = error.getException();
+        final Log log = error.getLog();
+        if (exception.getMessage() != null || exception.getType() != null || log.getMessage() == null) {
+            writeFieldName(sink, JsonFields.EXCEPTION, false);
+            writeException(sink, exception);
+        }
+        if (log.getMessage() != null) {
+            writeFieldName(sink, JsonFields.LOG, false);
+            writeLog(sink, log);
+        }
+        sink.writeUtf8("}}\n");
+    }
+
+    private void writeService(BufferedSink sink, Service service) throws IOException {
+        sink.writeByte('{');
+        boolean first = true;
+        final Agent agent = service.getAgent();
+        if (agent != null) {
+            first = writeNameAndVersion(sink, JsonFields.AGENT, agent.getName(), agent.getVersion(), first);
+        }
+        final Framework framework = service.getFramework();
+        if (framework != null) {
+            first = writeNameAndVersion(sink, JsonFields.FRAMEWORK, framework.getName(), framework.getVersion(), first);
+        }
+        final Language language = service.getLanguage();
+        if (language != null) {
+            first = writeNameAndVersion(sink, JsonFields.LANGUAGE, language.getName(), language.getVersion(), first);
+        }
+        first = writeField(sink, JsonFields.NAME, service.getName(), first);
+        first = writeField(sink, JsonFields.ENVIRONMENT, service.getEnvironment(), first);
+        final RuntimeInfo runtime = service.getRuntime();
+        if (runtime != null) {
+            first = writeNameAndVersion(sink, JsonFields.RUNTIME, runtime.getName(), runtime.getVersion(), first);
+        }
+        writeField(sink, JsonFields.VERSION, service.getVersion(), first);
+        sink.writeByte('}');
+    }
+
+    private boolean writeNameAndVersion(BufferedSink sink, ByteString fieldName, @Nullable String name, @Nullable String version,
+                                        boolean first) throws IOException {
+        writeFieldName(sink, fieldName, first);
+        sink.writeByte('{');
+        writeField(sink, JsonFields.VERSION, version, writeField(sink, JsonFields.NAME, name, true));
+        sink.writeByte('}');
+        return false;
+    }
+
+    private void writeProcess(BufferedSink sink, ProcessInfo process) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.PID, true);
+        sink.writeDecimalLong(process.getPid());
+        if (process.getPpid() != null) {
+            writeFieldName(sink, JsonFields.PPID, false);
+            sink.writeDecimalLong(process.getPpid());
+        }
+        writeField(sink, JsonFields.TITLE, process.getTitle(), false);
+        writeFieldName(sink, JsonFields.ARGV, false);
+        writeCollection(sink, process.getArgv());
+        sink.writeByte('}');
+    }
+
+    private void writeSystem(BufferedSink sink, SystemInfo system) throws IOException {
+        sink.writeByte('{');
+        boolean first = writeField(sink, JsonFields.ARCHITECTURE, system.getArchitecture(), true);
+        first = writeField(sink, JsonFields.HOSTNAME, system.getHostname(), first);
+        writeField(sink, JsonFields.PLATFORM, system.getPlatform(), first);
+        sink.writeByte('}');
+    }
+
+    private void writeSpans(BufferedSink sink, List<Span> spans) throws IOException {
+        sink.writeByte('[');
+        for (int i = 0; i < spans.size(); i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            writeSpan(sink, spans.get(i));
+        }
+        sink.writeByte(']');
+    }
+
+    private void writeSpan(BufferedSink sink, Span span) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.CONTEXT, true);
+        final Db db = span.getContext().getDb();
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.DB, true);
+        sink.writeByte('{');
+        boolean first = writeCachedField(sink, JsonFields.INSTANCE, db.getInstance(), true);
+        first = writeField(sink, JsonFields.STATEMENT, db.getStatement(), first);
+        first = writeCachedField(sink, JsonFields.TYPE, db.getType(), first);
+        writeCachedField(sink, JsonFields.USER, db.getUser(), first);
+        sink.writeUtf8("}}");
+        writeFieldName(sink, JsonFields.STACKTRACE, false);
+        writeStacktrace(sink, span.getStacktrace());
+        writeFieldName(sink, JsonFields.ID, false);
+        sink.writeDecimalLong(span.getId().asLong());
+        writeFieldName(sink, JsonFields.PARENT, false);
+        sink.writeDecimalLong(span.getParent().asLong());
+        writeFieldName(sink, JsonFields.START, false);
+        DurationEncoder.writeMicros(sink, span.getStartMicros());
+        writeFieldName(sink, JsonFields.DURATION, false);
+        DurationEncoder.writeMicros(sink, span.getDurationMicros());
+        writeField(sink, JsonFields.NAME, span.getName(), false);
+        writeCachedField(sink, JsonFields.TYPE, span.getType(), false);
+        sink.writeByte('}');
+    }
+
+    private void writeStacktrace(BufferedSink sink, List<Stacktrace> stacktrace) throws IOException {
+        sink.writeByte('[');
+        for (int i = 0; i < stacktrace.size(); i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            final Stacktrace frame = stacktrace.get(i);
+            sink.writeByte('{');
+            boolean first = writeField(sink, JsonFields.ABS_PATH, frame.getAbsPath(), true);
+            first = writeField(sink, JsonFields.FILENAME, frame.getFilename(), first);
+            first = writeField(sink, JsonFields.FUNCTION, frame.getFunction(), first);
+            writeField(sink, JsonFields.LIBRARY_FRAME, frame.isLibraryFrame(), first);
+            writeFieldName(sink, JsonFields.LINENO, false);
+            sink.writeDecimalLong(frame.getLineno());
+            writeField(sink, JsonFields.MODULE, frame.getModule(), false);
+            sink.writeByte('}');
+        }
+        sink.writeByte(']');
+    }
+
+    private void writeException(BufferedSink sink, ExceptionInfo exception) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.STACKTRACE, true);
+        writeStacktrace(sink, exception.getStacktrace());
+        writeField(sink, JsonFields.CODE, exception.getCode(), false);
+        writeField(sink, JsonFields.MESSAGE, exception.getMessage(), false);
+        writeCachedField(sink, JsonFields.TYPE, exception.getType(), false);
+        sink.writeByte('}');
+    }
+
+    private void writeLog(BufferedSink sink, Log log) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.STACKTRACE, true);
+        writeStacktrace(sink, log.getStacktrace());
+        writeCachedField(sink, JsonFields.LEVEL, log.getLevel(), false);
+        writeCachedField(sink, JsonFields.LOGGER_NAME, log.getLoggerName(), false);
+        writeField(sink, JsonFields.MESSAGE, log.getMessage(), false);
+        writeField(sink, JsonFields.PARAM_MESSAGE, log.getParamMessage(), false);
+        sink.writeByte('}');
+    }
+
+    private void writeContext(BufferedSink sink, Context context) throws IOException {
+        writeContext(sink, context, false);
+    }
+
+    /**
+     * @param intakeV2 whether to omit the request of events which have not been captured within an HTTP request,
+     *                 as the intake v2 API rejects requests without a method
+     */
+    private void writeContext(BufferedSink sink, Context context, boolean intakeV2) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.CUSTOM, true);
+        writeMap(sink, context.getCustom());
+        writeFieldName(sink, JsonFields.RESPONSE, false);
+        writeResponse(sink, context.getResponse());
+        if (!intakeV2 || context.getRequest().getMethod() != null) {
+            writeFieldName(sink, JsonFields.REQUEST, false);
+            writeRequest(sink, context.getRequest());
+        }
+        writeFieldName(sink, JsonFields.TAGS, false);
+        writeMap(sink, context.getTags());
+        writeFieldName(sink, JsonFields.USER, false);
+        final User user = context.getUser();
+        sink.writeByte('{');
+        boolean first = writeField(sink, JsonFields.ID, user.getId(), true);
+        first = writeField(sink, JsonFields.EMAIL, user.getEmail(), first);
+        writeField(sink, JsonFields.USERNAME, user.getUsername(), first);
+        sink.writeUtf8("}}");
+    }
+
+    private void writeResponse(BufferedSink sink, Response response) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.HEADERS, true);
+        writeMap(sink, response.getHeaders());
+        writeField(sink, JsonFields.FINISHED, response.isFinished(), false);
+        writeField(sink, JsonFields.HEADERS_SENT, response.isHeadersSent(), false);
+        writeFieldName(sink, JsonFields.STATUS_CODE, false);
+        sink.writeDecimalLong(response.getStatusCode());
+        sink.writeByte('}');
+    }
+
+    private void writeRequest(BufferedSink sink, Request request) throws IOException {
+        sink.writeByte('{');
+        writeFieldName(sink, JsonFields.HEADERS, true);
+        writeMap(sink, request.getHeaders());
+        writeFieldName(sink, JsonFields.SOCKET, false);
+        final Socket socket = request.getSocket();
+        sink.writeByte('{');
+        writeField(sink, JsonFields.REMOTE_ADDRESS, socket.getRemoteAddress(), writeField(sink, JsonFields.ENCRYPTED, socket.isEncrypted(), true));
+        sink.writeByte('}');
+        writeFieldName(sink, JsonFields.URL, false);
+        writeUrl(sink, request.getUrl());
+        writeFieldName(sink, JsonFields.COOKIES, false);
+        writeMap(sink, request.getCookies());
+        writeCachedField(sink, JsonFields.HTTP_VERSION, request.getHttpVersion(), false);
+        writeCachedField(sink, JsonFields.METHOD, request.getMethod(), false);
+        writeFieldName(sink, JsonFields.BODY, false);
+        writeValue(sink, request.getBody());
+        sink.writeByte('}');
+    }
+
+    private void writeUrl(BufferedSink sink, Url url) throws IOException {
+        sink.writeByte('{');
+        boolean first = writeField(sink, JsonFields.RAW, url.getRaw(), true);
+        first = writeField(sink, JsonFields.PROTOCOL, url.getProtocol(), first);
+        first = writeField(sink, JsonFields.FULL, url.getFull(), first);
+        first = writeField(sink, JsonFields.HOSTNAME, url.getHostname(), first);
+        first = writeField(sink, JsonFields.PORT, url.getPort(), first);
+        first = writeField(sink, JsonFields.PATHNAME, url.getPathname(), first);
+        writeField(sink, JsonFields.SEARCH, url.getSearch(), first);
+        sink.writeByte('}');
+    }
+
+    /**
+     * Writes a string field, unless the value is {@code null}.
+     *
+     * @param first whether this is the first field of the object
+     * @return whether the next field is the first field of the object
+     */
+    private boolean writeField(BufferedSink sink, ByteString fieldName, @Nullable String value, boolean first) throws IOException {
+        if (value == null) {
+            return first;
+        }
+        writeFieldName(sink, fieldName, first);
+        writeString(sink, value);
+        return false;
+    }
+
+    /**
+     * Like {@link #writeField(BufferedSink, ByteString, String, boolean)},
+     * but for values which are likely to be repeated.
+     */
+    private boolean writeCachedField(BufferedSink sink, ByteString fieldName, @Nullable String value, boolean first) throws IOException {
+        if (value == null) {
+            return first;
+        }
+        writeFieldName(sink, fieldName, first);
+        writeCachedString(sink, value);
+        return false;
+    }
+
+    private boolean writeField(BufferedSink sink, ByteString fieldName, boolean value, boolean first) throws IOException {
+        writeFieldName(sink, fieldName, first);
+        sink.writeUtf8(value ? "true" : "false");
+        return false;
+    }
+
+    /**
+     * Writes the pre-encoded field name, preceded by a comma if it's not the first field of the object.
+     */
+    private void writeFieldName(BufferedSink sink, ByteString fieldName, boolean first) throws IOException {
+        if (!first) {
+            sink.writeByte(',');
+        }
+        sink.write(fieldName);
+    }
+
+    private void writeCachedString(BufferedSink sink, String value) throws IOException {
+        if (value.length() > MAX_CACHED_STRING_LENGTH) {
+            writeString(sink, value);
+            return;
+        }
+        ByteString encoded = stringCache.get(value);
+        if (encoded == null) {
+            final Buffer buffer = new Buffer();
+            writeString(buffer, value);
+            encoded = buffer.readByteString();
+            stringCache.put(value, encoded);
+        }
+        sink.write(encoded);
+    }
+
+    private void writeString(BufferedSink sink, String value) throws IOException {
+        sink.writeByte('"');
+        int unescapedSince = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\') {
+                if (unescapedSince < i) {
+                    sink.writeUtf8(value, unescapedSince, i);
+                }
+                writeEscaped(sink, c);
+                unescapedSince = i + 1;
+            }
+        }
+        if (unescapedSince < value.length()) {
+            sink.writeUtf8(value, unescapedSince, value.length());
+        }
+        sink.writeByte('"');
+    }
+
+    private void writeEscaped(BufferedSink sink, char c) throws IOException {
+        sink.writeByte('\\');
+        switch (c) {
+            case '"':
+            case '\\':
+                sink.writeByte(c);
+                break;
+            case '\n':
+                sink.writeByte('n');
+                break;
+            case '\r':
+                sink.writeByte('r');
+                break;
+            case '\t':
+                sink.writeByte('t');
+                break;
+            case '\b':
+                sink.writeByte('b');
+                break;
+            case '\f':
+                sink.writeByte('f');
+                break;
+            default:
+                sink.writeUtf8("u00");
+                HexUtils.writeAsHex(c, 2, sink);
+        }
+    }
+
+    private void writeUuid(BufferedSink sink, TransactionId id) throws IOException {
+        sink.writeByte('"');
+        id.writeAsUuid(sink);
+        sink.writeByte('"');
+    }
+
+    private void writeTraceId(BufferedSink sink, TransactionId id) throws IOException {
+        sink.writeByte('"');
+        id.writeAsHex(sink);
+        sink.writeByte('"');
+    }
+
+    private void writeHexId(BufferedSink sink, long id) throws IOException {
+        sink.writeByte('"');
+        HexUtils.writeAsHex(id, 16, sink);
+        sink.writeByte('"');
+    }
+
+    private void writeMap(BufferedSink sink, Map<String, ?> map) throws IOException {
+        sink.writeByte('{');
+        boolean first = true;
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            if (!first) {
+                sink.writeByte(',');
+            }
+            first = false;
+            writeCachedString(sink, String.valueOf(entry.getKey()));
+            sink.writeByte(':');
+            writeValue(sink, entry.getValue());
+        }
+        sink.writeByte('}');
+    }
+
+    private void writeCollection(BufferedSink sink, Collection<?> values) throws IOException {
+        sink.writeByte('[');
+        boolean first = true;
+        for (Object value : values) {
+            if (!first) {
+                sink.writeByte(',');
+            }
+            first = false;
+            writeValue(sink, value);
+        }
+        sink.writeByte(']');
+    }
+
+    /**
+     * Writes the values of maps like {@link Context#getCustom()} or {@link Transaction#getMarks()},
+     * whose type is not known statically
+     */
+    @SuppressWarnings("unchecked")
+    private void writeValue(BufferedSink sink, @Nullable Object value) throws IOException {
+        if (value == null) {
+            sink.writeUtf8("null");
+        } else if (value instanceof String) {
+            writeString(sink, (String) value);
+        } else if (value instanceof Number) {
+            writeNumber(sink, (Number) value);
+        } else if (value instanceof Boolean) {
+            sink.writeUtf8(value.toString());
+        } else if (value instanceof Map) {
+            writeMap(sink, (Map<String, ?>) value);
+        } else if (value instanceof Collection) {
+            writeCollection(sink, (Collection<?>) value);
+        } else {
+            writeString(sink, value.toString());
+        }
+    }
+
+    private void writeNumber(BufferedSink sink, Number number) throws IOException {
+        if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            sink.writeDecimalLong(number.longValue());
+        } else if (number instanceof Double && (((Double) number).isNaN() || ((Double) number).isInfinite())
+            || number instanceof Float && (((Float) number).isNaN() || ((Float) number).isInfinite())) {
+            // like Jackson, write non-numeric values as strings, as they are not valid JSON numbers
+            writeString(sink, number.toString());
+        } else {
+            sink.writeUtf8(number.toString());
+        }
+    }
+
+    /**
+     * The serialized {@code service}, {@code process} and {@code system} fields of a payload.
+     * <p>
+     * They are the same for every payload, except if the {@link Service} is updated,
+     * for example when its version or environment changes, which is detected by comparing references.
+     * </p>
+     */
+    private static class EncodedMetadata {
+        private final Service service;
+        @Nullable
+        private final ProcessInfo process;
+        @Nullable
+        private final SystemInfo system;
+        @Nullable
+        private final String serviceName;
+        @Nullable
+        private final String serviceVersion;
+        @Nullable
+        private final String environment;
+        private final ByteString encoded;
+
+        private EncodedMetadata(Payload payload, ByteString encoded) {
+            this.service = payload.getService();
+            this.process = payload.getProcess();
+            this.system = payload.getSystem();
+            this.serviceName = service.getName();
+            this.serviceVersion = service.getVersion();
+            this.environment = service.getEnvironment();
+            this.encoded = encoded;
+        }
+
+        private boolean isEncodingOf(Payload payload) {
+            return service == payload.getService()
+                && process == payload.getProcess()
+                && system == payload.getSystem()
+                && serviceName == service.getName()
+                && serviceVersion == service.getVersion()
+                && environment == service.getEnvironment();
+        }
+    }
+}
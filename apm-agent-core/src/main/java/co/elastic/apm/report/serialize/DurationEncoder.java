@@ -0,0 +1,59 @@
+package co.elastic.apm.report.serialize;
+
+import okio.BufferedSink;
+
+import java.io.IOException;
+
+/**
+ * Writes durations in milliseconds as fixed-point numbers with three decimal places,
+ * which corresponds to microsecond precision.
+ * <p>
+ * Durations which are already recorded in microseconds are written by {@link #writeMicros(BufferedSink, long)},
+ * without converting them to floating point numbers.
+ * </p>
+ * <p>
+ * In contrast to {@link Double#toString(double)}, this does not allocate.
+ * </p>
+ */
+public final class DurationEncoder {
+
+    /**
+     * Values whose absolute value exceeds this threshold can't be converted to microseconds without overflowing a {@code long}
+     */
+    private static final double MAX_FIXED_POINT_VALUE = Long.MAX_VALUE / 1000d;
+
+    private DurationEncoder() {
+        // only static utility methods, don't instantiate
+    }
+
+    public static void writeMillis(BufferedSink sink, double millis) throws IOException {
+        if (Double.isNaN(millis) || Double.isInfinite(millis)) {
+            // like Jackson, write non-numeric values as strings, as they are not valid JSON numbers
+            sink.writeByte('"');
+            sink.writeUtf8(Double.toString(millis));
+            sink.writeByte('"');
+            return;
+        }
+        if (Math.abs(millis) >= MAX_FIXED_POINT_VALUE) {
+            sink.writeUtf8(Double.toString(millis));
+            return;
+        }
+        writeMicros(sink, Math.round(millis * 1000));
+    }
+
+    /**
+     * Writes a duration in microseconds as milliseconds with three decimal places
+     */
+    public static void writeMicros(BufferedSink sink, long micros) throws IOException {
+        if (micros < 0) {
+            sink.writeByte('-');
+            micros = -micros;
+        }
+        sink.writeDecimalLong(micros / 1000);
+        final int fraction = (int) (micros % 1000);
+        sink.writeByte('.');
+        sink.writeByte('0' + fraction / 100);
+        sink.writeByte('0' + fraction / 10 % 10);
+        sink.writeByte('0' + fraction % 10);
+    }
+}
@@ -0,0 +1,46 @@
+package co.elastic.apm.report.serialize;
+
+import okio.ByteString;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the escaped and quoted UTF-8 representation of strings,
+ * which evicts the least recently used entry once it is full.
+ * <p>
+ * It is meant for values which are repeated over and over again,
+ * like transaction types and results or span types,
+ * so that they can be copied to the sink instead of being escaped and encoded for each event.
+ * </p>
+ * <p>
+ * This class is not thread safe, as each cache is confined to the reporter thread of its {@link DirectJsonPayloadSerializer}.
+ * </p>
+ */
+class EncodedStringCache {
+
+    private final LinkedHashMap<String, ByteString> cache;
+
+    EncodedStringCache(final int maxSize) {
+        cache = new LinkedHashMap<String, ByteString>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ByteString> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    @Nullable
+    ByteString get(String value) {
+        return cache.get(value);
+    }
+
+    void put(String value, ByteString encoded) {
+        cache.put(value, encoded);
+    }
+
+    int size() {
+        return cache.size();
+    }
+}
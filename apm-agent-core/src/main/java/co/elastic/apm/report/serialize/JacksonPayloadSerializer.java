@@ -1,20 +1,51 @@
 package co.elastic.apm.report.serialize;
 
+import co.elastic.apm.impl.error.ErrorCapture;
 import co.elastic.apm.impl.payload.Payload;
+import co.elastic.apm.impl.transaction.Transaction;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import okio.BufferedSink;
 
 import java.io.IOException;
 
 public class JacksonPayloadSerializer implements PayloadSerializer {
     private final ObjectMapper objectMapper;
+    // the sink is still written to after an event has been serialized
+    private final ObjectWriter eventWriter;
 
     public JacksonPayloadSerializer(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
+        this.eventWriter = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
     }
 
     @Override
     public void serializePayload(BufferedSink sink, Payload payload) throws IOException {
         objectMapper.writeValue(sink.outputStream(), payload);
     }
+
+    @Override
+    public void serializeMetadata(BufferedSink sink, Payload payload) throws IOException {
+        sink.writeUtf8("\"service\":");
+        eventWriter.writeValue(sink.outputStream(), payload.getService());
+        if (payload.getProcess() != null) {
+            sink.writeUtf8(",\"process\":");
+            eventWriter.writeValue(sink.outputStream(), payload.getProcess());
+        }
+        if (payload.getSystem() != null) {
+            sink.writeUtf8(",\"system\":");
+            eventWriter.writeValue(sink.outputStream(), payload.getSystem());
+        }
+    }
+
+    @Override
+    public void serializeTransaction(BufferedSink sink, Transaction transaction) throws IOException {
+        eventWriter.writeValue(sink.outputStream(), transaction);
+    }
+
+    @Override
+    public void serializeError(BufferedSink sink, ErrorCapture error) throws IOException {
+        eventWriter.writeValue(sink.outputStream(), error);
+    }
 }
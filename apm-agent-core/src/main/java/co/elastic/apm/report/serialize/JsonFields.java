@@ -0,0 +1,103 @@
+package co.elastic.apm.report.serialize;
+
+import okio.ByteString;
+
+/**
+ * The names of the JSON fields written by the {@link DirectJsonPayloadSerializer},
+ * encoded once, including the quotes and the colon,
+ * so that they can be copied to the sink instead of being encoded for each event.
+ */
+final class JsonFields {
+
+    static final ByteString ABS_PATH = fieldName("abs_path");
+    static final ByteString AGENT = fieldName("agent");
+    static final ByteString ARCHITECTURE = fieldName("architecture");
+    static final ByteString ARGV = fieldName("argv");
+    static final ByteString BODY = fieldName("body");
+    static final ByteString CODE = fieldName("code");
+    static final ByteString CONTEXT = fieldName("context");
+    static final ByteString COOKIES = fieldName("cookies");
+    static final ByteString CUSTOM = fieldName("custom");
+    static final ByteString DB = fieldName("db");
+    static final ByteString DROPPED = fieldName("dropped");
+    static final ByteString DURATION = fieldName("duration");
+    static final ByteString EMAIL = fieldName("email");
+    static final ByteString ENCRYPTED = fieldName("encrypted");
+    static final ByteString ENVIRONMENT = fieldName("environment");
+    static final ByteString ERROR = fieldName("error");
+    static final ByteString ERRORS = fieldName("errors");
+    static final ByteString EXCEPTION = fieldName("exception");
+    static final ByteString FILENAME = fieldName("filename");
+    static final ByteString FINISHED = fieldName("finished");
+    static final ByteString FRAMEWORK = fieldName("framework");
+    static final ByteString FULL = fieldName("full");
+    static final ByteString FUNCTION = fieldName("function");
+    static final ByteString HEADERS = fieldName("headers");
+    static final ByteString HEADERS_SENT = fieldName("headers_sent");
+    static final ByteString HOSTNAME = fieldName("hostname");
+    static final ByteString HTTP_VERSION = fieldName("http_version");
+    static final ByteString ID = fieldName("id");
+    static final ByteString INSTANCE = fieldName("instance");
+    static final ByteString LANGUAGE = fieldName("language");
+    static final ByteString LEVEL = fieldName("level");
+    static final ByteString LIBRARY_FRAME = fieldName("library_frame");
+    static final ByteString LINENO = fieldName("lineno");
+    static final ByteString LOG = fieldName("log");
+    static final ByteString LOGGER_NAME = fieldName("logger_name");
+    static final ByteString MARKS = fieldName("marks");
+    static final ByteString MESSAGE = fieldName("message");
+    static final ByteString METADATA = fieldName("metadata");
+    static final ByteString METHOD = fieldName("method");
+    static final ByteString MODULE = fieldName("module");
+    static final ByteString NAME = fieldName("name");
+    static final ByteString PARAM_MESSAGE = fieldName("param_message");
+    static final ByteString PARENT = fieldName("parent");
+    static final ByteString PARENT_ID = fieldName("parent_id");
+    static final ByteString PATHNAME = fieldName("pathname");
+    static final ByteString PID = fieldName("pid");
+    static final ByteString PLATFORM = fieldName("platform");
+    static final ByteString PORT = fieldName("port");
+    static final ByteString PPID = fieldName("ppid");
+    static final ByteString PROCESS = fieldName("process");
+    static final ByteString PROTOCOL = fieldName("protocol");
+    static final ByteString RAW = fieldName("raw");
+    static final ByteString REMOTE_ADDRESS = fieldName("remote_address");
+    static final ByteString REQUEST = fieldName("request");
+    static final ByteString RESPONSE = fieldName("response");
+    static final ByteString RESULT = fieldName("result");
+    static final ByteString RUNTIME = fieldName("runtime");
+    static final ByteString SAMPLED = fieldName("sampled");
+    static final ByteString SEARCH = fieldName("search");
+    static final ByteString SERVICE = fieldName("service");
+    static final ByteString SOCKET = fieldName("socket");
+    static final ByteString SPAN = fieldName("span");
+    static final ByteString SPANS = fieldName("spans");
+    static final ByteString SPAN_COUNT = fieldName("span_count");
+    static final ByteString STACKTRACE = fieldName("stacktrace");
+    static final ByteString START = fieldName("start");
+    static final ByteString STARTED = fieldName("started");
+    static final ByteString STATEMENT = fieldName("statement");
+    static final ByteString STATUS_CODE = fieldName("status_code");
+    static final ByteString SYSTEM = fieldName("system");
+    static final ByteString TAGS = fieldName("tags");
+    static final ByteString TIMESTAMP = fieldName("timestamp");
+    static final ByteString TITLE = fieldName("title");
+    static final ByteString TOTAL = fieldName("total");
+    static final ByteString TRACE_ID = fieldName("trace_id");
+    static final ByteString TRANSACTION = fieldName("transaction");
+    static final ByteString TRANSACTIONS = fieldName("transactions");
+    static final ByteString TRANSACTION_ID = fieldName("transaction_id");
+    static final ByteString TYPE = fieldName("type");
+    static final ByteString URL = fieldName("url");
+    static final ByteString USER = fieldName("user");
+    static final ByteString USERNAME = fieldName("username");
+    static final ByteString VERSION = fieldName("version");
+
+    private JsonFields() {
+        // only constants, don't instantiate
+    }
+
+    private static ByteString fieldName(String name) {
+        return ByteString.encodeUtf8("\"" + name + "\":");
+    }
+}
@@ -1,10 +1,29 @@
 package co.elastic.apm.report.serialize;
 
+import co.elastic.apm.impl.error.ErrorCapture;
 import co.elastic.apm.impl.payload.Payload;
+import co.elastic.apm.impl.transaction.Transaction;
 import okio.BufferedSink;
 
 import java.io.IOException;
 
+/**
+ * Serializes payloads and events to JSON.
+ * <p>
+ * Implementations have to be thread safe.
+ * </p>
+ */
 public interface PayloadSerializer {
+
     void serializePayload(BufferedSink sink, Payload payload) throws IOException;
+
+    /**
+     * Writes the {@code service}, {@code process} and {@code system} fields of the payload,
+     * without the surrounding curly braces.
+     */
+    void serializeMetadata(BufferedSink sink, Payload payload) throws IOException;
+
+    void serializeTransaction(BufferedSink sink, Transaction transaction) throws IOException;
+
+    void serializeError(BufferedSink sink, ErrorCapture error) throws IOException;
 }
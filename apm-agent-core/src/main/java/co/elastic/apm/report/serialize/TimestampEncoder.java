@@ -0,0 +1,111 @@
+package co.elastic.apm.report.serialize;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Writes epoch timestamps as quoted ISO-8601 strings in UTC, like {@code "2018-05-16T10:40:35.123Z"}.
+ * <p>
+ * As the timestamps of consecutive events mostly fall into the same second,
+ * the part up to and including the seconds is only formatted once per second and then copied to the sink.
+ * Only the milliseconds are written for each timestamp.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+public class TimestampEncoder {
+
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    @Nullable
+    private volatile FormattedSecond lastSecond;
+
+    public void writeTimestamp(BufferedSink sink, long epochMillis) throws IOException {
+        long epochSecond = epochMillis / 1000;
+        int millis = (int) (epochMillis % 1000);
+        if (millis < 0) {
+            epochSecond--;
+            millis += 1000;
+        }
+        FormattedSecond formattedSecond = lastSecond;
+        if (formattedSecond == null || formattedSecond.epochSecond != epochSecond) {
+            formattedSecond = new FormattedSecond(epochSecond, formatSecond(epochSecond));
+            lastSecond = formattedSecond;
+        }
+        sink.write(formattedSecond.formatted);
+        sink.writeByte('0' + millis / 100);
+        sink.writeByte('0' + millis / 10 % 10);
+        sink.writeByte('0' + millis % 10);
+        sink.writeByte('Z');
+        sink.writeByte('"');
+    }
+
+    /**
+     * Formats the opening quote, the date and the time up to and including the dot before the milliseconds
+     */
+    private static ByteString formatSecond(long epochSecond) throws IOException {
+        long days = epochSecond / SECONDS_PER_DAY;
+        long secondOfDay = epochSecond % SECONDS_PER_DAY;
+        if (secondOfDay < 0) {
+            days--;
+            secondOfDay += SECONDS_PER_DAY;
+        }
+        // converts the days since the epoch to a date in the proleptic Gregorian calendar
+        // see http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        final long shiftedDays = days + 719468;
+        final long era = (shiftedDays >= 0 ? shiftedDays : shiftedDays - 146096) / 146097;
+        final long dayOfEra = shiftedDays - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        final Buffer buffer = new Buffer();
+        buffer.writeByte('"');
+        writeDigits(buffer, year, 4);
+        buffer.writeByte('-');
+        writeDigits(buffer, month, 2);
+        buffer.writeByte('-');
+        writeDigits(buffer, day, 2);
+        buffer.writeByte('T');
+        writeDigits(buffer, secondOfDay / 3600, 2);
+        buffer.writeByte(':');
+        writeDigits(buffer, secondOfDay / 60 % 60, 2);
+        buffer.writeByte(':');
+        writeDigits(buffer, secondOfDay % 60, 2);
+        buffer.writeByte('.');
+        return buffer.readByteString();
+    }
+
+    /**
+     * Writes a non-negative number, left-padded with zeros to the given number of digits
+     */
+    private static void writeDigits(Buffer buffer, long value, int digits) {
+        long divisor = 1;
+        for (int i = 1; i < digits; i++) {
+            divisor *= 10;
+        }
+        while (divisor > 1 && value < divisor) {
+            buffer.writeByte('0');
+            divisor /= 10;
+        }
+        buffer.writeDecimalLong(value);
+    }
+
+    private static class FormattedSecond {
+        private final long epochSecond;
+        private final ByteString formatted;
+
+        private FormattedSecond(long epochSecond, ByteString formatted) {
+            this.epochSecond = epochSecond;
+            this.formatted = formatted;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package co.elastic.apm.report.spool;
+
+import co.elastic.apm.impl.payload.Payload;
+import co.elastic.apm.report.PayloadBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A persistent FIFO queue of serialized payloads,
+ * which keeps the payloads that could not be sent while the APM server is unavailable.
+ * <p>
+ * The payloads are appended to fixed-size, memory-mapped segment files.
+ * Once all records of a segment have been read, the file is unmapped and deleted.
+ * The number of segments is bounded, so that the spool never uses more than the configured disk budget.
+ * If the budget is exhausted, new payloads are rejected.
+ * </p>
+ * <p>
+ * Each record consists of a header and the serialized payload:
+ * </p>
+ * <pre>
+ * int  length of the payload in bytes
+ * byte type (0 = transactions, 1 = errors)
+ * int  number of events
+ * byte[length] payload
+ * </pre>
+ * <p>
+ * The length is written last, so that a record which has only been written partially,
+ * for example because the JVM crashed, is never read.
+ * Once a record has been read, its length is negated.
+ * That way, the consumption point is persisted together with the records,
+ * and segments which are left over from a previous run are read on startup without replaying the records which have already been read.
+ * </p>
+ * <p>
+ * The records are copied straight between the okio segments of a {@link PayloadBuffer} and the mapping,
+ * without intermediate arrays and without read or write system calls.
+ * As the payloads are sent with OkHttp, whose sinks are not channels, that's one copy less than
+ * {@link FileChannel#transferTo} could achieve, which would go through a temporary direct buffer and an array.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+public class DiskSpool {
+
+    static final int HEADER_SIZE = 4 + 1 + 4;
+    static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final byte TYPE_TRANSACTIONS = 0;
+    private static final byte TYPE_ERRORS = 1;
+    private static final String SEGMENT_PREFIX = "apm-spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpool.class);
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private long nextSegmentId;
+
+    /**
+     * @param directory   the directory where the segment files are stored
+     * @param maxSizeBytes the maximum disk space the segment files may use
+     */
+    public DiskSpool(File directory, long maxSizeBytes) throws IOException {
+        this(directory, maxSizeBytes, (int) Math.min(DEFAULT_SEGMENT_SIZE, maxSizeBytes));
+    }
+
+    DiskSpool(File directory, long maxSizeBytes, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(1, maxSizeBytes / segmentSize);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spool directory " + directory);
+        }
+        loadExistingSegments();
+    }
+
+    private void loadExistingSegments() throws IOException {
+        final File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        // the ids are zero-padded, so the lexicographic order is the order in which the segments have been created
+        Arrays.sort(files);
+        for (File file : files) {
+            final Segment segment = Segment.open(file, (int) file.length());
+            // no more records are appended to segments of a previous run
+            segment.sealed = true;
+            segments.add(segment);
+            nextSegmentId = Math.max(nextSegmentId, getSegmentId(file) + 1);
+        }
+        if (!segments.isEmpty()) {
+            logger.info("Found {} spooled segments in {}", segments.size(), directory);
+        }
+    }
+
+    private static long getSegmentId(File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Appends a finished payload to the spool.
+     * The payload itself is not recycled.
+     *
+     * @return {@code true}, if the payload has been spooled,
+     * {@code false}, if the disk budget is exhausted or the payload is larger than a segment
+     */
+    public synchronized boolean append(PayloadBuffer payload) {
+        final long size = payload.getBuffer().size();
+        if (size + HEADER_SIZE > segmentSize) {
+            return false;
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.sealed || tail.getRemainingCapacity() < HEADER_SIZE + size) {
+            if (tail != null) {
+                tail.sealed = true;
+            }
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            tail = createSegment();
+            if (tail == null) {
+                return false;
+            }
+            segments.add(tail);
+        }
+        try {
+            tail.append(payload.isErrorPayload() ? TYPE_ERRORS : TYPE_TRANSACTIONS, payload);
+            return true;
+        } catch (IOException e) {
+            logger.debug("Failed to spool payload", e);
+            return false;
+        }
+    }
+
+    @Nullable
+    private Segment createSegment() {
+        final File file = new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        try {
+            return Segment.open(file, segmentSize);
+        } catch (IOException e) {
+            logger.debug("Failed to create spool segment " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the oldest spooled payload into the provided buffer.
+     *
+     * @param target              an empty buffer
+     * @param transactionMetadata the metadata which is applied to the buffer if it contains transactions
+     * @param errorMetadata       the metadata which is applied to the buffer if it contains errors
+     * @return {@code true}, if a payload has been read, {@code false}, if the spool is empty
+     */
+    public synchronized boolean poll(PayloadBuffer target, Payload transactionMetadata, Payload errorMetadata) {
+        while (!segments.isEmpty()) {
+            final Segment head = segments.peekFirst();
+            if (head.hasNextRecord()) {
+                try {
+                    target.withMetadata(head.getNextRecordType() == TYPE_ERRORS ? errorMetadata : transactionMetadata);
+                    head.readNextRecord(target);
+                    return true;
+                } catch (IOException e) {
+                    logger.debug("Discarding corrupt spool segment " + head.file, e);
+                    // the target is owned by the caller, so only the partially read record is discarded
+                    target.getBuffer().clear();
+                    head.sealed = true;
+                }
+            } else if (!head.sealed) {
+                // the segment which is currently written to has been read completely
+                return false;
+            }
+            segments.removeFirst();
+            head.delete();
+        }
+        return false;
+    }
+
+    public synchronized boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.hasNextRecord()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized int getNumberOfSegments() {
+        return segments.size();
+    }
+
+    private static class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        /**
+         * The position of the first record which has not been read yet, see {@link #findFirstUnreadRecord()}
+         */
+        private int readPosition;
+        private boolean sealed;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment open(File file, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // the mapping stays valid after the channel has been closed
+                final Segment segment = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+                segment.writePosition = segment.findEndOfRecords();
+                segment.readPosition = segment.findFirstUnreadRecord();
+                return segment;
+            }
+        }
+
+        /**
+         * Skips all complete records, including the ones which have already been read and whose length is negative
+         */
+        private int findEndOfRecords() {
+            int position = 0;
+            while (position + HEADER_SIZE <= buffer.capacity() && buffer.getInt(position) != 0) {
+                position += HEADER_SIZE + Math.abs(buffer.getInt(position));
+            }
+            return Math.min(position, buffer.capacity());
+        }
+
+        private int findFirstUnreadRecord() {
+            int position = 0;
+            while (position < writePosition && buffer.getInt(position) < 0) {
+                position += HEADER_SIZE - buffer.getInt(position);
+            }
+            return position;
+        }
+
+        int getRemainingCapacity() {
+            return buffer.capacity() - writePosition;
+        }
+
+        void append(byte type, PayloadBuffer payload) throws IOException {
+            final int length = (int) payload.getBuffer().size();
+            payload.getBuffer().copyTo(new ByteBufferOutputStream(viewAt(writePosition + HEADER_SIZE)), 0, length);
+            buffer.put(writePosition + 4, type);
+            buffer.putInt(writePosition + 5, payload.getNumberOfEvents());
+            buffer.putInt(writePosition, length);
+            writePosition += HEADER_SIZE + length;
+        }
+
+        boolean hasNextRecord() {
+            return readPosition + HEADER_SIZE <= buffer.capacity() && buffer.getInt(readPosition) > 0;
+        }
+
+        byte getNextRecordType() {
+            return buffer.get(readPosition + 4);
+        }
+
+        void readNextRecord(PayloadBuffer target) throws IOException {
+            final int length = buffer.getInt(readPosition);
+            if (readPosition + HEADER_SIZE + length > buffer.capacity()) {
+                throw new IOException("Record exceeds segment");
+            }
+            final ByteBuffer view = viewAt(readPosition + HEADER_SIZE);
+            ((java.nio.Buffer) view).limit(readPosition + HEADER_SIZE + length);
+            target.getBuffer().readFrom(new ByteBufferInputStream(view), length);
+            target.markFinished(buffer.getInt(readPosition + 5));
+            // persists that the record has been read
+            buffer.putInt(readPosition, -length);
+            readPosition += HEADER_SIZE + length;
+        }
+
+        private ByteBuffer viewAt(int position) {
+            final ByteBuffer view = buffer.duplicate();
+            // casting to Buffer avoids the covariant override of Java 9+, which does not exist in Java 7
+            ((java.nio.Buffer) view).position(position);
+            return view;
+        }
+
+        /**
+         * Releases the mapping and deletes the file.
+         * The segment must not be accessed afterwards.
+         * <p>
+         * If the file can't be deleted, for example because the mapping could not be released on Windows,
+         * it is deleted on the next start, as all its records are marked as read.
+         * </p>
+         */
+        void delete() {
+            unmap(buffer);
+            if (!file.delete()) {
+                logger.debug("Could not delete spool segment {}", file);
+                file.deleteOnExit();
+            }
+        }
+
+        /**
+         * Releases the mapping right away, instead of waiting for the buffer to be garbage collected,
+         * which may keep the file from being deleted.
+         */
+        private static void unmap(MappedByteBuffer buffer) {
+            try {
+                try {
+                    // Java 9+
+                    final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                    final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                    final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                    theUnsafe.setAccessible(true);
+                    invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                } catch (NoSuchMethodException e) {
+                    // Java 7 and 8
+                    final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    final Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (Exception e) {
+                logger.debug("Could not release the mapping of a spool segment, it is released once it is garbage collected", e);
+            }
+        }
+    }
+
+    private static class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.put(bytes, offset, length);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -25,6 +26,24 @@ public final class ExecutorUtils {
         return new NamedDaemonThreadPoolExecutor(queueCapacity, daemonThreadFactory, threadName);
     }
 
+    /**
+     * Creates a pool of daemon threads which grows on demand and whose idle threads terminate after one minute
+     */
+    public static ThreadPoolExecutor createCachedDeamonPool(final String threadName) {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new NamedThreadFactory(threadName));
+    }
+
+    /**
+     * Creates a pool with a fixed maximum number of daemon threads, whose idle threads terminate after one minute
+     */
+    public static ThreadPoolExecutor createDeamonPool(final String threadName, int threads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory(threadName));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public static class NamedThreadFactory implements ThreadFactory {
         private final String threadName;
 
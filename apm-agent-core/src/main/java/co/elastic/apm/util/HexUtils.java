@@ -1,5 +1,7 @@
 package co.elastic.apm.util;
 
+import okio.BufferedSink;
+
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -12,29 +14,35 @@ public class HexUtils {
     }
 
     /**
-     * Converts a byte array to a hex encoded (aka base 16 encoded) string
-     * <p>
-     * From https://stackoverflow.com/a/9855338
-     * </p>
+     * Converts a <code>long</code> to a hex encoded string of 16 characters, including leading zeros
      *
-     * @param bytes The input byte array.
-     * @return A hex encoded string representation of the byte array.
+     * @param value The input value.
+     * @return A hex encoded string representation of the value.
      */
-    public static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for (int i = 0; i < bytes.length; i++) {
-            int v = bytes[i] & 0xFF;
-            hexChars[i * 2] = hexArray[v >>> 4];
-            hexChars[i * 2 + 1] = hexArray[v & 0x0F];
+    public static String longToHex(long value) {
+        char[] hexChars = new char[16];
+        for (int i = 0; i < 16; i++) {
+            hexChars[i] = hexArray[(int) (value >>> (60 - i * 4)) & 0x0F];
         }
         return new String(hexChars);
     }
 
-    public static void writeBytesAsHex(byte[] bytes, OutputStream outputStream) throws IOException {
-        for (byte b : bytes) {
-            int v = b & 0xFF;
-            outputStream.write(hexArray[v >>> 4]);
-            outputStream.write(hexArray[v & 0x0F]);
+    public static void writeAsHex(long value, OutputStream outputStream) throws IOException {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            outputStream.write(hexArray[(int) (value >>> shift) & 0x0F]);
+        }
+    }
+
+    /**
+     * Writes the lowest {@code numberOfDigits} hex digits of the value to the sink, without allocating
+     *
+     * @param value          The input value.
+     * @param numberOfDigits The number of hex digits to write, at most 16.
+     * @param sink           The sink to write the digits to.
+     */
+    public static void writeAsHex(long value, int numberOfDigits, BufferedSink sink) throws IOException {
+        for (int shift = (numberOfDigits - 1) * 4; shift >= 0; shift -= 4) {
+            sink.writeByte(hexArray[(int) (value >>> shift) & 0x0F]);
         }
     }
 }
@@ -48,7 +48,12 @@ public class MockReporter implements Reporter {
     }
 
     @Override
-    public Future<Void> flush() {
+    public double getQueueUtilization() {
+        return 0;
+    }
+
+    @Override
+    public Future<Boolean> flush() {
         return new Future<>() {
             @Override
             public boolean cancel(boolean mayInterruptIfRunning) {
@@ -62,17 +67,17 @@ public class MockReporter implements Reporter {
 
             @Override
             public boolean isDone() {
-                return false;
+                return true;
             }
 
             @Override
-            public Void get() throws InterruptedException, ExecutionException {
-                return null;
+            public Boolean get() throws InterruptedException, ExecutionException {
+                return true;
             }
 
             @Override
-            public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-                return null;
+            public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                return true;
             }
         };
     }
@@ -10,11 +10,15 @@ import static org.mockito.Mockito.spy;
 
 public class SpyConfiguration {
 
+    public static final String CONFIG_SOURCE_NAME = "test config source";
+
     /**
      * Creates a configuration registry where all {@link ConfigurationOptionProvider}s are wrapped with
      * {@link org.mockito.Mockito#spy(Object)}
      * <p>
-     * That way, the default configuration values are returned but can be overridden by {@link org.mockito.Mockito#when(Object)}
+     * That way, the default configuration values are returned but can be overridden by {@link org.mockito.Mockito#when(Object)}.
+     * Values which are read via a change listener have to be changed by saving them to the {@link #CONFIG_SOURCE_NAME} instead,
+     * for example with {@code config.save("active", "false", SpyConfiguration.CONFIG_SOURCE_NAME)}.
      *
      * @return a syp configuration registry
      */
@@ -24,7 +28,8 @@ public class SpyConfiguration {
             builder.addOptionProvider(spy(options));
         }
         return builder
-            .addConfigSource(SimpleSource.forTest("service_name", "elastic-apm-test"))
+            .addConfigSource(new SimpleSource(CONFIG_SOURCE_NAME)
+                .add("service_name", "elastic-apm-test"))
             .build();
     }
 }
@@ -6,7 +6,6 @@ import co.elastic.apm.api.Tracer;
 import co.elastic.apm.configuration.CoreConfiguration;
 import co.elastic.apm.configuration.SpyConfiguration;
 import co.elastic.apm.impl.error.ErrorCapture;
-import co.elastic.apm.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.impl.transaction.Span;
 import co.elastic.apm.impl.transaction.Transaction;
 import org.junit.jupiter.api.AfterEach;
@@ -14,6 +13,8 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.stagemonitor.configuration.ConfigurationRegistry;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
 
@@ -72,8 +73,57 @@ class ElasticApmTracerTest {
     }
 
     @Test
-    void testDisableStacktraces() {
-        when(tracerImpl.getConfig(StacktraceConfiguration.class).getSpanFramesMinDurationMs()).thenReturn(0);
+    void testTraceContextIsReusedWithinThread() throws Exception {
+        final TraceContextHolder traceContext = tracerImpl.getTraceContext();
+        try (Transaction transaction = tracerImpl.startTransaction()) {
+            assertThat(tracerImpl.getTraceContext()).isSameAs(traceContext);
+            assertThat(traceContext.getTransaction()).isSameAs(transaction);
+            final Span span = tracerImpl.startSpan(traceContext);
+            assertThat(traceContext.getSpan()).isSameAs(span);
+            tracerImpl.endSpan(span, traceContext);
+            assertThat(traceContext.getSpan()).isNull();
+        }
+        assertThat(traceContext.getTransaction()).isNull();
+        assertThat(tracerImpl.getTraceContext()).isSameAs(traceContext);
+
+        final AtomicReference<TraceContextHolder> otherThreadsContext = new AtomicReference<>();
+        final Thread thread = new Thread(() -> otherThreadsContext.set(tracerImpl.getTraceContext()));
+        thread.start();
+        thread.join();
+        assertThat(otherThreadsContext.get()).isNotNull().isNotSameAs(traceContext);
+    }
+
+    @Test
+    void testNestedSpans() {
+        try (Transaction transaction = tracerImpl.startTransaction()) {
+            final Span outer = tracerImpl.startSpan();
+            try (Span inner = tracerImpl.startSpan()) {
+                assertThat(tracerImpl.currentSpan()).isSameAs(inner);
+                assertThat(inner.getParent()).isEqualTo(outer.getId());
+            }
+            // the parent is restored when the nested span ends
+            assertThat(tracerImpl.currentSpan()).isSameAs(outer);
+            try (Span sibling = tracerImpl.startSpan()) {
+                assertThat(sibling.getParent()).isEqualTo(outer.getId());
+            }
+            outer.end();
+            assertThat(tracerImpl.currentSpan()).isNull();
+            assertThat(transaction.getSpans()).hasSize(3);
+        }
+    }
+
+    @Test
+    void testSpansWhichAreNotEndedAreRemovedWithTheirTransaction() {
+        try (Transaction transaction = tracerImpl.startTransaction()) {
+            tracerImpl.startSpan();
+        }
+        assertThat(tracerImpl.getTraceContext().getSpanDepth()).isZero();
+        assertThat(tracerImpl.currentSpan()).isNull();
+    }
+
+    @Test
+    void testDisableStacktraces() throws Exception {
+        config.save("span_frames_min_duration_ms", "0", SpyConfiguration.CONFIG_SOURCE_NAME);
         try (Transaction transaction = tracerImpl.startTransaction()) {
             try (Span span = tracerImpl.startSpan()) {
             }
@@ -82,8 +132,8 @@ class ElasticApmTracerTest {
     }
 
     @Test
-    void testEnableStacktraces() throws InterruptedException {
-        when(tracerImpl.getConfig(StacktraceConfiguration.class).getSpanFramesMinDurationMs()).thenReturn(-1);
+    void testEnableStacktraces() throws Exception {
+        config.save("span_frames_min_duration_ms", "-1", SpyConfiguration.CONFIG_SOURCE_NAME);
         try (Transaction transaction = tracerImpl.startTransaction()) {
             try (Span span = tracerImpl.startSpan()) {
                 Thread.sleep(10);
@@ -93,8 +143,8 @@ class ElasticApmTracerTest {
     }
 
     @Test
-    void testDisableStacktracesForFastSpans() {
-        when(tracerImpl.getConfig(StacktraceConfiguration.class).getSpanFramesMinDurationMs()).thenReturn(100);
+    void testDisableStacktracesForFastSpans() throws Exception {
+        config.save("span_frames_min_duration_ms", "100", SpyConfiguration.CONFIG_SOURCE_NAME);
         try (Transaction transaction = tracerImpl.startTransaction()) {
             try (Span span = tracerImpl.startSpan()) {
             }
@@ -103,8 +153,8 @@ class ElasticApmTracerTest {
     }
 
     @Test
-    void testEnableStacktracesForSlowSpans() throws InterruptedException {
-        when(tracerImpl.getConfig(StacktraceConfiguration.class).getSpanFramesMinDurationMs()).thenReturn(1);
+    void testEnableStacktracesForSlowSpans() throws Exception {
+        config.save("span_frames_min_duration_ms", "1", SpyConfiguration.CONFIG_SOURCE_NAME);
         try (Transaction transaction = tracerImpl.startTransaction()) {
             try (Span span = tracerImpl.startSpan()) {
                 Thread.sleep(10);
@@ -137,8 +187,8 @@ class ElasticApmTracerTest {
     }
 
     @Test
-    void testEnableDropSpans() {
-        when(tracerImpl.getConfig(CoreConfiguration.class).getTransactionMaxSpans()).thenReturn(1);
+    void testEnableDropSpans() throws Exception {
+        config.save("transaction_max_spans", "1", SpyConfiguration.CONFIG_SOURCE_NAME);
         try (Transaction transaction = tracerImpl.startTransaction()) {
             try (Span span = tracerImpl.startSpan()) {
                 assertThat(span.isSampled()).isTrue();
@@ -153,8 +203,42 @@ class ElasticApmTracerTest {
     }
 
     @Test
-    void testDisable() {
-        when(config.getConfig(CoreConfiguration.class).isActive()).thenReturn(false);
+    void testTransactionsExceedingTheLimitPerNameAreAggregated() throws Exception {
+        config.save("max_transactions_per_name", "1", SpyConfiguration.CONFIG_SOURCE_NAME);
+        for (int i = 0; i < 3; i++) {
+            try (Transaction transaction = tracerImpl.startTransaction()) {
+                transaction.withName("foo");
+            }
+        }
+        assertThat(reporter.getTransactions()).hasSize(1);
+        assertThat(tracerImpl.getLimitedTransactions().getCount()).isEqualTo(2);
+    }
+
+    @Test
+    void testNonSampledTransaction() {
+        when(config.getConfig(CoreConfiguration.class).getSampleRate()).thenReturn(0.0);
+        tracerImpl = ElasticApmTracer.builder()
+            .configurationRegistry(config)
+            .reporter(reporter)
+            .build();
+        try (Transaction transaction = tracerImpl.startTransaction()) {
+            transaction.withName("test").withResult("success");
+            transaction.getContext().getRequest().addHeader("foo", "bar");
+            assertThat(transaction.isSampled()).isFalse();
+            try (Span span = tracerImpl.startSpan()) {
+                assertThat(span.isSampled()).isFalse();
+            }
+            assertThat(transaction.getSpans()).isEmpty();
+        }
+        Transaction transaction = reporter.getFirstTransaction();
+        assertThat(transaction.getName()).isEqualTo("test");
+        assertThat(transaction.getResult()).isEqualTo("success");
+        assertThat(transaction.getContext().getRequest().getHeaders()).isEmpty();
+    }
+
+    @Test
+    void testDisable() throws Exception {
+        config.save("active", "false", SpyConfiguration.CONFIG_SOURCE_NAME);
         try (Transaction transaction = tracerImpl.startTransaction()) {
             assertThat(tracerImpl.currentTransaction()).isSameAs(transaction);
             assertThat(transaction.isSampled()).isFalse();
@@ -170,19 +254,37 @@ class ElasticApmTracerTest {
     }
 
     @Test
-    void testDisableMidTransaction() {
+    void testNoopTransactionIsNotModified() throws Exception {
+        config.save("active", "false", SpyConfiguration.CONFIG_SOURCE_NAME);
+        try (Transaction transaction = tracerImpl.startTransaction()) {
+            transaction.withName("/foo").withResult("200").withType("request");
+            transaction.withTimestamp(42);
+            transaction.markErrorCaptured();
+        }
+        try (Transaction transaction = tracerImpl.startTransaction()) {
+            assertThat(transaction.getName()).isEqualTo("noop");
+            assertThat(transaction.getType()).isEqualTo("noop");
+            assertThat(transaction.getResult()).isNull();
+            assertThat(transaction.getTimestampMicros()).isZero();
+            assertThat(transaction.getDurationMicros()).isZero();
+            assertThat(transaction.isErrorCaptured()).isFalse();
+        }
+    }
+
+    @Test
+    void testDisableMidTransaction() throws Exception {
         Transaction transaction = tracerImpl.startTransaction();
         try (transaction) {
             assertThat(tracerImpl.currentTransaction()).isSameAs(transaction);
             try (Span span = tracerImpl.startSpan()) {
-                when(config.getConfig(CoreConfiguration.class).isActive()).thenReturn(false);
+                config.save("active", "false", SpyConfiguration.CONFIG_SOURCE_NAME);
                 span.withName("test");
                 assertThat(span.getName()).isEqualTo("test");
                 assertThat(tracerImpl.currentSpan()).isSameAs(span);
                 assertThat(transaction.getSpans()).containsExactly(span);
             }
             try (Span span = tracerImpl.startSpan()) {
-                when(config.getConfig(CoreConfiguration.class).isActive()).thenReturn(false);
+                config.save("active", "false", SpyConfiguration.CONFIG_SOURCE_NAME);
                 span.withName("test2");
                 assertThat(span.getName()).isEqualTo("test2");
                 assertThat(tracerImpl.currentSpan()).isSameAs(span);
@@ -0,0 +1,51 @@
+package co.elastic.apm.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class EpochMicrosClockTest {
+
+    @Test
+    void testEpochMicrosAreCloseToCurrentTimeMillis() {
+        final EpochMicrosClock clock = new EpochMicrosClock(TimeUnit.SECONDS.toNanos(10));
+
+        final long epochMillis = System.currentTimeMillis();
+        assertThat(clock.getEpochMicros() / 1000).isCloseTo(epochMillis, within(100L));
+    }
+
+    @Test
+    void testEpochMicrosDoNotDecreaseWhenRecalibrating() {
+        final EpochMicrosClock clock = new EpochMicrosClock(0);
+
+        long previous = clock.getEpochMicros();
+        for (int i = 0; i < 1000; i++) {
+            final long epochMicros = clock.getEpochMicros();
+            assertThat(epochMicros).isGreaterThanOrEqualTo(previous);
+            previous = epochMicros;
+        }
+    }
+
+    @Test
+    void testOffsetIsKeptWithinGranularityOfCurrentTimeMillis() {
+        final long offsetMicros = 1_000_000_000_000L;
+        final long nanoTime = TimeUnit.SECONDS.toNanos(42);
+        final long epochMillis = (offsetMicros + nanoTime / 1000) / 1000;
+
+        assertThat(EpochMicrosClock.recalibrate(offsetMicros, nanoTime, epochMillis + 1)).isEqualTo(offsetMicros);
+        assertThat(EpochMicrosClock.recalibrate(offsetMicros, nanoTime, epochMillis - 1)).isEqualTo(offsetMicros);
+    }
+
+    @Test
+    void testOffsetIsAdjustedWhenDrifting() {
+        final long offsetMicros = 1_000_000_000_000L;
+        final long nanoTime = TimeUnit.SECONDS.toNanos(42);
+        final long epochMillis = (offsetMicros + nanoTime / 1000) / 1000;
+
+        assertThat(EpochMicrosClock.recalibrate(offsetMicros, nanoTime, epochMillis + 5)).isEqualTo(offsetMicros + 5000);
+        assertThat(EpochMicrosClock.recalibrate(offsetMicros, nanoTime, epochMillis - 5)).isEqualTo(offsetMicros - 5000);
+    }
+}
@@ -0,0 +1,67 @@
+package co.elastic.apm.impl;
+
+import co.elastic.apm.impl.transaction.Span;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TraceContextHolderTest {
+
+    private final TraceContextHolder traceContext = new TraceContextHolder();
+
+    @Test
+    void testPushAndPop() {
+        final Span parent = new Span();
+        final Span child = new Span();
+        traceContext.pushSpan(parent);
+        traceContext.pushSpan(child);
+        assertThat(traceContext.getSpan()).isSameAs(child);
+        assertThat(traceContext.getSpanDepth()).isEqualTo(2);
+
+        assertThat(traceContext.popSpan(child)).isTrue();
+        assertThat(traceContext.getSpan()).isSameAs(parent);
+        assertThat(traceContext.popSpan(parent)).isTrue();
+        assertThat(traceContext.getSpan()).isNull();
+        assertThat(traceContext.getSpanDepth()).isZero();
+    }
+
+    @Test
+    void testPopSpanWhichIsNotActive() {
+        final Span parent = new Span();
+        traceContext.pushSpan(parent);
+        traceContext.pushSpan(new Span());
+
+        assertThat(traceContext.popSpan(parent)).isFalse();
+        assertThat(traceContext.getSpanDepth()).isEqualTo(2);
+        assertThat(new TraceContextHolder().popSpan(parent)).isFalse();
+    }
+
+    @Test
+    void testSpansBeyondMaxDepth() {
+        final Span[] spans = new Span[TraceContextHolder.MAX_SPAN_DEPTH + 2];
+        for (int i = 0; i < spans.length; i++) {
+            spans[i] = new Span();
+            traceContext.pushSpan(spans[i]);
+        }
+        final Span deepestStoredSpan = spans[TraceContextHolder.MAX_SPAN_DEPTH - 1];
+        assertThat(traceContext.getSpan()).isSameAs(deepestStoredSpan);
+
+        assertThat(traceContext.popSpan(spans[spans.length - 1])).isTrue();
+        assertThat(traceContext.popSpan(spans[spans.length - 2])).isTrue();
+        assertThat(traceContext.getSpan()).isSameAs(deepestStoredSpan);
+        assertThat(traceContext.popSpan(deepestStoredSpan)).isTrue();
+        assertThat(traceContext.getSpan()).isSameAs(spans[TraceContextHolder.MAX_SPAN_DEPTH - 2]);
+    }
+
+    @Test
+    void testClearSpans() {
+        for (int i = 0; i < TraceContextHolder.MAX_SPAN_DEPTH + 1; i++) {
+            traceContext.pushSpan(new Span());
+        }
+
+        traceContext.clearSpans();
+
+        assertThat(traceContext.getSpanDepth()).isZero();
+        assertThat(traceContext.getSpan()).isNull();
+    }
+}
@@ -0,0 +1,127 @@
+package co.elastic.apm.impl.payload;
+
+import co.elastic.apm.impl.ElasticApmTracer;
+import co.elastic.apm.impl.error.ErrorCapture;
+import co.elastic.apm.impl.transaction.Span;
+import co.elastic.apm.impl.transaction.Transaction;
+import co.elastic.apm.report.serialize.DirectJsonPayloadSerializer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import okio.Buffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class IntakeV2JsonSchemaTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DirectJsonPayloadSerializer serializer;
+    private Buffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        serializer = new DirectJsonPayloadSerializer();
+        buffer = new Buffer();
+    }
+
+    @Test
+    void testMetadata() throws IOException {
+        Service service = new Service().withAgent(new Agent("name", "version")).withName("name");
+        serializer.serializeMetadataEvent(buffer, new TransactionPayload(new ProcessInfo("title"), service, new SystemInfo("", "", "")));
+
+        validate(readLine(), "metadata", "/schema/metadata.json");
+        assertThat(buffer.exhausted()).isTrue();
+    }
+
+    @Test
+    void testTransactionAndSpans() throws IOException {
+        final long epochMicros = 1_500_000_000_000_000L;
+        Transaction transaction = new Transaction();
+        transaction.start(mock(ElasticApmTracer.class), epochMicros, true);
+        transaction.setType("type");
+        transaction.getContext().getRequest().withMethod("GET");
+        Span span = new Span();
+        span.start(mock(ElasticApmTracer.class), transaction, null, epochMicros + 10, false)
+            .withType("type")
+            .withName("name");
+        Span childSpan = new Span();
+        childSpan.start(mock(ElasticApmTracer.class), transaction, span, epochMicros + 20, false)
+            .withType("type")
+            .withName("name");
+        transaction.addSpan(span);
+        transaction.addSpan(childSpan);
+        childSpan.end(epochMicros + 30);
+        span.end(epochMicros + 40);
+        transaction.end(epochMicros + 50);
+
+        serializer.serializeTransactionEvents(buffer, transaction);
+
+        final JsonNode transactionJson = validate(readLine(), "transaction", "/schema/transactions/v2_transaction.json");
+        final JsonNode spanJson = validate(readLine(), "span", "/schema/transactions/v2_span.json");
+        final JsonNode childSpanJson = validate(readLine(), "span", "/schema/transactions/v2_span.json");
+        assertThat(buffer.exhausted()).isTrue();
+
+        assertThat(transactionJson.get("trace_id").textValue()).isEqualTo(transaction.getId().toHexEncodedString());
+        assertThat(transactionJson.get("timestamp").longValue()).isEqualTo(epochMicros);
+        assertThat(transactionJson.get("span_count").get("started").intValue()).isEqualTo(2);
+        assertThat(spanJson.get("trace_id")).isEqualTo(transactionJson.get("trace_id"));
+        assertThat(spanJson.get("transaction_id")).isEqualTo(transactionJson.get("id"));
+        assertThat(spanJson.get("parent_id")).isEqualTo(transactionJson.get("id"));
+        assertThat(spanJson.get("id").textValue()).isEqualTo(span.getId().toHexEncodedString());
+        assertThat(spanJson.get("timestamp").longValue()).isEqualTo(epochMicros + 10);
+        assertThat(childSpanJson.get("parent_id")).isEqualTo(spanJson.get("id"));
+    }
+
+    @Test
+    void testError() throws IOException {
+        Transaction transaction = new Transaction();
+        transaction.start(mock(ElasticApmTracer.class), 0, true);
+        ErrorCapture error = new ErrorCapture();
+        error.getId().setToRandomValue();
+        error.getTransaction().withId(transaction.getId());
+        error.getException().withMessage("message");
+        error.getContext().getRequest().withMethod("GET");
+
+        serializer.serializeErrorEvent(buffer, error);
+
+        final JsonNode errorJson = validate(readLine(), "error", "/schema/errors/v2_error.json");
+        assertThat(buffer.exhausted()).isTrue();
+        assertThat(errorJson.get("trace_id").textValue()).isEqualTo(transaction.getId().toHexEncodedString());
+        assertThat(errorJson.has("log")).isFalse();
+    }
+
+    @Test
+    void testErrorWithoutTransaction() throws IOException {
+        ErrorCapture error = new ErrorCapture();
+        error.getId().setToRandomValue();
+        error.getLog().withMessage("message");
+
+        serializer.serializeErrorEvent(buffer, error);
+
+        final JsonNode errorJson = validate(readLine(), "error", "/schema/errors/v2_error.json");
+        assertThat(errorJson.has("trace_id")).isFalse();
+        assertThat(errorJson.has("exception")).isFalse();
+    }
+
+    private String readLine() throws IOException {
+        return buffer.readUtf8LineStrict();
+    }
+
+    /**
+     * Validates the event against the schema of its type and checks that each line holds exactly one event
+     */
+    private JsonNode validate(String line, String type, String schemaPath) throws IOException {
+        final JsonNode json = objectMapper.readTree(line);
+        assertThat(json.size()).isEqualTo(1);
+        assertThat(json.has(type)).isTrue();
+        final JsonSchema schema = JsonSchemaFactory.getInstance().getSchema(getClass().getResourceAsStream(schemaPath));
+        assertThat(schema.validate(json.get(type))).isEmpty();
+        return json.get(type);
+    }
+}
@@ -3,13 +3,20 @@ package co.elastic.apm.impl.payload;
 import co.elastic.apm.impl.ElasticApmTracer;
 import co.elastic.apm.impl.transaction.Span;
 import co.elastic.apm.impl.transaction.Transaction;
+import co.elastic.apm.objectpool.ObjectPool;
+import co.elastic.apm.report.PayloadBuffer;
+import co.elastic.apm.report.serialize.DirectJsonPayloadSerializer;
+import co.elastic.apm.report.serialize.JacksonPayloadSerializer;
+import co.elastic.apm.report.serialize.PayloadSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.networknt.schema.JsonSchema;
 import com.networknt.schema.JsonSchemaFactory;
 import com.networknt.schema.ValidationMessage;
+import okio.Buffer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -51,4 +58,37 @@ class TransactionPayloadJsonSchemaTest {
         Set<ValidationMessage> errors = schema.validate(new ObjectMapper().valueToTree(payload));
         assertThat(errors).isEmpty();
     }
+
+    @Test
+    void testJsonSchemaOfDirectlySerializedPayload() throws IOException {
+        final Buffer buffer = new Buffer();
+        new DirectJsonPayloadSerializer().serializePayload(buffer, payload);
+
+        Set<ValidationMessage> errors = schema.validate(new ObjectMapper().readTree(buffer.readUtf8()));
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    void testJsonSchemaOfIncrementallySerializedPayload() throws IOException {
+        validateIncrementallySerializedPayload(new JacksonPayloadSerializer(new ObjectMapper()));
+    }
+
+    @Test
+    void testJsonSchemaOfIncrementallyDirectlySerializedPayload() throws IOException {
+        validateIncrementallySerializedPayload(new DirectJsonPayloadSerializer());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void validateIncrementallySerializedPayload(PayloadSerializer serializer) throws IOException {
+        final PayloadBuffer payloadBuffer = new PayloadBuffer(mock(ObjectPool.class)).withMetadata(payload);
+        final Buffer eventBuffer = new Buffer();
+        for (int i = 0; i < 2; i++) {
+            serializer.serializeTransaction(eventBuffer, createTransactionWithRequiredValues());
+            payloadBuffer.addSerializedEvent(serializer, eventBuffer);
+        }
+        payloadBuffer.finish();
+
+        Set<ValidationMessage> errors = schema.validate(new ObjectMapper().readTree(payloadBuffer.getBuffer().readUtf8()));
+        assertThat(errors).isEmpty();
+    }
 }
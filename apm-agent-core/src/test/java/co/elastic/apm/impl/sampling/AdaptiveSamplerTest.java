@@ -0,0 +1,79 @@
+package co.elastic.apm.impl.sampling;
+
+import co.elastic.apm.configuration.CoreConfiguration;
+import co.elastic.apm.configuration.SpyConfiguration;
+import co.elastic.apm.report.Reporter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdaptiveSamplerTest {
+
+    private AdaptiveSampler sampler;
+    private Reporter reporter;
+    private long nanoTime;
+
+    @BeforeEach
+    void setUp() {
+        ConfigurationRegistry config = SpyConfiguration.createSpyConfig();
+        when(config.getConfig(SamplingConfiguration.class).getSampledTransactionsPerSecond()).thenReturn(10);
+        reporter = mock(Reporter.class);
+        sampler = new AdaptiveSampler(reporter, config.getConfig(CoreConfiguration.class), config.getConfig(SamplingConfiguration.class));
+        nanoTime = System.nanoTime();
+    }
+
+    @Test
+    void testSampleEverythingBelowTarget() {
+        startTransactionsForOneSecond(5);
+        assertThat(sampler.getSamplingRate()).isEqualTo(1.0);
+    }
+
+    @Test
+    void testAdjustToTarget() {
+        startTransactionsForOneSecond(1000);
+        assertThat(sampler.getSamplingRate()).isCloseTo(0.01, offset(0.001));
+    }
+
+    @Test
+    void testBackOffWhenEventsAreDropped() {
+        startTransactionsForOneSecond(1000);
+        when(reporter.getDropped()).thenReturn(42);
+        startTransactionsForOneSecond(1000);
+        assertThat(sampler.getSamplingRate()).isCloseTo(0.005, offset(0.0005));
+    }
+
+    @Test
+    void testBackOffWhenQueueIsFilling() {
+        when(reporter.getQueueUtilization()).thenReturn(0.8);
+        startTransactionsForOneSecond(1000);
+        assertThat(sampler.getSamplingRate()).isLessThan(0.01);
+    }
+
+    @Test
+    void testAdjustOnceIntervalHasElapsed() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            sampler.isSampled();
+        }
+        assertThat(sampler.getSamplingRate()).isEqualTo(1.0);
+
+        Thread.sleep(AdaptiveSampler.ADJUSTMENT_INTERVAL_MS + 50);
+        sampler.isSampled();
+
+        assertThat(sampler.getSamplingRate()).isLessThan(1.0);
+    }
+
+    private void startTransactionsForOneSecond(int transactions) {
+        for (int i = 0; i < transactions; i++) {
+            sampler.isSampled();
+        }
+        nanoTime += TimeUnit.SECONDS.toNanos(1);
+        sampler.adjust(nanoTime);
+    }
+}
@@ -0,0 +1,47 @@
+package co.elastic.apm.impl.sampling;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class DurationHistogramTest {
+
+    private final DurationHistogram histogram = new DurationHistogram();
+
+    @Test
+    void testBucketBounds() {
+        for (long micros : new long[]{0, 1, 7, 8, 9, 15, 16, 1000, 123_456, 60_000_000}) {
+            final int bucketIndex = DurationHistogram.getBucketIndex(micros);
+            assertThat(DurationHistogram.getLowerBound(bucketIndex)).isLessThanOrEqualTo(micros);
+            assertThat(DurationHistogram.getLowerBound(bucketIndex + 1)).isGreaterThan(micros);
+        }
+    }
+
+    @Test
+    void testPercentile() {
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getValueAtPercentile(0.5)).isCloseTo(50, offset(50 * 0.125));
+        assertThat(histogram.getValueAtPercentile(0.99)).isCloseTo(99, offset(99 * 0.125));
+    }
+
+    @Test
+    void testEmpty() {
+        assertThat(histogram.getValueAtPercentile(0.99)).isZero();
+    }
+
+    @Test
+    void testDecay() {
+        for (int i = 0; i < 100; i++) {
+            histogram.record(1);
+        }
+        histogram.record(100);
+        histogram.decay();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(100);
+        }
+        assertThat(histogram.getValueAtPercentile(0.5)).isCloseTo(100, offset(12.5));
+    }
+}
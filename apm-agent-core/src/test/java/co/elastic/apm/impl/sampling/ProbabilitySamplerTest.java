@@ -0,0 +1,44 @@
+package co.elastic.apm.impl.sampling;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class ProbabilitySamplerTest {
+
+    private static final int ITERATIONS = 100_000;
+
+    @Test
+    void testConstantSamplers() {
+        assertThat(ProbabilitySampler.of(1.0)).isSameAs(ConstantSampler.ALWAYS);
+        assertThat(ProbabilitySampler.of(0.0)).isSameAs(ConstantSampler.NEVER);
+        assertThat(ProbabilitySampler.of(-1)).isSameAs(ConstantSampler.NEVER);
+        assertThat(ConstantSampler.ALWAYS.isSampled()).isTrue();
+        assertThat(ConstantSampler.NEVER.isSampled()).isFalse();
+    }
+
+    @Test
+    void testSamplingRate() {
+        Sampler sampler = ProbabilitySampler.of(0.5);
+        int sampled = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (sampler.isSampled()) {
+                sampled++;
+            }
+        }
+        assertThat((double) sampled / ITERATIONS).isCloseTo(0.5, offset(0.02));
+    }
+
+    @Test
+    void testLowSamplingRate() {
+        Sampler sampler = ProbabilitySampler.of(0.01);
+        int sampled = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (sampler.isSampled()) {
+                sampled++;
+            }
+        }
+        assertThat((double) sampled / ITERATIONS).isCloseTo(0.01, offset(0.005));
+    }
+}
@@ -0,0 +1,68 @@
+package co.elastic.apm.impl.sampling;
+
+import co.elastic.apm.configuration.SpyConfiguration;
+import co.elastic.apm.impl.EpochMicrosClock;
+import co.elastic.apm.impl.transaction.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class TailSamplerTest {
+
+    private TailSampler tailSampler;
+
+    @BeforeEach
+    void setUp() {
+        tailSampler = new TailSampler(SpyConfiguration.createSpyConfig().getConfig(SamplingConfiguration.class));
+    }
+
+    @Test
+    void testKeepEverythingDuringWarmup() {
+        assertThat(tailSampler.isKept(createTransaction(1, "HTTP 2xx"))).isTrue();
+        assertThat(tailSampler.getDurationThresholdMs()).isZero();
+    }
+
+    @Test
+    void testKeepSlowTransactions() {
+        recordTransactions(980, 1);
+        recordTransactions(20, 100);
+        assertThat(tailSampler.getDurationThresholdMs()).isCloseTo(100, offset(12.5));
+
+        assertThat(tailSampler.isKept(createTransaction(1, "HTTP 2xx"))).isFalse();
+        assertThat(tailSampler.isKept(createTransaction(200, "HTTP 2xx"))).isTrue();
+    }
+
+    @Test
+    void testKeepTransactionsWithInterestingResult() {
+        recordTransactions(980, 1);
+        recordTransactions(20, 100);
+        assertThat(tailSampler.isKept(createTransaction(1, "HTTP 5xx"))).isTrue();
+    }
+
+    @Test
+    void testKeepTransactionsWithError() {
+        recordTransactions(980, 1);
+        recordTransactions(20, 100);
+        final Transaction transaction = createTransaction(1, "HTTP 2xx");
+        transaction.markErrorCaptured();
+        assertThat(tailSampler.isKept(transaction)).isTrue();
+    }
+
+    private void recordTransactions(int count, long durationMs) {
+        for (int i = 0; i < count; i++) {
+            tailSampler.isKept(createTransaction(durationMs, "HTTP 2xx"));
+        }
+    }
+
+    private Transaction createTransaction(long durationMs, String result) {
+        final Transaction transaction = new Transaction()
+            .start(null, EpochMicrosClock.INSTANCE.getEpochMicros() - TimeUnit.MILLISECONDS.toMicros(durationMs), true)
+            .withResult(result);
+        transaction.end();
+        return transaction;
+    }
+}
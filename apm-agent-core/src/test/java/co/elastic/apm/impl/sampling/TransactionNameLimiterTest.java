@@ -0,0 +1,69 @@
+package co.elastic.apm.impl.sampling;
+
+import co.elastic.apm.configuration.SpyConfiguration;
+import co.elastic.apm.impl.transaction.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class TransactionNameLimiterTest {
+
+    private TransactionNameLimiter limiter;
+    private long nanoTime;
+
+    @BeforeEach
+    void setUp() {
+        ConfigurationRegistry config = SpyConfiguration.createSpyConfig();
+        when(config.getConfig(SamplingConfiguration.class).getMaxTransactionsPerName()).thenReturn(2);
+        when(config.getConfig(SamplingConfiguration.class).getTransactionNameLimitInterval()).thenReturn(1);
+        limiter = new TransactionNameLimiter(config.getConfig(SamplingConfiguration.class));
+        nanoTime = TimeUnit.SECONDS.toNanos(42);
+    }
+
+    @Test
+    void testLimitPerName() {
+        assertThat(limiter.tryAcquire(createTransaction("foo"), nanoTime)).isTrue();
+        assertThat(limiter.tryAcquire(createTransaction("foo"), nanoTime)).isTrue();
+        assertThat(limiter.tryAcquire(createTransaction("foo"), nanoTime)).isFalse();
+        assertThat(limiter.tryAcquire(createTransaction("bar"), nanoTime)).isTrue();
+        assertThat(limiter.getLimitedTransactions().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testLimitResetsAfterInterval() {
+        assertThat(limiter.tryAcquire(createTransaction("foo"), nanoTime)).isTrue();
+        assertThat(limiter.tryAcquire(createTransaction("foo"), nanoTime)).isTrue();
+        assertThat(limiter.tryAcquire(createTransaction("foo"), nanoTime)).isFalse();
+        nanoTime += TimeUnit.SECONDS.toNanos(1);
+        assertThat(limiter.tryAcquire(createTransaction("foo"), nanoTime)).isTrue();
+    }
+
+    @Test
+    void testNonSampledTransactionsAreNotLimited() {
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire(new Transaction().start(null, 0, false).withName("foo"), nanoTime)).isTrue();
+        }
+    }
+
+    @Test
+    void testNumberOfNamesIsBounded() {
+        for (int i = 0; i < TransactionNameLimiter.MAX_TRANSACTION_NAMES * 2; i++) {
+            limiter.tryAcquire(createTransaction("foo" + i), nanoTime);
+        }
+        assertThat(limiter.getNumberOfTrackedNames()).isEqualTo(TransactionNameLimiter.MAX_TRANSACTION_NAMES);
+
+        // names which have not been seen in the current interval are evicted
+        nanoTime += TimeUnit.SECONDS.toNanos(1);
+        assertThat(limiter.tryAcquire(createTransaction("bar"), nanoTime)).isTrue();
+        assertThat(limiter.getNumberOfTrackedNames()).isEqualTo(1);
+    }
+
+    private Transaction createTransaction(String name) {
+        return new Transaction().start(null, 0, true).withName(name);
+    }
+}
@@ -1,7 +1,10 @@
 package co.elastic.apm.impl.transaction;
 
+import okio.Buffer;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 class SpanIdTest {
@@ -14,4 +17,13 @@ class SpanIdTest {
         spanId2.copyFrom(spanId1);
         assertThat(spanId1).isEqualTo(spanId2);
     }
+
+    @Test
+    void testWriteAsHex() throws IOException {
+        SpanId spanId = new SpanId();
+        spanId.setToRandomValue();
+        Buffer buffer = new Buffer();
+        spanId.writeAsHex(buffer);
+        assertThat(buffer.readUtf8()).isEqualTo(spanId.toHexEncodedString()).isEqualTo(String.format("%016x", spanId.asLong()));
+    }
 }
@@ -0,0 +1,127 @@
+package co.elastic.apm.impl.transaction;
+
+import co.elastic.apm.impl.ElasticApmTracer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class SpanListTest {
+
+    private final SpanList spans = new SpanList();
+
+    @Test
+    void testSpansAreDroppedWhenMaxIsReached() {
+        spans.setMaxSpans(2);
+        final Span first = new Span();
+        final Span second = new Span();
+
+        assertThat(spans.tryAdd(first)).isTrue();
+        assertThat(spans.tryAdd(second)).isTrue();
+        assertThat(spans.tryAdd(new Span())).isFalse();
+
+        assertThat(spans).hasSize(2);
+        assertThat(spans.get(0)).isSameAs(first);
+        assertThat(spans.get(1)).isSameAs(second);
+        assertThatThrownBy(() -> spans.get(2)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    void testListCanOnlyBeModifiedViaTryAdd() {
+        spans.setMaxSpans(1);
+
+        assertThatThrownBy(() -> spans.add(new Span())).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void testClearKeepsCapacity() {
+        spans.setMaxSpans(2);
+        spans.tryAdd(new Span());
+        spans.tryAdd(new Span());
+
+        spans.clear();
+        spans.setMaxSpans(1);
+
+        assertThat(spans).isEmpty();
+        assertThat(spans.tryAdd(new Span())).isTrue();
+        assertThat(spans.tryAdd(new Span())).isFalse();
+    }
+
+    @Test
+    void testMaxSpansIncreases() {
+        spans.setMaxSpans(1);
+        spans.clear();
+        spans.setMaxSpans(3);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(spans.tryAdd(new Span())).isTrue();
+        }
+        assertThat(spans.tryAdd(new Span())).isFalse();
+    }
+
+    @Test
+    void testConcurrentAdds() throws Exception {
+        final int threads = 8;
+        final int spansPerThread = 100;
+        spans.setMaxSpans(threads * spansPerThread / 2);
+        final Set<Span> added = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < spansPerThread; j++) {
+                        final Span span = new Span();
+                        if (spans.tryAdd(span)) {
+                            added.add(span);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(added).hasSize(threads * spansPerThread / 2);
+        assertThat(spans).hasSize(added.size());
+        for (Span span : spans) {
+            assertThat(added).contains(span);
+        }
+    }
+
+    @Test
+    void testTransactionKeepsSpansAcrossRecycling() {
+        final Transaction transaction = new Transaction();
+        transaction.start(mock(ElasticApmTracer.class), 0, true, 1);
+        assertThat(transaction.addSpan(new Span())).isTrue();
+        assertThat(transaction.addSpan(new Span())).isFalse();
+
+        transaction.resetState();
+        transaction.start(mock(ElasticApmTracer.class), 0, true, 1);
+
+        assertThat(transaction.getSpans()).isEmpty();
+        assertThat(transaction.addSpan(new Span())).isTrue();
+    }
+
+    @Test
+    void testSpansOfNonSampledTransactionsAreNotRecorded() {
+        final Transaction transaction = new Transaction();
+        transaction.start(mock(ElasticApmTracer.class), 0, false, 10);
+
+        assertThat(transaction.addSpan(new Span())).isFalse();
+        assertThat(transaction.getSpans()).isEmpty();
+    }
+}
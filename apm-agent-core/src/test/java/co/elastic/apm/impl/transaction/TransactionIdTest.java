@@ -1,7 +1,9 @@
 package co.elastic.apm.impl.transaction;
 
+import okio.Buffer;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.util.UUID;
 
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
@@ -31,4 +33,25 @@ class TransactionIdTest {
         assertThat(id1).isEqualTo(id2);
         assertThat(id1.getLeastSignificantBits()).isNotEqualTo(0);
     }
+
+    @Test
+    void testWriteAsUuid() throws IOException {
+        TransactionId id = new TransactionId();
+        id.setToRandomValue();
+        Buffer buffer = new Buffer();
+        id.writeAsUuid(buffer);
+        assertThat(buffer.readUtf8()).isEqualTo(id.toUuid().toString());
+        id.writeAsHex(buffer);
+        assertThat(buffer.readUtf8()).isEqualTo(id.toHexEncodedString()).isEqualTo(id.toUuid().toString().replace("-", ""));
+    }
+
+    @Test
+    void testIsEmpty() {
+        TransactionId id = new TransactionId();
+        assertThat(id.isEmpty()).isTrue();
+        id.setToRandomValue();
+        assertThat(id.isEmpty()).isFalse();
+        id.resetState();
+        assertThat(id.isEmpty()).isTrue();
+    }
 }
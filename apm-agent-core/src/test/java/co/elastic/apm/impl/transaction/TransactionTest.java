@@ -0,0 +1,61 @@
+package co.elastic.apm.impl.transaction;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionTest {
+
+    @Test
+    void testDurationsAreMeasuredWithTheOffsetOfTheTransaction() throws Exception {
+        final long epochMicros = 1_000_000_000_000L;
+        final long startNanos = System.nanoTime();
+        final Transaction transaction = new Transaction().start(null, epochMicros, true);
+        final Span span = new Span().start(null, transaction, null, transaction.getCurrentEpochMicros(), false);
+
+        Thread.sleep(10);
+        span.end();
+        transaction.end();
+        final long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+
+        assertThat(span.getTimestampMicros()).isEqualTo(epochMicros + span.getStartMicros());
+        assertThat(span.getDurationMicros()).isBetween(TimeUnit.MILLISECONDS.toMicros(10), elapsedMicros);
+        assertThat(transaction.getDurationMicros()).isBetween(span.getStartMicros() + span.getDurationMicros(), elapsedMicros);
+    }
+
+    @Test
+    void testOverriddenTimestampDoesNotChangeTheDuration() throws Exception {
+        final long startNanos = System.nanoTime();
+        final Transaction transaction = new Transaction().start(null, 1_000_000_000_000L, true);
+        final long pastEpochMillis = 946_684_800_000L;
+        transaction.withTimestamp(pastEpochMillis);
+        final Span span = new Span().start(null, transaction, null, transaction.getCurrentEpochMicros(), false);
+
+        Thread.sleep(10);
+        span.end();
+        transaction.end();
+        final long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+
+        assertThat(transaction.getTimestampMicros()).isEqualTo(pastEpochMillis * 1000);
+        assertThat(transaction.getDurationMicros()).isBetween(TimeUnit.MILLISECONDS.toMicros(10), elapsedMicros);
+        assertThat(span.getStartMicros()).isBetween(0L, elapsedMicros);
+        assertThat(span.getTimestampMicros()).isEqualTo(pastEpochMillis * 1000 + span.getStartMicros());
+    }
+
+    @Test
+    void testSpanKeepsItsStartUntilItEnds() {
+        final Transaction transaction = new Transaction().start(null, 1_000, true);
+        final Span span = new Span().start(null, transaction, null, 1_500, false);
+
+        assertThat(span.getTimestampMicros()).isEqualTo(1_500);
+        assertThat(span.getStartMicros()).isEqualTo(500);
+        assertThat(span.getDurationMicros()).isZero();
+
+        span.end(2_250);
+
+        assertThat(span.getTimestampMicros()).isEqualTo(1_500);
+        assertThat(span.getDurationMicros()).isEqualTo(750);
+    }
+}
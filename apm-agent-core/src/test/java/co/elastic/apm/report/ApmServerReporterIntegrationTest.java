@@ -6,6 +6,7 @@ import co.elastic.apm.impl.payload.Service;
 import co.elastic.apm.impl.payload.SystemInfo;
 import co.elastic.apm.impl.transaction.Transaction;
 import co.elastic.apm.report.serialize.JacksonPayloadSerializer;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 import io.undertow.Undertow;
@@ -16,9 +17,13 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 import static org.mockito.Mockito.spy;
@@ -64,15 +69,16 @@ class ApmServerReporterIntegrationTest {
         reporterConfiguration = spy(new ReporterConfiguration());
         when(reporterConfiguration.getFlushInterval()).thenReturn(-1);
         when(reporterConfiguration.getServerUrl()).thenReturn("http://localhost:" + port);
-        payloadSender = new ApmServerHttpPayloadSender(new OkHttpClient(), new JacksonPayloadSerializer(objectMapper), reporterConfiguration);
+        payloadSender = new ApmServerHttpPayloadSender(new OkHttpClient(), reporterConfiguration);
         SystemInfo system = new SystemInfo("x64", "localhost", "platform");
-        reporter = new ApmServerReporter(new Service(), new ProcessInfo("title"), system, payloadSender, false, reporterConfiguration);
+        reporter = new ApmServerReporter(new Service(), new ProcessInfo("title"), system, payloadSender,
+            new JacksonPayloadSerializer(objectMapper), false, reporterConfiguration);
     }
 
     @Test
     void testReportTransaction() throws ExecutionException, InterruptedException {
         reporter.report(new Transaction());
-        reporter.flush().get();
+        assertThat(reporter.flush().get()).isTrue();
         assertThat(reporter.getDropped()).isEqualTo(0);
         assertThat(receivedHttpRequests.get()).isEqualTo(1);
     }
@@ -86,16 +92,80 @@ class ApmServerReporterIntegrationTest {
             exchange.setStatusCode(200).endExchange();
         };
         reporter.report(new Transaction());
-        reporter.flush().get();
+        assertThat(reporter.flush().get()).isTrue();
         assertThat(reporter.getDropped()).isEqualTo(0);
         assertThat(receivedHttpRequests.get()).isEqualTo(1);
     }
 
+    @Test
+    void testServerError() throws ExecutionException, InterruptedException {
+        handler = exchange -> {
+            receivedHttpRequests.incrementAndGet();
+            exchange.setStatusCode(500).endExchange();
+        };
+        reporter.report(new Transaction());
+        assertThat(reporter.flush().get()).isFalse();
+        assertThat(receivedHttpRequests.get()).isEqualTo(1);
+        assertThat(payloadSender.getDroppedEvents()).isEqualTo(1);
+    }
+
     @Test
     void testReportErrorCapture() throws ExecutionException, InterruptedException {
         reporter.report(new ErrorCapture());
-        reporter.flush().get();
+        assertThat(reporter.flush().get()).isTrue();
         assertThat(reporter.getDropped()).isEqualTo(0);
         assertThat(receivedHttpRequests.get()).isEqualTo(1);
     }
+
+    @Test
+    void testPayloadWithMultipleTransactionsIsCompressed() throws Exception {
+        final List<String> contentEncodings = new CopyOnWriteArrayList<>();
+        final List<byte[]> requestBodies = new CopyOnWriteArrayList<>();
+        handler = exchange -> exchange.getRequestReceiver().receiveFullBytes((ex, body) -> {
+            contentEncodings.add(ex.getRequestHeaders().getFirst("Content-Encoding"));
+            requestBodies.add(body);
+            receivedHttpRequests.incrementAndGet();
+            ex.setStatusCode(202).endExchange();
+        });
+        reporter.report(new Transaction());
+        reporter.report(new Transaction());
+        assertThat(reporter.flush().get()).isTrue();
+
+        assertThat(receivedHttpRequests.get()).isEqualTo(1);
+        assertThat(contentEncodings).containsExactly("gzip");
+        final JsonNode payload = new ObjectMapper().readTree(new GZIPInputStream(new ByteArrayInputStream(requestBodies.get(0))));
+        assertThat(payload.get("transactions").size()).isEqualTo(2);
+    }
+
+    @Test
+    void testStreamingIntake() throws Exception {
+        when(reporterConfiguration.isStreamingIntake()).thenReturn(true);
+        final List<String> requestPaths = new CopyOnWriteArrayList<>();
+        final List<String> requestBodies = new CopyOnWriteArrayList<>();
+        handler = exchange -> exchange.getRequestReceiver().receiveFullString((ex, body) -> {
+            requestPaths.add(ex.getRequestPath());
+            requestBodies.add(body);
+            receivedHttpRequests.incrementAndGet();
+            ex.setStatusCode(202).endExchange();
+        });
+        reporter.close();
+        reporter = new ApmServerReporter(new Service(), new ProcessInfo("title"), new SystemInfo("x64", "localhost", "platform"),
+            payloadSender, new JacksonPayloadSerializer(new ObjectMapper()), false, reporterConfiguration);
+
+        reporter.report(new Transaction());
+        reporter.report(new Transaction());
+        assertThat(reporter.flush().get()).isTrue();
+
+        assertThat(receivedHttpRequests.get()).isEqualTo(1);
+        assertThat(requestPaths).containsExactly("/intake/v2/events");
+        final String[] lines = requestBodies.get(0).split("\n");
+        assertThat(lines).hasSize(3);
+        assertThat(lines[0]).startsWith("{\"metadata\":{");
+        assertThat(lines[1]).startsWith("{\"transaction\":{");
+        assertThat(lines[2]).startsWith("{\"transaction\":{");
+        final ObjectMapper objectMapper = new ObjectMapper();
+        for (String line : lines) {
+            assertThat(objectMapper.readTree(line).size()).isEqualTo(1);
+        }
+    }
 }
@@ -5,14 +5,35 @@ import co.elastic.apm.impl.payload.ProcessInfo;
 import co.elastic.apm.impl.payload.Service;
 import co.elastic.apm.impl.payload.SystemInfo;
 import co.elastic.apm.impl.transaction.Transaction;
+import co.elastic.apm.report.serialize.PayloadSerializer;
+import okio.Buffer;
+import okio.BufferedSink;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -20,15 +41,24 @@ class ApmServerReporterTest {
 
     private ApmServerReporter reporter;
     private PayloadSender payloadSender;
+    private PayloadSerializer payloadSerializer;
+    private ReporterConfiguration reporterConfiguration;
 
     @BeforeEach
-    void setUp() {
-        ReporterConfiguration reporterConfiguration = spy(new ReporterConfiguration());
+    void setUp() throws Exception {
+        reporterConfiguration = spy(new ReporterConfiguration());
         when(reporterConfiguration.getFlushInterval()).thenReturn(-1);
         when(reporterConfiguration.getMaxQueueSize()).thenReturn(2);
+        when(reporterConfiguration.getMaxErrorQueueSize()).thenReturn(2);
         SystemInfo system = new SystemInfo("x64", "localhost", "platform");
         payloadSender = mock(PayloadSender.class);
-        reporter = new ApmServerReporter(new Service(), new ProcessInfo("title"), system, payloadSender, true, reporterConfiguration);
+        when(payloadSender.isAvailable()).thenReturn(true);
+        doAnswer(invocation -> {
+            invocation.<PayloadBuffer>getArgument(0).onSendCompleted(true);
+            return null;
+        }).when(payloadSender).sendPayload(any());
+        payloadSerializer = mock(PayloadSerializer.class);
+        reporter = new ApmServerReporter(new Service(), new ProcessInfo("title"), system, payloadSender, payloadSerializer, true, reporterConfiguration);
     }
 
     @Test
@@ -39,7 +69,7 @@ class ApmServerReporterTest {
             reporter.report(transaction);
         }
         assertThat(reporter.getDropped()).isGreaterThan(0);
-        verify(payloadSender, atLeastOnce()).sendPayload(any());
+        verify(payloadSender, timeout(1000).atLeastOnce()).sendPayload(any());
         verify(transaction, atLeastOnce()).recycle();
     }
 
@@ -50,8 +80,291 @@ class ApmServerReporterTest {
         for (int i = 0; i < 100; i++) {
             reporter.report(error);
         }
-        assertThat(reporter.getDropped()).isGreaterThan(0);
-        verify(payloadSender, atLeastOnce()).sendPayload(any());
+        assertThat(reporter.getDroppedErrors()).isGreaterThan(0);
+        assertThat(reporter.getDropped()).isEqualTo(reporter.getDroppedErrors());
+        verify(payloadSender, timeout(1000).atLeastOnce()).sendPayload(any());
         verify(error, atLeastOnce()).recycle();
     }
+
+    @Test
+    void testDiscardEventsWithoutSerializing_ifServerIsUnavailable() throws Exception {
+        when(payloadSender.isAvailable()).thenReturn(false);
+        Transaction transaction = mock(Transaction.class);
+        reporter.report(transaction);
+        reporter.flush().get();
+        assertThat(reporter.getDropped()).isEqualTo(1);
+        verify(transaction).recycle();
+        verify(payloadSerializer, never()).serializeTransaction(any(), any());
+        verify(payloadSender, never()).sendPayload(any());
+    }
+
+    @Test
+    void testSplitPayloadsExceedingMaxPayloadSize() throws Exception {
+        when(reporterConfiguration.getMaxQueueSize()).thenReturn(100);
+        when(reporterConfiguration.getMaxPayloadSize()).thenReturn(100L);
+        doAnswer(invocation -> {
+            invocation.<BufferedSink>getArgument(0).writeUtf8("{\"padding\":\"" + new String(new char[40]).replace('\0', 'x') + "\"}");
+            return null;
+        }).when(payloadSerializer).serializeTransaction(any(), any());
+
+        final List<Long> payloadSizes = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            final PayloadBuffer payload = invocation.getArgument(0);
+            assertThat(payload.getNumberOfEvents()).isEqualTo(1);
+            payloadSizes.add(payload.getSize());
+            payload.onSendCompleted(true);
+            return null;
+        }).when(payloadSender).sendPayload(any());
+
+        reporter.report(mock(Transaction.class));
+        reporter.report(mock(Transaction.class));
+        reporter.flush().get();
+
+        verify(payloadSender, times(2 - reporter.getDropped())).sendPayload(any());
+        assertThat(payloadSizes).hasSize(2 - reporter.getDropped());
+        assertThat(payloadSizes).allMatch(size -> size <= 100);
+    }
+
+    @Test
+    void testFlushCompletesWhenPayloadsHaveBeenSent() throws Exception {
+        final ArgumentCaptor<PayloadBuffer> payload = ArgumentCaptor.forClass(PayloadBuffer.class);
+        doAnswer(invocation -> null).when(payloadSender).sendPayload(payload.capture());
+
+        reporter.report(mock(Transaction.class));
+        final Future<Boolean> flush = reporter.flush();
+
+        verify(payloadSender, timeout(1000)).sendPayload(any());
+        assertThatThrownBy(() -> flush.get(10, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+        assertThat(flush.isDone()).isFalse();
+
+        payload.getValue().onSendCompleted(true);
+        assertThat(flush.get(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(flush.isDone()).isTrue();
+    }
+
+    @Test
+    void testFlushFails_ifPayloadCouldNotBeSent() throws Exception {
+        doAnswer(invocation -> {
+            invocation.<PayloadBuffer>getArgument(0).onSendCompleted(false);
+            return null;
+        }).when(payloadSender).sendPayload(any());
+
+        reporter.report(mock(Transaction.class));
+        assertThat(reporter.flush().get()).isFalse();
+        // the failure only affects the flushes which have been waiting for the failed payload
+        assertThat(reporter.flush().get()).isTrue();
+    }
+
+    @Test
+    void testCloseWaitsForPayloadsInFlight() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            sending.countDown();
+            Thread.sleep(100);
+            calls.add("sent");
+            invocation.<PayloadBuffer>getArgument(0).onSendCompleted(true);
+            return null;
+        }).when(payloadSender).sendPayload(any());
+        doAnswer(invocation -> calls.add("closed")).when(payloadSender).close();
+
+        reporter.report(mock(Transaction.class));
+        reporter.flush();
+        sending.await();
+        reporter.close();
+
+        // the sender, which is shared by the transaction shard and the error lane, is only closed once the payload has been sent
+        assertThat(calls).containsExactly("sent", "closed", "closed");
+    }
+
+    @Test
+    void testCloseSendsEventsWhichAreWaitingForAStream() throws Exception {
+        when(reporterConfiguration.isStreamingIntake()).thenReturn(true);
+        reporter.close();
+        final EventStream eventStream = new EventStream(1024 * 1024);
+        // all requests are in use until the reporter is closed
+        when(payloadSender.openEventStream(any())).thenReturn(null, eventStream);
+        reporter = new ApmServerReporter(new Service(), new ProcessInfo("title"), new SystemInfo("x64", "localhost", "platform"),
+            payloadSender, payloadSerializer, true, reporterConfiguration);
+
+        reporter.report(new Transaction().start(null, 0, true));
+        reporter.close();
+
+        assertThat(reporter.getDropped()).isZero();
+        assertThat(eventStream.isClosed()).isTrue();
+        assertThat(eventStream.getNumberOfEvents()).isEqualTo(1);
+        final Buffer lines = new Buffer();
+        eventStream.writeTo(lines);
+        assertThat(lines.readUtf8LineStrict()).startsWith("{\"metadata\":");
+        assertThat(lines.readUtf8LineStrict()).startsWith("{\"transaction\":");
+        assertThat(lines.exhausted()).isTrue();
+    }
+
+    @Test
+    void testBackpressureDropNewest() throws Exception {
+        when(reporterConfiguration.getBackpressurePolicy()).thenReturn(BackpressurePolicy.DROP_NEWEST);
+        final CountDownLatch releaseConsumer = blockConsumer();
+        final Transaction dropped = mock(Transaction.class);
+
+        reporter.report(dropped);
+        releaseConsumer.countDown();
+        reporter.flush().get();
+
+        assertThat(reporter.getDroppedNewest()).isEqualTo(1);
+        assertThat(reporter.getDropped()).isEqualTo(1);
+        verify(dropped).recycle();
+        verify(payloadSerializer, never()).serializeTransaction(any(), eq(dropped));
+    }
+
+    @Test
+    void testBackpressureDropOldest() throws Exception {
+        when(reporterConfiguration.getBackpressurePolicy()).thenReturn(BackpressurePolicy.DROP_OLDEST);
+        when(reporterConfiguration.getBackpressureTimeout()).thenReturn(5000);
+        final Transaction oldest = mock(Transaction.class);
+        final CountDownLatch releaseConsumer = blockConsumer(oldest);
+        final Transaction newest = mock(Transaction.class);
+
+        // the reporting thread does not wait until the consumer gets to discard the oldest event
+        final long start = System.nanoTime();
+        reporter.report(newest);
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(5000));
+        verify(newest, never()).recycle();
+        releaseConsumer.countDown();
+        reporter.flush().get();
+
+        assertThat(reporter.getDroppedOldest()).isEqualTo(1);
+        assertThat(reporter.getDropped()).isEqualTo(1);
+        verify(oldest).recycle();
+        verify(payloadSerializer, never()).serializeTransaction(any(), eq(oldest));
+        verify(payloadSerializer).serializeTransaction(any(), eq(newest));
+    }
+
+    @Test
+    void testBackpressureDropOldest_keepsTheNewestEvents() throws Exception {
+        when(reporterConfiguration.getBackpressurePolicy()).thenReturn(BackpressurePolicy.DROP_OLDEST);
+        final Transaction queued = mock(Transaction.class);
+        final CountDownLatch releaseConsumer = blockConsumer(queued);
+        final Transaction displaced = mock(Transaction.class);
+        final Transaction second = mock(Transaction.class);
+        final Transaction newest = mock(Transaction.class);
+
+        reporter.report(displaced);
+        reporter.report(second);
+        // a further overflow does not discard the previous one while there is room for as many events as the ring buffer holds
+        verify(displaced, never()).recycle();
+        reporter.report(newest);
+        verify(displaced).recycle();
+        releaseConsumer.countDown();
+        reporter.flush().get();
+
+        assertThat(reporter.getDroppedOldest()).isEqualTo(2);
+        verify(queued).recycle();
+        verify(payloadSerializer, never()).serializeTransaction(any(), eq(queued));
+        verify(payloadSerializer, never()).serializeTransaction(any(), eq(displaced));
+        final InOrder inOrder = inOrder(payloadSerializer);
+        inOrder.verify(payloadSerializer).serializeTransaction(any(), eq(second));
+        inOrder.verify(payloadSerializer).serializeTransaction(any(), eq(newest));
+    }
+
+    @Test
+    void testBackpressureBlockWithTimeout() throws Exception {
+        when(reporterConfiguration.getBackpressurePolicy()).thenReturn(BackpressurePolicy.BLOCK_WITH_TIMEOUT);
+        when(reporterConfiguration.getBackpressureTimeout()).thenReturn(20);
+        final CountDownLatch releaseConsumer = blockConsumer();
+        final Transaction dropped = mock(Transaction.class);
+
+        final long start = System.nanoTime();
+        reporter.report(dropped);
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+        releaseConsumer.countDown();
+        reporter.flush().get();
+
+        assertThat(reporter.getBackpressureTimeouts()).isEqualTo(1);
+        assertThat(reporter.getDropped()).isEqualTo(1);
+        verify(dropped).recycle();
+    }
+
+    @Test
+    void testBackpressureAggregate() throws Exception {
+        when(reporterConfiguration.getBackpressurePolicy()).thenReturn(BackpressurePolicy.AGGREGATE);
+        final CountDownLatch releaseConsumer = blockConsumer();
+        final Transaction transaction = mock(Transaction.class);
+        when(transaction.getDuration()).thenReturn(42.0);
+
+        reporter.report(transaction);
+        releaseConsumer.countDown();
+        reporter.flush().get();
+
+        assertThat(reporter.getAggregatedTransactions().getCount()).isEqualTo(1);
+        assertThat(reporter.getAggregatedTransactions().getTotalDurationMs()).isEqualTo(42.0);
+        verify(transaction).recycle();
+    }
+
+    @Test
+    void testErrorsAreReported_ifTransactionQueueIsFull() throws Exception {
+        final CountDownLatch releaseConsumer = blockConsumer();
+        final Transaction droppedTransaction = mock(Transaction.class);
+        final ErrorCapture error = mock(ErrorCapture.class);
+
+        reporter.report(droppedTransaction);
+        reporter.report(error);
+
+        verify(payloadSerializer, timeout(1000)).serializeError(any(), eq(error));
+        assertThat(reporter.getDropped()).isEqualTo(1);
+        assertThat(reporter.getDroppedErrors()).isZero();
+        releaseConsumer.countDown();
+        reporter.flush().get();
+        verify(error).recycle();
+    }
+
+    @Test
+    void testMultipleReporterThreads() throws Exception {
+        when(reporterConfiguration.getReporterThreads()).thenReturn(2);
+        when(reporterConfiguration.getMaxQueueSize()).thenReturn(100);
+        reporter.close();
+        reporter = new ApmServerReporter(new Service(), new ProcessInfo("title"), new SystemInfo("x64", "localhost", "platform"),
+            payloadSender, payloadSerializer, false, reporterConfiguration);
+        final Set<String> reporterThreads = ConcurrentHashMap.newKeySet();
+        doAnswer(invocation -> {
+            reporterThreads.add(Thread.currentThread().getName());
+            return null;
+        }).when(payloadSerializer).serializeTransaction(any(), any());
+
+        final Thread firstThread = new Thread(() -> reporter.report(mock(Transaction.class)));
+        final Thread secondThread = new Thread(() -> reporter.report(mock(Transaction.class)));
+        // the shard is selected by the thread id
+        assertThat(firstThread.getId() % 2).isNotEqualTo(secondThread.getId() % 2);
+        firstThread.start();
+        secondThread.start();
+        firstThread.join();
+        secondThread.join();
+
+        assertThat(reporter.flush().get()).isTrue();
+        assertThat(reporterThreads).containsExactlyInAnyOrder("apm-reporter-0", "apm-reporter-1");
+        verify(payloadSender, times(2)).sendPayload(any());
+    }
+
+    private CountDownLatch blockConsumer() throws Exception {
+        return blockConsumer(mock(Transaction.class));
+    }
+
+    /**
+     * Blocks the consumer while it serializes the first transaction and fills the ring buffer with the given transaction,
+     * so that the next reported event hits a full ring buffer.
+     */
+    private CountDownLatch blockConsumer(Transaction queued) throws Exception {
+        final Transaction first = mock(Transaction.class);
+        final CountDownLatch serializing = new CountDownLatch(1);
+        final CountDownLatch releaseConsumer = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            serializing.countDown();
+            releaseConsumer.await();
+            return null;
+        }).when(payloadSerializer).serializeTransaction(any(), eq(first));
+        reporter.report(first);
+        serializing.await();
+        // the ring buffer has two slots, one of which is still occupied by the first transaction
+        reporter.report(queued);
+        return releaseConsumer;
+    }
 }
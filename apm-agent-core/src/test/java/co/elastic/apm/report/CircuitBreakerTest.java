@@ -0,0 +1,81 @@
+package co.elastic.apm.report;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private long nanoTime = 0;
+
+    @Test
+    void testOpenAfterConsecutiveFailures() {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            circuitBreaker.onFailure(nanoTime);
+        }
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.allowRequest(nanoTime)).isTrue();
+
+        circuitBreaker.onFailure(nanoTime);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.allowRequest(nanoTime)).isFalse();
+        assertThat(circuitBreaker.isAvailable(nanoTime)).isFalse();
+    }
+
+    @Test
+    void testSuccessResetsFailures() {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            circuitBreaker.onFailure(nanoTime);
+        }
+        circuitBreaker.onSuccess();
+        circuitBreaker.onFailure(nanoTime);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void testHalfOpenAfterBackoff() {
+        open();
+        nanoTime += CircuitBreaker.INITIAL_BACKOFF_NANOS;
+        assertThat(circuitBreaker.isAvailable(nanoTime)).isTrue();
+        // only one probe is let through
+        assertThat(circuitBreaker.allowRequest(nanoTime)).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.allowRequest(nanoTime)).isFalse();
+
+        circuitBreaker.onSuccess();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.allowRequest(nanoTime)).isTrue();
+    }
+
+    @Test
+    void testFailedProbeOpensAgain() {
+        open();
+        nanoTime += CircuitBreaker.INITIAL_BACKOFF_NANOS;
+        assertThat(circuitBreaker.allowRequest(nanoTime)).isTrue();
+        circuitBreaker.onFailure(nanoTime);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        // the backoff has doubled, so the half of it which is not jittered exceeds the initial backoff
+        nanoTime += CircuitBreaker.INITIAL_BACKOFF_NANOS - 1;
+        assertThat(circuitBreaker.allowRequest(nanoTime)).isFalse();
+    }
+
+    @Test
+    void testBackoff() {
+        for (int i = 0; i < 32; i++) {
+            final long exponentialBackoff = Math.min(CircuitBreaker.MAX_BACKOFF_NANOS, CircuitBreaker.INITIAL_BACKOFF_NANOS << Math.min(i, 16));
+            assertThat(CircuitBreaker.getBackoffNanos(i))
+                .isGreaterThanOrEqualTo(exponentialBackoff / 2)
+                .isLessThanOrEqualTo(exponentialBackoff);
+        }
+        assertThat(CircuitBreaker.getBackoffNanos(100)).isLessThanOrEqualTo(TimeUnit.MINUTES.toNanos(1));
+    }
+
+    private void open() {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            circuitBreaker.onFailure(nanoTime);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package co.elastic.apm.report;
+
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventStreamTest {
+
+    @Test
+    void testTransferLinesUntilClosed() throws Exception {
+        final EventStream eventStream = new EventStream(1024);
+        final Buffer sink = new Buffer();
+        final Thread transferThread = new Thread(() -> {
+            try {
+                eventStream.writeTo(sink);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        transferThread.start();
+
+        assertThat(eventStream.write(new Buffer().writeUtf8("{\"transaction\":{}}\n"))).isTrue();
+        assertThat(eventStream.write(new Buffer().writeUtf8("{\"error\":{}}\n"))).isTrue();
+        eventStream.close();
+        transferThread.join(1000);
+
+        assertThat(transferThread.isAlive()).isFalse();
+        assertThat(sink.readUtf8()).isEqualTo("{\"transaction\":{}}\n{\"error\":{}}\n");
+        assertThat(eventStream.getBytesWritten()).isEqualTo(32);
+    }
+
+    @Test
+    void testRejectLinesExceedingBuffer() {
+        final EventStream eventStream = new EventStream(16);
+        final Buffer line = new Buffer().writeUtf8("{\"transaction\":{}}\n");
+
+        assertThat(eventStream.write(line)).isFalse();
+        assertThat(line.size()).isEqualTo(19);
+        assertThat(eventStream.getBytesWritten()).isZero();
+    }
+
+    @Test
+    void testRejectLinesAfterRequestCompleted() {
+        final EventStream eventStream = new EventStream(1024);
+        eventStream.onSendCompleted(false);
+
+        assertThat(eventStream.isClosed()).isTrue();
+        assertThat(eventStream.write(new Buffer().writeUtf8("{}\n"))).isFalse();
+    }
+
+    @Test
+    void testNotifyListenerWhichRegistersAfterCompletion() {
+        final EventStream eventStream = new EventStream(1024);
+        final AtomicBoolean success = new AtomicBoolean();
+        final AtomicLong completedSequence = new AtomicLong();
+        eventStream.onSendCompleted(true);
+
+        eventStream.setSendListener((sequence, result) -> {
+            completedSequence.set(sequence);
+            success.set(result);
+        }, 42);
+
+        assertThat(completedSequence.get()).isEqualTo(42);
+        assertThat(success.get()).isTrue();
+    }
+}
@@ -0,0 +1,101 @@
+package co.elastic.apm.report.compression;
+
+import co.elastic.apm.report.ReporterConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.OperatingSystemMXBean;
+import java.util.zip.Deflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+class AdaptiveCompressionLevelTest {
+
+    private ReporterConfiguration reporterConfiguration;
+    private OperatingSystemMXBean operatingSystem;
+
+    @BeforeEach
+    void setUp() {
+        reporterConfiguration = spy(new ReporterConfiguration());
+        operatingSystem = mock(OperatingSystemMXBean.class);
+        when(operatingSystem.getAvailableProcessors()).thenReturn(4);
+    }
+
+    @Test
+    void testDefaultLevelWithoutMeasurements() {
+        when(operatingSystem.getSystemLoadAverage()).thenReturn(1.0);
+
+        assertThat(new AdaptiveCompressionLevel(reporterConfiguration, operatingSystem).getLevel())
+            .isEqualTo(AdaptiveCompressionLevel.DEFAULT_LEVEL);
+    }
+
+    @Test
+    void testConfiguredLevel() {
+        when(reporterConfiguration.getCompressionLevel()).thenReturn(9);
+        when(operatingSystem.getSystemLoadAverage()).thenReturn(16.0);
+
+        assertThat(new AdaptiveCompressionLevel(reporterConfiguration, operatingSystem).getLevel()).isEqualTo(9);
+    }
+
+    @Test
+    void testBusyCpu() {
+        when(operatingSystem.getSystemLoadAverage()).thenReturn(4.0);
+        final AdaptiveCompressionLevel compressionLevel = new AdaptiveCompressionLevel(reporterConfiguration, operatingSystem);
+        onRequestCompleted(compressionLevel, AdaptiveCompressionLevel.SLOW_CONNECTION_BYTES_PER_SECOND / 10);
+
+        assertThat(compressionLevel.getLevel()).isEqualTo(Deflater.BEST_SPEED);
+    }
+
+    @Test
+    void testSlowConnectionAndIdleCpu() {
+        when(operatingSystem.getSystemLoadAverage()).thenReturn(1.0);
+        final AdaptiveCompressionLevel compressionLevel = new AdaptiveCompressionLevel(reporterConfiguration, operatingSystem);
+        onRequestCompleted(compressionLevel, AdaptiveCompressionLevel.SLOW_CONNECTION_BYTES_PER_SECOND / 10);
+
+        assertThat(compressionLevel.getLevel()).isEqualTo(AdaptiveCompressionLevel.HIGH_LEVEL);
+    }
+
+    @Test
+    void testSlowConnectionAndUnknownLoad() {
+        when(operatingSystem.getSystemLoadAverage()).thenReturn(-1.0);
+        final AdaptiveCompressionLevel compressionLevel = new AdaptiveCompressionLevel(reporterConfiguration, operatingSystem);
+        onRequestCompleted(compressionLevel, AdaptiveCompressionLevel.SLOW_CONNECTION_BYTES_PER_SECOND / 10);
+
+        assertThat(compressionLevel.getLevel()).isEqualTo(AdaptiveCompressionLevel.DEFAULT_LEVEL);
+    }
+
+    @Test
+    void testFastConnection() {
+        when(operatingSystem.getSystemLoadAverage()).thenReturn(1.0);
+        final AdaptiveCompressionLevel compressionLevel = new AdaptiveCompressionLevel(reporterConfiguration, operatingSystem);
+        onRequestCompleted(compressionLevel, AdaptiveCompressionLevel.FAST_CONNECTION_BYTES_PER_SECOND * 2);
+
+        assertThat(compressionLevel.getLevel()).isEqualTo(Deflater.BEST_SPEED);
+    }
+
+    @Test
+    void testThroughputIsSmoothed() {
+        final AdaptiveCompressionLevel compressionLevel = new AdaptiveCompressionLevel(reporterConfiguration, operatingSystem);
+        onRequestCompleted(compressionLevel, 1000);
+        onRequestCompleted(compressionLevel, 2000);
+
+        assertThat(compressionLevel.getBytesPerSecond()).isBetween(1000.0, 2000.0);
+    }
+
+    @Test
+    void testInvalidMeasurementsAreIgnored() {
+        final AdaptiveCompressionLevel compressionLevel = new AdaptiveCompressionLevel(reporterConfiguration, operatingSystem);
+        compressionLevel.onRequestCompleted(1000, 0);
+        compressionLevel.onRequestCompleted(0, 1000);
+
+        assertThat(compressionLevel.getBytesPerSecond()).isEqualTo(0);
+    }
+
+    private void onRequestCompleted(AdaptiveCompressionLevel compressionLevel, long bytesPerSecond) {
+        // one second
+        compressionLevel.onRequestCompleted(bytesPerSecond, 1_000_000_000L);
+    }
+}
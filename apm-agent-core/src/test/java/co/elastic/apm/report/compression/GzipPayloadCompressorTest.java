@@ -0,0 +1,155 @@
+package co.elastic.apm.report.compression;
+
+import co.elastic.apm.report.ReporterConfiguration;
+import okio.Buffer;
+import okio.Okio;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+class GzipPayloadCompressorTest {
+
+    private ReporterConfiguration reporterConfiguration;
+
+    @BeforeEach
+    void setUp() {
+        reporterConfiguration = spy(new ReporterConfiguration());
+        when(reporterConfiguration.getMaxConcurrentRequests()).thenReturn(1);
+    }
+
+    @Test
+    void testSmallPayloadIsCompressed() throws IOException {
+        final GzipPayloadCompressor compressor = createCompressor(2);
+        final Buffer payload = createPayload(1024);
+
+        assertRoundTrip(compressor, payload);
+    }
+
+    @Test
+    void testEmptyPayload() throws IOException {
+        assertRoundTrip(createCompressor(0), new Buffer());
+    }
+
+    @Test
+    void testLargePayloadIsCompressedInParallel() throws Exception {
+        final GzipPayloadCompressor compressor = createCompressor(2);
+        final Buffer payload = createPayload(5 * GzipPayloadCompressor.CHUNK_SIZE / 2);
+
+        final Buffer compressed = assertRoundTrip(compressor, payload);
+
+        assertThat(countGzipMembers(compressed)).isEqualTo(3);
+    }
+
+    @Test
+    void testLargePayloadWithoutCompressionThreads() throws Exception {
+        final GzipPayloadCompressor compressor = createCompressor(0);
+
+        final Buffer compressed = assertRoundTrip(compressor, createPayload(3 * GzipPayloadCompressor.CHUNK_SIZE));
+
+        assertThat(countGzipMembers(compressed)).isEqualTo(1);
+    }
+
+    @Test
+    void testLargePayloadAfterClose() throws Exception {
+        final GzipPayloadCompressor compressor = createCompressor(2);
+        compressor.close();
+        compressor.close();
+
+        final Buffer compressed = assertRoundTrip(compressor, createPayload(3 * GzipPayloadCompressor.CHUNK_SIZE));
+
+        assertThat(countGzipMembers(compressed)).isEqualTo(1);
+    }
+
+    @Test
+    void testDeflatersAreReused() throws IOException {
+        final GzipPayloadCompressor compressor = createCompressor(0);
+        final Buffer payload = createPayload(1024);
+
+        final Buffer first = assertRoundTrip(compressor, payload);
+        final Buffer second = assertRoundTrip(compressor, payload);
+
+        assertThat(second).isEqualTo(first);
+        assertThat(compressor.getPooledDeflaters()).isEqualTo(1);
+    }
+
+    @Test
+    void testConfiguredLevel() throws IOException {
+        final Buffer payload = createPayload(64 * 1024);
+        when(reporterConfiguration.getCompressionLevel()).thenReturn(1);
+        final Buffer fast = assertRoundTrip(createCompressor(0), payload);
+        when(reporterConfiguration.getCompressionLevel()).thenReturn(9);
+        final Buffer best = assertRoundTrip(createCompressor(0), payload);
+
+        assertThat(best.size()).isLessThan(fast.size());
+    }
+
+    @Test
+    void testCompressionDisabled() throws IOException {
+        when(reporterConfiguration.getCompressionLevel()).thenReturn(0);
+        final GzipPayloadCompressor compressor = createCompressor(0);
+
+        assertThat(compressor.getContentEncoding()).isNull();
+        // still produces a valid gzip stream in case the level changes between choosing the encoding and compressing
+        assertRoundTrip(compressor, createPayload(1024));
+    }
+
+    @Test
+    void testContentEncoding() {
+        assertThat(createCompressor(0).getContentEncoding()).isEqualTo("gzip");
+    }
+
+    private GzipPayloadCompressor createCompressor(int compressionThreads) {
+        return new GzipPayloadCompressor(reporterConfiguration, new AdaptiveCompressionLevel(reporterConfiguration), compressionThreads);
+    }
+
+    private Buffer assertRoundTrip(GzipPayloadCompressor compressor, Buffer payload) throws IOException {
+        final long size = payload.size();
+        final Buffer compressed = new Buffer();
+        compressor.compress(payload, compressed);
+
+        // the source is not consumed
+        assertThat(payload.size()).isEqualTo(size);
+        final Buffer decompressed = new Buffer();
+        decompressed.writeAll(Okio.source(new GZIPInputStream(compressed.clone().inputStream())));
+        assertThat(decompressed).isEqualTo(payload);
+        return compressed;
+    }
+
+    private Buffer createPayload(int size) {
+        final Buffer payload = new Buffer();
+        for (int i = 0; payload.size() < size; i++) {
+            payload.writeUtf8("{\"name\":\"GET /api/").writeDecimalLong(i % 100).writeUtf8("\",\"duration\":").writeDecimalLong(i).writeUtf8("}\n");
+        }
+        final Buffer truncated = new Buffer();
+        truncated.write(payload, size);
+        return truncated;
+    }
+
+    private int countGzipMembers(Buffer compressed) throws DataFormatException {
+        final byte[] bytes = compressed.readByteArray();
+        final byte[] output = new byte[8192];
+        int members = 0;
+        int offset = 0;
+        while (offset < bytes.length) {
+            final Inflater inflater = new Inflater(true);
+            // skip the header
+            inflater.setInput(bytes, offset + 10, bytes.length - offset - 10);
+            while (!inflater.finished()) {
+                inflater.inflate(output);
+            }
+            // skip the trailer
+            offset = bytes.length - inflater.getRemaining() + 8;
+            inflater.end();
+            members++;
+        }
+        return members;
+    }
+}
@@ -0,0 +1,141 @@
+package co.elastic.apm.report.serialize;
+
+import co.elastic.apm.impl.ElasticApmTracer;
+import co.elastic.apm.impl.error.ErrorCapture;
+import co.elastic.apm.impl.payload.ProcessInfo;
+import co.elastic.apm.impl.payload.Service;
+import co.elastic.apm.impl.payload.SystemInfo;
+import co.elastic.apm.impl.payload.TransactionPayload;
+import co.elastic.apm.impl.stacktrace.Stacktrace;
+import co.elastic.apm.impl.transaction.Span;
+import co.elastic.apm.impl.transaction.Transaction;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okio.Buffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class DirectJsonPayloadSerializerTest {
+
+    private ObjectMapper objectMapper;
+    private JacksonPayloadSerializer jacksonSerializer;
+    private DirectJsonPayloadSerializer directSerializer;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = new ObjectMapper();
+        jacksonSerializer = new JacksonPayloadSerializer(objectMapper);
+        directSerializer = new DirectJsonPayloadSerializer();
+    }
+
+    @Test
+    void testTransactionIsSerializedLikeJackson() throws IOException {
+        final Transaction transaction = new Transaction();
+        transaction.start(mock(ElasticApmTracer.class), 0, true)
+            .withName("GET /foo \"bar\"\n\u0001 ü 😀")
+            .withType("request")
+            .withResult("200");
+        transaction.getContext().getRequest()
+            .withMethod("GET")
+            .addHeader("Accept", "text/html")
+            .addHeader("Accept", "application/json")
+            .addCookie("foo", "bar")
+            .withRawBody("body")
+            .getUrl().withFull("http://localhost:8080/foo\\bar").withPort("8080");
+        transaction.getContext().getResponse().withStatusCode(200).withFinished(true).addHeader("Content-Type", "text/html");
+        transaction.getContext().getCustom().put("list", Arrays.asList(1, "two", true, null));
+        transaction.getContext().getTags().put("foo", "bar");
+        transaction.setUser("id", "email", null);
+        transaction.getSpanCount().getDropped().increment();
+        final Span span = new Span();
+        span.start(mock(ElasticApmTracer.class), transaction, null, 1_234, false)
+            .withName("SELECT")
+            .withType("db.sql")
+            .getContext().getDb().withStatement("SELECT 1");
+        span.getStacktrace().add(new Stacktrace().withFunction("foo").withFilename("Foo.java").withLineno(42));
+        transaction.addSpan(span);
+        transaction.addSpan(new Span().start(mock(ElasticApmTracer.class), transaction, span, 2_000, false));
+
+        final Buffer jacksonBuffer = new Buffer();
+        jacksonSerializer.serializeTransaction(jacksonBuffer, transaction);
+        final Buffer directBuffer = new Buffer();
+        directSerializer.serializeTransaction(directBuffer, transaction);
+
+        assertThat(readTree(directBuffer)).isEqualTo(readTree(jacksonBuffer));
+    }
+
+    @Test
+    void testErrorIsSerializedLikeJackson() throws IOException {
+        final ErrorCapture error = new ErrorCapture();
+        error.getId().setToRandomValue();
+        error.getTransaction().getId().setToRandomValue();
+        error.withTimestamp(951782400123L);
+        error.getException().withMessage("message").withType("java.lang.Exception")
+            .getStacktrace().add(new Stacktrace().withFunction("foo").withLineno(42).withLibraryFrame(true));
+        error.getLog().withMessage("message");
+
+        final Buffer jacksonBuffer = new Buffer();
+        jacksonSerializer.serializeError(jacksonBuffer, error);
+        final Buffer directBuffer = new Buffer();
+        directSerializer.serializeError(directBuffer, error);
+
+        final JsonNode directJson = readTree(directBuffer);
+        assertThat(directJson).isEqualTo(readTree(jacksonBuffer));
+        assertThat(directJson.get("timestamp").textValue()).isEqualTo("2000-02-29T00:00:00.123Z");
+    }
+
+    @Test
+    void testDurationIsWrittenWithMicrosecondPrecision() throws IOException {
+        final Transaction transaction = new Transaction();
+        transaction.start(mock(ElasticApmTracer.class), 0, true);
+        final Span span = new Span();
+        span.start(mock(ElasticApmTracer.class), transaction, null, 1_234_567, false);
+        span.end(3_000_001);
+        transaction.addSpan(span);
+
+        final Buffer buffer = new Buffer();
+        directSerializer.serializeTransaction(buffer, transaction);
+
+        assertThat(buffer.readUtf8()).contains("\"start\":1234.567").contains("\"duration\":1765.434");
+    }
+
+    @Test
+    void testMetadataIsEncodedAgainAfterServiceHasChanged() throws IOException {
+        final Service service = new Service().withName("service").withVersion("1.0");
+        final TransactionPayload payload = new TransactionPayload(new ProcessInfo("title"), service, new SystemInfo("x64", "localhost", "Linux"));
+        final Buffer buffer = new Buffer();
+
+        directSerializer.serializeMetadata(buffer, payload);
+        assertThat(buffer.readUtf8()).contains("\"version\":\"1.0\"");
+
+        service.withVersion("2.0");
+        directSerializer.serializeMetadata(buffer, payload);
+        assertThat(buffer.readUtf8()).contains("\"version\":\"2.0\"");
+    }
+
+    @Test
+    void testRepeatedValuesAreSerializedConsistently() throws IOException {
+        final Transaction transaction = new Transaction();
+        transaction.start(mock(ElasticApmTracer.class), 0, true).withType("request").withResult("HTTP 2xx");
+        transaction.getContext().getRequest().withMethod("GET").addHeader("Content-Type", "text/\"html\"");
+
+        final Buffer buffer = new Buffer();
+        directSerializer.serializeTransaction(buffer, transaction);
+        final JsonNode first = readTree(buffer);
+        directSerializer.serializeTransaction(buffer, transaction);
+
+        assertThat(readTree(buffer)).isEqualTo(first);
+        assertThat(first.get("result").textValue()).isEqualTo("HTTP 2xx");
+        assertThat(first.get("context").get("request").get("headers").get("Content-Type").textValue()).isEqualTo("text/\"html\"");
+    }
+
+    private JsonNode readTree(Buffer buffer) throws IOException {
+        return objectMapper.readTree(buffer.readUtf8());
+    }
+}
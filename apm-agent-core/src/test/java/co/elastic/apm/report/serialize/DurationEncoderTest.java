@@ -0,0 +1,33 @@
+package co.elastic.apm.report.serialize;
+
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DurationEncoderTest {
+
+    @Test
+    void testDurationsAreRoundedToMicroseconds() throws IOException {
+        assertThat(encode(0)).isEqualTo("0.000");
+        assertThat(encode(1.5)).isEqualTo("1.500");
+        assertThat(encode(12.3456)).isEqualTo("12.346");
+        assertThat(encode(0.0004)).isEqualTo("0.000");
+        assertThat(encode(-5.0016)).isEqualTo("-5.002");
+        assertThat(encode(123456789.012)).isEqualTo("123456789.012");
+    }
+
+    @Test
+    void testNonFiniteDurationsAreWrittenAsStrings() throws IOException {
+        assertThat(encode(Double.NaN)).isEqualTo("\"NaN\"");
+        assertThat(encode(Double.POSITIVE_INFINITY)).isEqualTo("\"Infinity\"");
+    }
+
+    private String encode(double millis) throws IOException {
+        final Buffer buffer = new Buffer();
+        DurationEncoder.writeMillis(buffer, millis);
+        return buffer.readUtf8();
+    }
+}
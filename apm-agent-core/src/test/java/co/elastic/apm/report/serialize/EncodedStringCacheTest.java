@@ -0,0 +1,24 @@
+package co.elastic.apm.report.serialize;
+
+import okio.ByteString;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EncodedStringCacheTest {
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        final EncodedStringCache cache = new EncodedStringCache(2);
+        cache.put("foo", ByteString.encodeUtf8("\"foo\""));
+        cache.put("bar", ByteString.encodeUtf8("\"bar\""));
+        assertThat(cache.get("foo")).isEqualTo(ByteString.encodeUtf8("\"foo\""));
+
+        cache.put("baz", ByteString.encodeUtf8("\"baz\""));
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("foo")).isNotNull();
+        assertThat(cache.get("bar")).isNull();
+        assertThat(cache.get("baz")).isNotNull();
+    }
+}
@@ -0,0 +1,40 @@
+package co.elastic.apm.report.serialize;
+
+import okio.Buffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimestampEncoderTest {
+
+    private final TimestampEncoder timestampEncoder = new TimestampEncoder();
+
+    @Test
+    void testTimestampsAreFormattedInUtc() throws IOException {
+        assertThat(encode(0)).isEqualTo("\"1970-01-01T00:00:00.000Z\"");
+        assertThat(encode(-1)).isEqualTo("\"1969-12-31T23:59:59.999Z\"");
+        assertThat(encode(951782400123L)).isEqualTo("\"2000-02-29T00:00:00.123Z\"");
+        assertThat(encode(4102444799999L)).isEqualTo("\"2099-12-31T23:59:59.999Z\"");
+    }
+
+    @Test
+    void testConsecutiveTimestampsAreFormattedLikeSimpleDateFormat() throws IOException {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final long start = System.currentTimeMillis();
+        for (long timestamp = start; timestamp < start + 5000; timestamp += 7) {
+            assertThat(encode(timestamp)).isEqualTo("\"" + dateFormat.format(new Date(timestamp)) + "\"");
+        }
+    }
+
+    private String encode(long epochMillis) throws IOException {
+        final Buffer buffer = new Buffer();
+        timestampEncoder.writeTimestamp(buffer, epochMillis);
+        return buffer.readUtf8();
+    }
+}
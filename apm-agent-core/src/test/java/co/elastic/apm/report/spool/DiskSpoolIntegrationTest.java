@@ -0,0 +1,90 @@
+package co.elastic.apm.report.spool;
+
+import co.elastic.apm.impl.payload.ProcessInfo;
+import co.elastic.apm.impl.payload.Service;
+import co.elastic.apm.impl.payload.SystemInfo;
+import co.elastic.apm.impl.transaction.Transaction;
+import co.elastic.apm.report.ApmServerHttpPayloadSender;
+import co.elastic.apm.report.ApmServerReporter;
+import co.elastic.apm.report.ReporterConfiguration;
+import co.elastic.apm.report.serialize.JacksonPayloadSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.undertow.Undertow;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+class DiskSpoolIntegrationTest {
+
+    private final AtomicInteger receivedHttpRequests = new AtomicInteger();
+    private Undertow server;
+    private int port;
+    private File spoolDir;
+    private DiskSpool spool;
+    private ApmServerReporter reporter;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        startServer(0);
+        port = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+        spoolDir = Files.createTempDirectory("apm-spool").toFile();
+        spool = new DiskSpool(spoolDir, 1024 * 1024);
+        ReporterConfiguration reporterConfiguration = spy(new ReporterConfiguration());
+        when(reporterConfiguration.getFlushInterval()).thenReturn(-1);
+        when(reporterConfiguration.getServerUrl()).thenReturn("http://localhost:" + port);
+        reporter = new ApmServerReporter(new Service(), new ProcessInfo("title"), new SystemInfo("x64", "localhost", "platform"),
+            new ApmServerHttpPayloadSender(new OkHttpClient(), reporterConfiguration, spool),
+            new JacksonPayloadSerializer(new ObjectMapper()), false, reporterConfiguration, spool);
+    }
+
+    @AfterEach
+    void tearDown() {
+        reporter.close();
+        server.stop();
+        final File[] files = spoolDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        spoolDir.delete();
+    }
+
+    @Test
+    void testReplaySpooledPayloadsAfterServerRestart() throws Exception {
+        server.stop();
+
+        reporter.report(new Transaction());
+        // the payload has been spooled instead of being sent
+        assertThat(reporter.flush().get()).isFalse();
+        assertThat(spool.isEmpty()).isFalse();
+        assertThat(reporter.getDropped()).isZero();
+
+        startServer(port);
+        for (int i = 0; i < 100 && receivedHttpRequests.get() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(receivedHttpRequests.get()).isEqualTo(1);
+        assertThat(spool.isEmpty()).isTrue();
+    }
+
+    private void startServer(int port) {
+        server = Undertow.builder()
+            .addHttpListener(port, "127.0.0.1")
+            .setHandler(exchange -> {
+                receivedHttpRequests.incrementAndGet();
+                exchange.setStatusCode(200).endExchange();
+            }).build();
+        server.start();
+    }
+}
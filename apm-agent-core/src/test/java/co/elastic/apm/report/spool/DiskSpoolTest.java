@@ -0,0 +1,161 @@
+package co.elastic.apm.report.spool;
+
+import co.elastic.apm.impl.error.ErrorPayload;
+import co.elastic.apm.impl.payload.Payload;
+import co.elastic.apm.impl.payload.ProcessInfo;
+import co.elastic.apm.impl.payload.Service;
+import co.elastic.apm.impl.payload.SystemInfo;
+import co.elastic.apm.impl.payload.TransactionPayload;
+import co.elastic.apm.objectpool.ObjectPool;
+import co.elastic.apm.report.PayloadBuffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class DiskSpoolTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+    private File directory;
+    private DiskSpool spool;
+    private TransactionPayload transactionMetadata;
+    private ErrorPayload errorMetadata;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("apm-spool").toFile();
+        spool = new DiskSpool(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+        final SystemInfo system = new SystemInfo("x64", "localhost", "platform");
+        transactionMetadata = new TransactionPayload(new ProcessInfo("title"), new Service(), system);
+        errorMetadata = new ErrorPayload(new ProcessInfo("title"), new Service(), system);
+    }
+
+    @AfterEach
+    void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    void testAppendAndPoll() {
+        assertThat(spool.isEmpty()).isTrue();
+        assertThat(spool.append(createPayload(transactionMetadata, "transactions", 3))).isTrue();
+        assertThat(spool.append(createPayload(errorMetadata, "errors", 1))).isTrue();
+        assertThat(spool.isEmpty()).isFalse();
+
+        PayloadBuffer payload = createEmptyPayload();
+        assertThat(spool.poll(payload, transactionMetadata, errorMetadata)).isTrue();
+        assertThat(payload.isErrorPayload()).isFalse();
+        assertThat(payload.getNumberOfEvents()).isEqualTo(3);
+        assertThat(payload.getBuffer().readUtf8()).isEqualTo("transactions");
+
+        payload = createEmptyPayload();
+        assertThat(spool.poll(payload, transactionMetadata, errorMetadata)).isTrue();
+        assertThat(payload.isErrorPayload()).isTrue();
+        assertThat(payload.getNumberOfEvents()).isEqualTo(1);
+        assertThat(payload.getBuffer().readUtf8()).isEqualTo("errors");
+
+        assertThat(spool.poll(createEmptyPayload(), transactionMetadata, errorMetadata)).isFalse();
+        assertThat(spool.isEmpty()).isTrue();
+    }
+
+    @Test
+    void testConsumedSegmentsAreDeleted() {
+        for (int i = 0; i < 3; i++) {
+            assertThat(spool.append(createPayload(transactionMetadata, new String(new char[SEGMENT_SIZE / 2]).replace('\0', 'x'), 1))).isTrue();
+        }
+        assertThat(spool.getNumberOfSegments()).isEqualTo(3);
+        assertThat(directory.listFiles()).hasSize(3);
+
+        while (spool.poll(createEmptyPayload(), transactionMetadata, errorMetadata)) {
+        }
+        // the segment which is currently being written to is kept
+        assertThat(spool.getNumberOfSegments()).isEqualTo(1);
+        assertThat(directory.listFiles()).hasSize(1);
+    }
+
+    @Test
+    void testDiskBudget() {
+        final String halfSegment = new String(new char[SEGMENT_SIZE / 2]).replace('\0', 'x');
+        for (int i = 0; i < 4; i++) {
+            assertThat(spool.append(createPayload(transactionMetadata, halfSegment, 1))).isTrue();
+        }
+        assertThat(spool.append(createPayload(transactionMetadata, halfSegment, 1))).isFalse();
+        assertThat(spool.append(createPayload(transactionMetadata, new String(new char[SEGMENT_SIZE]), 1))).isFalse();
+    }
+
+    @Test
+    void testRecoverSegmentsOfPreviousRun() throws IOException {
+        spool.append(createPayload(transactionMetadata, "foo", 1));
+        spool.append(createPayload(transactionMetadata, "bar", 1));
+
+        spool = new DiskSpool(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+        spool.append(createPayload(transactionMetadata, "baz", 1));
+
+        for (String expected : new String[]{"foo", "bar", "baz"}) {
+            final PayloadBuffer payload = createEmptyPayload();
+            assertThat(spool.poll(payload, transactionMetadata, errorMetadata)).isTrue();
+            assertThat(payload.getBuffer().readUtf8()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void testReadRecordsAreNotReplayedAfterRestart() throws IOException {
+        spool.append(createPayload(transactionMetadata, "foo", 1));
+        spool.append(createPayload(transactionMetadata, "bar", 1));
+        assertThat(spool.poll(createEmptyPayload(), transactionMetadata, errorMetadata)).isTrue();
+
+        spool = new DiskSpool(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+
+        final PayloadBuffer payload = createEmptyPayload();
+        assertThat(spool.poll(payload, transactionMetadata, errorMetadata)).isTrue();
+        assertThat(payload.getBuffer().readUtf8()).isEqualTo("bar");
+        assertThat(spool.poll(createEmptyPayload(), transactionMetadata, errorMetadata)).isFalse();
+        assertThat(directory.listFiles()).isEmpty();
+    }
+
+    @Test
+    void testCorruptSegmentIsDiscarded() throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(directory, "apm-spool-0000000000000000000.seg").toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            final ByteBuffer segment = ByteBuffer.allocate(SEGMENT_SIZE);
+            // a length which exceeds the segment
+            segment.putInt(0, SEGMENT_SIZE);
+            channel.write(segment);
+        }
+        spool = new DiskSpool(directory, 4 * SEGMENT_SIZE, SEGMENT_SIZE);
+
+        final PayloadBuffer payload = createEmptyPayload();
+        payload.getBuffer().writeUtf8("foo");
+        assertThat(spool.poll(payload, transactionMetadata, errorMetadata)).isFalse();
+        assertThat(payload.getBuffer().size()).isZero();
+        assertThat(directory.listFiles()).isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private PayloadBuffer createPayload(Payload metadata, String content, int numberOfEvents) {
+        final PayloadBuffer payload = new PayloadBuffer(mock(ObjectPool.class)).withMetadata(metadata);
+        payload.getBuffer().writeUtf8(content);
+        payload.markFinished(numberOfEvents);
+        return payload;
+    }
+
+    @SuppressWarnings("unchecked")
+    private PayloadBuffer createEmptyPayload() {
+        return new PayloadBuffer(mock(ObjectPool.class));
+    }
+}
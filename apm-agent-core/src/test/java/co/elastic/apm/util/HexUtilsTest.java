@@ -1,22 +1,23 @@
 package co.elastic.apm.util;
 
+import okio.Buffer;
 import org.junit.jupiter.api.Test;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 class HexUtilsTest {
 
     @Test
-    void bytesToHex() throws IOException {
-        byte[] bytes = new byte[16];
-        new Random().nextBytes(bytes);
-        ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length * 2);
-        HexUtils.writeBytesAsHex(bytes, os);
-        String hexAsString = new String(os.toByteArray());
-        assertThat(hexAsString).isEqualTo(HexUtils.bytesToHex(bytes));
+    void longToHex() throws IOException {
+        assertThat(HexUtils.longToHex(0xcafeL)).isEqualTo("000000000000cafe");
+        assertThat(HexUtils.longToHex(-1)).isEqualTo("ffffffffffffffff");
+
+        final Buffer buffer = new Buffer();
+        HexUtils.writeAsHex(0x123456789abcdefL, 16, buffer);
+        assertThat(buffer.readUtf8()).isEqualTo(HexUtils.longToHex(0x123456789abcdefL));
+        HexUtils.writeAsHex(0x123456789abcdefL, 4, buffer);
+        assertThat(buffer.readUtf8()).isEqualTo("cdef");
     }
 }
@@ -1,6 +1,7 @@
 package co.elastic.apm.jdbc;
 
 import co.elastic.apm.impl.ElasticApmTracer;
+import co.elastic.apm.impl.TraceContextHolder;
 import co.elastic.apm.impl.transaction.Span;
 import co.elastic.apm.impl.transaction.Transaction;
 import com.p6spy.engine.common.ConnectionInformation;
@@ -51,10 +52,11 @@ public class ApmJdbcEventListener extends SimpleJdbcEventListener {
 
     @Override
     public void onBeforeAnyExecute(StatementInformation statementInformation) {
-        if (isNoop(elasticApmTracer.currentTransaction())) {
+        final TraceContextHolder traceContext = elasticApmTracer.getTraceContext();
+        if (isNoop(traceContext.getTransaction())) {
             return;
         }
-        Span span = elasticApmTracer.startSpan();
+        Span span = elasticApmTracer.startSpan(traceContext);
         span.setName(getMethod(statementInformation.getStatementQuery()));
         try {
             String dbVendor = getDbVendor(statementInformation.getConnectionInformation().getConnection().getMetaData().getURL());
@@ -68,7 +70,7 @@ public class ApmJdbcEventListener extends SimpleJdbcEventListener {
         }
     }
 
-    private boolean isNoop(Transaction transaction) {
+    private boolean isNoop(@Nullable Transaction transaction) {
         return transaction == null || !transaction.isSampled();
     }
 
@@ -90,10 +92,11 @@ public class ApmJdbcEventListener extends SimpleJdbcEventListener {
 
     @Override
     public void onAfterAnyExecute(StatementInformation statementInformation, long timeElapsedNanos, SQLException e) {
-        if (isNoop(elasticApmTracer.currentTransaction())) {
+        final TraceContextHolder traceContext = elasticApmTracer.getTraceContext();
+        if (isNoop(traceContext.getTransaction())) {
             return;
         }
-        Span span = elasticApmTracer.currentSpan();
+        Span span = traceContext.getSpan();
         if (span != null) {
             span.end();
         }
@@ -69,10 +69,13 @@ public class ApmFilter implements Filter {
 
     private void fillTransaction(Transaction transaction, HttpServletRequest httpServletRequest,
                                  HttpServletResponse httpServletResponse) {
-        Context context = transaction.getContext();
-        fillRequest(transaction.getContext().getRequest(), httpServletRequest);
-        fillResponse(context.getResponse(), httpServletResponse);
-        fillUser(context.getUser(), httpServletRequest);
+        // non-sampled transactions only record the name, duration and result
+        if (transaction.isSampled()) {
+            Context context = transaction.getContext();
+            fillRequest(context.getRequest(), httpServletRequest);
+            fillResponse(context.getResponse(), httpServletResponse);
+            fillUser(context.getUser(), httpServletRequest);
+        }
 
         // TODO can this be set by apm-server when there is no explicit name set?
         transaction.withName(httpServletRequest.getRequestURI());